@@ -0,0 +1,101 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * 基准测试共用的临时目录、假NDK和合成堆栈
+ */
+final class BenchmarkFixtures {
+    static final String LOGCAT_NOISE = "10-17 12:00:00.000  1234  1250 I ActivityManager: "
+            + "Start proc 4321:com.example.app/u0a123 for pre-top-activity {com.example.app/.MainActivity}";
+
+    private BenchmarkFixtures() {
+    }
+
+    static Path createTempDir(String prefix) throws IOException {
+        Path dir = Files.createTempDirectory(prefix);
+        // 索引和缓存写到临时目录，不影响本机的数据目录
+        System.setProperty("ndktrace.home", dir.resolve("home").toString());
+        return dir;
+    }
+
+    /**
+     * 创建只包含指定工具的假NDK目录，工具由src/jmh/resources中的脚本模拟
+     */
+    static File createFakeNdk(Path root, String tool) throws IOException {
+        Path bin = root.resolve("toolchains/llvm/prebuilt/linux-x86_64/bin");
+        Files.createDirectories(bin);
+        if (tool != null) {
+            Path target = bin.resolve(tool);
+            try (InputStream in = BenchmarkFixtures.class.getResourceAsStream("/fake-" + tool + ".sh")) {
+                if (in == null) {
+                    throw new IOException("缺少假工具脚本: " + tool);
+                }
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (!target.toFile().setExecutable(true)) {
+                throw new IOException("无法设置执行权限: " + target);
+            }
+        }
+        return root.toFile();
+    }
+
+    /**
+     * 创建dirs个子目录、每个目录filesPerDir个SO的符号目录，返回目录中最后一个库的文件名
+     */
+    static String createSoTree(Path root, int dirs, int filesPerDir) throws IOException {
+        String[] abis = {"arm64-v8a", "armeabi-v7a", "x86", "x86_64"};
+        String last = null;
+        for (int d = 0; d < dirs; d++) {
+            Path dir = root.resolve("module" + d).resolve("obj/local").resolve(abis[d % abis.length]);
+            Files.createDirectories(dir);
+            for (int f = 0; f < filesPerDir; f++) {
+                last = "lib" + d + "_" + f + ".so";
+                Files.write(dir.resolve(last), new byte[16]);
+            }
+        }
+        return last;
+    }
+
+    /**
+     * 合成墓碑：ABI头加frames帧，帧地址各不相同，地址落在[base, base+frames*0x10)
+     */
+    static String tombstone(String library, int frames, long base) {
+        StringBuilder text = new StringBuilder();
+        text.append("*** *** *** *** *** *** *** *** *** *** *** *** *** *** *** ***\n");
+        text.append("ABI: 'x86_64'\n");
+        text.append("backtrace:\n");
+        for (int i = 0; i < frames; i++) {
+            text.append(String.format("      #%02d pc %016x  /data/app/~~abc==/com.example-1/lib/x86_64/%s%n",
+                    i, base + i * 0x10L, library));
+        }
+        return text.toString();
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
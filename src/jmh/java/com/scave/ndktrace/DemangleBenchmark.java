@@ -0,0 +1,118 @@
+package com.scave.ndktrace;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 还原一批典型的NDK修饰名：进程内不经缓存解析、经过共享缓存、以及启动外部c++filt
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DemangleBenchmark {
+    static final String[] NAMES = {
+            "_ZN7android14AndroidRuntime8startRegEP7_JNIEnv",
+            "_ZNSt6__ndk112basic_stringIcNS_11char_traitsIcEENS_9allocatorIcEEE6appendEPKcm",
+            "_ZNKSt6__ndk110__function6__funcIZN3app6Worker5startEvE3$_0NS_9allocatorIS4_EEFvvEE7__cloneEv",
+            "_ZN3app6Worker3runEv",
+            "_ZZN3app6Worker5startEvENKUlvE_clEv",
+            "_ZNSt6__ndk16vectorINS_10unique_ptrIN3app4TaskENS_14default_deleteIS3_EEEENS_9allocatorIS6_EEE9push_backEOS6_",
+            "_ZN3app5Codec6decodeIhLm16EEEbPKT_mRNSt6__ndk16vectorIS2_NS5_9allocatorIS2_EEEE",
+            "_ZNSt6__ndk13mapINS_12basic_stringIcNS_11char_traitsIcEENS_9allocatorIcEEEEiNS_4lessIS6_EENS4_INS_4pairIKS6_iEEEEEixERSA_",
+            "_ZThn8_N3app8Listener7onEventERKNS_5EventE",
+            "_ZN3app12_GLOBAL__N_112handleSignalEiP7siginfoPv",
+            "_ZNK3app6Buffer4dataB8ne180000Ev",
+            "_ZN3app8dispatchIJiPKcdEEEvPFvDpT_EDpOT_",
+    };
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (String name : NAMES) {
+            if (Demangler.parse(name) == null) {
+                throw new IllegalStateException("无法还原: " + name);
+            }
+        }
+    }
+
+    @Benchmark
+    public int parseUncached() {
+        int length = 0;
+        for (String name : NAMES) {
+            length += Demangler.parse(name).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int demangleCached() {
+        int length = 0;
+        for (String name : NAMES) {
+            length += Demangler.demangle(name).length();
+        }
+        return length;
+    }
+
+    /**
+     * 每批启动一次外部工具，和以前addr2line -C的开销相当
+     */
+    @Benchmark
+    public List<String> externalTool(External external) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(external.tool.getAbsolutePath())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try (OutputStream input = process.getOutputStream()) {
+            input.write((String.join("\n", NAMES) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        List<String> lines = new ArrayList<>(NAMES.length);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        process.waitFor();
+        return lines;
+    }
+
+    /**
+     * 外部工具用环境变量CXXFILT指定，否则在PATH中查找llvm-cxxfilt或c++filt
+     */
+    @State(Scope.Benchmark)
+    public static class External {
+        File tool;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            String configured = System.getenv("CXXFILT");
+            if (configured != null) {
+                tool = new File(configured);
+            } else {
+                String path = System.getenv("PATH");
+                for (String name : new String[]{"llvm-cxxfilt", "c++filt"}) {
+                    for (String dir : path == null ? new String[0] : path.split(File.pathSeparator)) {
+                        File candidate = new File(dir, name);
+                        if (tool == null && candidate.canExecute()) {
+                            tool = candidate;
+                        }
+                    }
+                }
+            }
+            if (tool == null || !tool.canExecute()) {
+                throw new IllegalStateException("找不到llvm-cxxfilt或c++filt");
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.scave.ndktrace;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 堆栈行解析：原来每行重新编译的正则、预编译正则和手写扫描器
+ * 输入按logcat的比例混合，每8行中有1行是帧
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameParseBenchmark {
+    private static final int LINES = 1024;
+    private static final String FRAME_REGEX = ".*pc\\s+([0-9a-fA-F]+)\\s+([^\\s]+)";
+    private static final Pattern PRECOMPILED = Pattern.compile(FRAME_REGEX);
+
+    private String[] lines;
+
+    @Setup
+    public void setup() {
+        lines = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = (i & 7) == 0
+                    ? String.format("10-17 12:00:01.000  4444  4444 F DEBUG   :       #%02d pc %016x  "
+                    + "/data/app/~~abc==/com.example-1/lib/arm64/libnative.so (Foo::bar(int)+12) "
+                    + "(BuildId: d2e4d0ba0a21116436288eba2edf05faf7171625)", i % 64, 0x1140L + i)
+                    : BenchmarkFixtures.LOGCAT_NOISE + " #" + i;
+        }
+    }
+
+    /**
+     * 原parseStackLine的写法：每一行都重新编译正则
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void legacyRegex(Blackhole bh) {
+        for (String line : lines) {
+            Matcher matcher = Pattern.compile(FRAME_REGEX).matcher(line);
+            if (matcher.find()) {
+                bh.consume(matcher.group(1));
+                bh.consume(matcher.group(2));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void precompiledRegex(Blackhole bh) {
+        for (String line : lines) {
+            Matcher matcher = PRECOMPILED.matcher(line);
+            if (matcher.find()) {
+                bh.consume(matcher.group(1));
+                bh.consume(matcher.group(2));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void frameParser(Blackhole bh) {
+        FrameParser.Frame frame = new FrameParser.Frame();
+        for (String line : lines) {
+            if (FrameParser.parse(line, frame)) {
+                bh.consume(frame.pc);
+                bh.consume(frame.module);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.scave.ndktrace;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在符号目录中按库名查找SO：原来每帧递归遍历目录的写法和目录索引
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LibraryLookupBenchmark {
+    @Param({"16", "128"})
+    public int dirs;
+
+    @Param({"32"})
+    public int filesPerDir;
+
+    private Path tempDir;
+    private File soRoot;
+    private String libName;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = BenchmarkFixtures.createTempDir("ndktrace-lookup");
+        Path root = tempDir.resolve("symbols");
+        libName = BenchmarkFixtures.createSoTree(root, dirs, filesPerDir);
+        soRoot = root.toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(tempDir);
+    }
+
+    /**
+     * 原findFileInDirectory：每次查找都用listFiles()递归遍历
+     */
+    @Benchmark
+    public File legacyRecursiveSearch() {
+        return findFileInDirectory(soRoot, libName);
+    }
+
+    @Benchmark
+    public File soLibraryIndex() {
+        return SoLibraryIndex.forDirectory(soRoot).find(libName, "x86_64");
+    }
+
+    @Benchmark
+    public File symbolStoreWithoutBuildId() {
+        return SymbolStore.resolve(soRoot, libName, null, "x86_64");
+    }
+
+    private static File findFileInDirectory(File directory, String fileName) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    File found = findFileInDirectory(file, fileName);
+                    if (found != null) {
+                        return found;
+                    }
+                } else if (file.getName().equals(fileName)) {
+                    return file;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,67 @@
+package com.scave.ndktrace;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端符号化合成墓碑，结果缓存关闭，每次都真实调用后端
+ * 外部工具后端使用src/jmh/resources中的假工具脚本，只衡量进程调度和流程本身的开销；
+ * builtin后端解析当前JDK自带的libjava.so（仅Linux）
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SymbolizeBenchmark {
+    @Param({"builtin", "llvm-symbolizer", "llvm-addr2line"})
+    public String backend;
+
+    @Param({"16", "256"})
+    public int frames;
+
+    private Path tempDir;
+    private StackTraceSymbolizer symbolizer;
+    private String stack;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = BenchmarkFixtures.createTempDir("ndktrace-symbolize");
+        SymbolCache.setEnabled(false);
+
+        File soFile;
+        File ndk;
+        if ("builtin".equals(backend)) {
+            soFile = new File(System.getProperty("java.home"), "lib/libjava.so");
+            if (!soFile.isFile()) {
+                throw new IllegalStateException("builtin后端需要Linux JDK中的libjava.so");
+            }
+            ndk = BenchmarkFixtures.createFakeNdk(tempDir.resolve("ndk"), null);
+        } else {
+            // 假SO不是ELF文件，不会走符号表直查，保证每帧都交给外部工具
+            soFile = tempDir.resolve("libnative.so").toFile();
+            Files.write(soFile.toPath(), new byte[16]);
+            ndk = BenchmarkFixtures.createFakeNdk(tempDir.resolve("ndk"), backend);
+        }
+        symbolizer = new StackTraceSymbolizer(soFile, ndk);
+        stack = BenchmarkFixtures.tombstone(soFile.getName(), frames, 0x10000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SymbolizerPool.shutdown();
+        SymbolCache.setEnabled(true);
+        BenchmarkFixtures.deleteRecursively(tempDir);
+    }
+
+    @Benchmark
+    public String symbolize() {
+        return symbolizer.symbolize(stack);
+    }
+}
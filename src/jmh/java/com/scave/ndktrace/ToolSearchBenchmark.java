@@ -0,0 +1,49 @@
+package com.scave.ndktrace;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在NDK目录中定位llvm-symbolizer和llvm-addr2line：每次重新查找和按NDK缓存的工具链
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ToolSearchBenchmark {
+    private Path tempDir;
+    private File ndk;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = BenchmarkFixtures.createTempDir("ndktrace-tools");
+        ndk = BenchmarkFixtures.createFakeNdk(tempDir.resolve("ndk"), "llvm-symbolizer");
+        BenchmarkFixtures.createFakeNdk(tempDir.resolve("ndk"), "llvm-addr2line");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(tempDir);
+    }
+
+    @Benchmark
+    public File findSymbolizerTool() {
+        return ToolSearcher.findSymbolizerTool(ndk);
+    }
+
+    @Benchmark
+    public File findAddr2lineTool() {
+        return ToolSearcher.findAddr2lineTool(ndk);
+    }
+
+    @Benchmark
+    public Toolchain toolchainForNdk() {
+        return Toolchain.forNdk(ndk);
+    }
+}
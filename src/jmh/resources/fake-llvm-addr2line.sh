@@ -0,0 +1,10 @@
+#!/bin/sh
+# 基准测试用的假llvm-addr2line：模拟-f -p的输出，每个地址一行
+while [ $# -gt 0 ]; do
+    case "$1" in
+        -e) shift ;;
+        -*) ;;
+        *) printf 'fake_%s at /src/fake.cpp:1\n' "$1" ;;
+    esac
+    shift
+done
@@ -0,0 +1,6 @@
+#!/bin/sh
+# 基准测试用的假llvm-symbolizer：交互模式下每个请求输出一对"函数/文件:行:列"，以空行结束
+while IFS= read -r request; do
+    address=${request##* }
+    printf 'fake_%s\n/src/fake.cpp:1:1\n\n' "$address"
+done
@@ -0,0 +1,26 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+
+/**
+ * 工具自己的数据目录，用于保存跨进程复用的索引和缓存
+ */
+final class AppDirs {
+    private AppDirs() {
+    }
+
+    static File dataDir() {
+        String override = System.getProperty("ndktrace.home");
+        File dir = override != null && !override.isEmpty()
+                ? new File(override)
+                : new File(System.getProperty("user.home"), ".ndktrace");
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return dir;
+    }
+
+    static File dataFile(String name) {
+        return new File(dataDir(), name);
+    }
+}
@@ -0,0 +1,232 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * APK/AAB/zip和tar.gz符号包中的SO，用"压缩包路径!/条目名"形式的File在流程中传递，和墓碑中base.apk!lib/...的写法一致
+ * 内置解析器直接映射zip中未压缩的条目；压缩的条目和外部工具需要的文件通过ExtractionCache解到磁盘
+ * build-id只读条目开头一段，查找时不需要解出整个SO
+ */
+final class ArchiveLibrary {
+    // ELF头、程序头和build-id注释都在SO开头这一段中
+    static final int PREFIX_BYTES = 64 * 1024;
+    private static final String SEPARATOR = "!" + File.separator;
+
+    // 条目的build-id，键为identity()
+    private static final Map<String, String> BUILD_IDS = new ConcurrentHashMap<>();
+
+    private ArchiveLibrary() {
+    }
+
+    static boolean isArchive(File file) {
+        return isArchiveName(file.getName()) && file.isFile();
+    }
+
+    static boolean isArchiveName(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".apk") || lower.endsWith(".aab") || lower.endsWith(".zip")
+                || TarIndex.isTarName(lower);
+    }
+
+    static boolean isEntry(File file) {
+        return file.getPath().contains(SEPARATOR);
+    }
+
+    static File entryFile(File archive, String entryName) {
+        return new File(archive.getAbsolutePath() + SEPARATOR + entryName);
+    }
+
+    /**
+     * 在压缩包中查找帧对应的SO
+     * 模块是"xx.apk!lib/abi/libx.so"时按条目名查找；模块是APK本身时按"(offset 0x...)"找到映射的条目；
+     * 都不满足时按库名查找，有build-id时优先取build-id一致的条目，其次按ABI
+     */
+    static File find(File archive, String module, long moduleOffset, String libName, String abi, String buildId) {
+        if (TarIndex.isTarName(archive.getName())) {
+            return findInTar(archive, module, libName, abi, buildId);
+        }
+        try {
+            ZipIndex index = ZipIndex.forArchive(archive);
+            ZipIndex.Entry entry = null;
+            int bang = module.indexOf('!');
+            if (bang >= 0) {
+                String name = module.substring(bang + 1);
+                entry = index.entry(name.startsWith("/") ? name.substring(1) : name);
+            } else if (moduleOffset >= 0 && isArchiveName(libName)) {
+                entry = index.entryAt(moduleOffset);
+            }
+            if (entry == null && !isArchiveName(libName)) {
+                if (buildId != null) {
+                    for (ZipIndex.Entry candidate : index.libraries(libName)) {
+                        if (buildId.equalsIgnoreCase(buildIdOf(entryFile(index.archive(), candidate.name)))) {
+                            return entryFile(index.archive(), candidate.name);
+                        }
+                    }
+                }
+                entry = index.findLibrary(libName, abi);
+            }
+            return entry == null ? null : entryFile(index.archive(), entry.name);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 符号包中的SO没有被系统映射，只按条目名、build-id和库名查找
+     */
+    private static File findInTar(File archive, String module, String libName, String abi, String buildId) {
+        try {
+            TarIndex index = TarIndex.forArchive(archive);
+            int bang = module.indexOf('!');
+            if (bang >= 0) {
+                String name = module.substring(bang + 1);
+                TarIndex.Entry entry = index.entry(name.startsWith("/") ? name.substring(1) : name);
+                if (entry != null) {
+                    return entryFile(index.archive(), entry.name);
+                }
+            }
+            if (buildId != null) {
+                for (TarIndex.Entry candidate : index.libraries(libName)) {
+                    if (buildId.equalsIgnoreCase(candidate.buildId)) {
+                        return entryFile(index.archive(), candidate.name);
+                    }
+                }
+            }
+            TarIndex.Entry entry = index.findLibrary(libName, abi);
+            return entry == null ? null : entryFile(index.archive(), entry.name);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 读取条目内容用于ELF解析，未压缩的条目直接映射压缩包中的区间
+     */
+    static ByteBuffer map(File entryFile) throws IOException {
+        File extracted;
+        if (isTarEntry(entryFile)) {
+            TarIndex index = TarIndex.forArchive(archiveOf(entryFile));
+            extracted = index.extract(tarEntryOf(index, entryFile));
+        } else {
+            ZipIndex index = ZipIndex.forArchive(archiveOf(entryFile));
+            ZipIndex.Entry entry = zipEntryOf(index, entryFile);
+            if (entry.method == ZipIndex.METHOD_STORED) {
+                return index.mapStored(entry);
+            }
+            extracted = index.extract(entry);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(extracted, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("压缩包中的SO超过2GB: " + entryFile.getName());
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * 外部工具只能读普通文件，压缩包中的条目先解到缓存目录；普通文件原样返回
+     */
+    static File materialize(File file) throws IOException {
+        if (!isEntry(file)) {
+            return file;
+        }
+        if (isTarEntry(file)) {
+            TarIndex index = TarIndex.forArchive(archiveOf(file));
+            return index.extract(tarEntryOf(index, file));
+        }
+        ZipIndex index = ZipIndex.forArchive(archiveOf(file));
+        return index.extract(zipEntryOf(index, file));
+    }
+
+    /**
+     * 文件身份：路径、大小和修改时间，压缩包中的条目使用压缩包的大小和修改时间
+     */
+    static String identity(File file) {
+        if (isEntry(file)) {
+            File archive = archiveOf(file);
+            return file.getAbsolutePath() + "|" + archive.length() + "|" + archive.lastModified();
+        }
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    static boolean exists(File file) {
+        return isEntry(file) ? archiveOf(file).isFile() : file.exists();
+    }
+
+    /**
+     * 条目的build-id，tar.gz在建索引时已经读出，zip只映射或解压条目开头一段
+     */
+    static String buildIdOf(File entryFile) {
+        String key = identity(entryFile);
+        String cached = BUILD_IDS.get(key);
+        if (cached == null) {
+            try {
+                String buildId;
+                if (isTarEntry(entryFile)) {
+                    TarIndex index = TarIndex.forArchive(archiveOf(entryFile));
+                    buildId = tarEntryOf(index, entryFile).buildId;
+                } else {
+                    ZipIndex index = ZipIndex.forArchive(archiveOf(entryFile));
+                    buildId = index.buildId(zipEntryOf(index, entryFile));
+                }
+                cached = buildId == null ? "" : buildId;
+            } catch (IOException e) {
+                cached = "";
+            }
+            BUILD_IDS.put(key, cached);
+        }
+        return cached.isEmpty() ? null : cached;
+    }
+
+    /**
+     * 读取流开头最多PREFIX_BYTES字节
+     */
+    static ByteBuffer readPrefix(InputStream in) throws IOException {
+        byte[] buffer = new byte[PREFIX_BYTES];
+        int read = 0;
+        int n;
+        while (read < buffer.length && (n = in.read(buffer, read, buffer.length - read)) > 0) {
+            read += n;
+        }
+        return ByteBuffer.wrap(buffer, 0, read).slice();
+    }
+
+    private static boolean isTarEntry(File entryFile) {
+        return TarIndex.isTarName(archiveOf(entryFile).getName());
+    }
+
+    private static File archiveOf(File entryFile) {
+        String path = entryFile.getPath();
+        return new File(path.substring(0, path.indexOf(SEPARATOR)));
+    }
+
+    private static String entryNameOf(File entryFile) {
+        String path = entryFile.getPath();
+        return path.substring(path.indexOf(SEPARATOR) + SEPARATOR.length()).replace(File.separatorChar, '/');
+    }
+
+    private static ZipIndex.Entry zipEntryOf(ZipIndex index, File entryFile) throws IOException {
+        ZipIndex.Entry entry = index.entry(entryNameOf(entryFile));
+        if (entry == null) {
+            throw new IOException("压缩包中没有: " + entryNameOf(entryFile));
+        }
+        return entry;
+    }
+
+    private static TarIndex.Entry tarEntryOf(TarIndex index, File entryFile) throws IOException {
+        TarIndex.Entry entry = index.entry(entryNameOf(entryFile));
+        if (entry == null) {
+            throw new IOException("压缩包中没有: " + entryNameOf(entryFile));
+        }
+        return entry;
+    }
+}
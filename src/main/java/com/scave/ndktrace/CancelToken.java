@@ -0,0 +1,46 @@
+package com.scave.ndktrace;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一次解析任务的取消标记，取消时会结束所有登记中的外部工具进程
+ */
+public final class CancelToken {
+    public static final CancelToken NONE = new CancelToken();
+
+    private final Set<Process> processes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        if (this == NONE) {
+            return;
+        }
+        cancelled = true;
+        for (Process process : processes) {
+            ProcessRunner.destroyTree(process);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 登记正在为本任务工作的进程，已经取消时立即结束它
+     */
+    void register(Process process) {
+        if (this == NONE) {
+            return;
+        }
+        processes.add(process);
+        if (cancelled) {
+            ProcessRunner.destroyTree(process);
+        }
+    }
+
+    void unregister(Process process) {
+        processes.remove(process);
+    }
+}
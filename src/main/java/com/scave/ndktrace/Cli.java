@@ -0,0 +1,321 @@
+package com.scave.ndktrace;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 无界面的批量模式，用于在崩溃处理流水线中批量还原墓碑文件
+ * 用法: --symbols <SO文件或目录> [--ndk <NDK目录>] [--jobs N] [--out <输出目录>] [--aggregate <汇总文件>] [文件或目录...]
+ * 不指定输入时从标准输入读取，结果写到标准输出；指定--serve时启动本地HTTP服务，指定--watch时监视收件目录
+ */
+final class Cli {
+    static final String OUTPUT_SUFFIX = ".symbolized.txt";
+
+    private Cli() {
+    }
+
+    static int run(String[] args) {
+        File ndkPath = new File("");
+        File symbols = null;
+        List<File> allowedSymbols = new ArrayList<>();
+        File outDir = null;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        int servePort = -1;
+        File aggregateFile = null;
+        int topFrames = 5;
+        String host = "127.0.0.1";
+        long metricsInterval = -1;
+        File watchDir = null;
+        int queueCapacity = -1;
+        List<File> inputs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            try {
+                switch (arg) {
+                    case "--ndk":
+                        ndkPath = new File(args[++i]);
+                        break;
+                    case "--symbols":
+                        symbols = new File(args[++i]);
+                        break;
+                    case "--out":
+                        outDir = new File(args[++i]);
+                        break;
+                    case "--jobs":
+                        jobs = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--aggregate":
+                        aggregateFile = new File(args[++i]);
+                        break;
+                    case "--top":
+                        topFrames = Integer.parseInt(args[++i]);
+                        break;
+                    case "--serve":
+                        servePort = Integer.parseInt(args[++i]);
+                        break;
+                    case "--host":
+                        host = args[++i];
+                        break;
+                    case "--allow-symbols":
+                        allowedSymbols.add(new File(args[++i]));
+                        break;
+                    case "--watch":
+                        watchDir = new File(args[++i]);
+                        break;
+                    case "--queue":
+                        queueCapacity = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--metrics":
+                        metricsInterval = Long.parseLong(args[++i]);
+                        break;
+                    case "-h":
+                    case "--help":
+                        usage(System.out);
+                        return 0;
+                    default:
+                        if (arg.startsWith("--")) {
+                            System.err.println("未知参数: " + arg);
+                            usage(System.err);
+                            return 2;
+                        }
+                        inputs.add(new File(arg));
+                        break;
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                System.err.println("参数错误: " + arg);
+                usage(System.err);
+                return 2;
+            }
+        }
+        if (metricsInterval >= 0) {
+            Metrics.setEnabled(true);
+            if (metricsInterval > 0) {
+                Metrics.startReporter(metricsInterval, System.err);
+            }
+        }
+        if (servePort >= 0) {
+            return serve(host, servePort, symbols, allowedSymbols, ndkPath, jobs);
+        }
+        if (symbols == null) {
+            System.err.println("缺少--symbols参数");
+            usage(System.err);
+            return 2;
+        }
+
+        StackTraceSymbolizer symbolizer = new StackTraceSymbolizer(symbols, ndkPath);
+        if (watchDir != null) {
+            return watch(symbolizer, watchDir, outDir, jobs, queueCapacity > 0 ? queueCapacity : jobs * 4);
+        }
+        if (inputs.isEmpty()) {
+            try {
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                CrashLogReader.read(Channels.newChannel(System.in), block -> {
+                    out.write(symbolizer.symbolize(block));
+                    out.flush();
+                });
+                return 0;
+            } catch (IOException e) {
+                System.err.println("读取标准输入失败: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        List<Path[]> tasks = new ArrayList<>();
+        for (File input : inputs) {
+            if (!input.exists()) {
+                System.err.println("输入不存在: " + input);
+                return 2;
+            }
+            collect(input.toPath(), outDir == null ? null : outDir.toPath(), tasks);
+        }
+        CrashAggregator aggregator = aggregateFile == null ? null : new CrashAggregator(topFrames);
+        int status = runBatch(symbolizer, tasks, jobs, aggregator);
+        if (aggregator != null) {
+            try (Writer out = Files.newBufferedWriter(aggregateFile.toPath(), StandardCharsets.UTF_8)) {
+                aggregator.writeReport(out);
+            } catch (IOException e) {
+                System.err.println("写入汇总失败: " + e.getMessage());
+                return 1;
+            }
+            System.err.println("汇总 " + aggregator.reports() + " 份崩溃为 " + aggregator.bucketCount() + " 个签名: " + aggregateFile);
+        }
+        if (Metrics.isEnabled()) {
+            System.err.print(Metrics.summary());
+        }
+        return status;
+    }
+
+    private static int serve(String host, int port, File symbols, List<File> allowedSymbols, File ndkPath, int jobs) {
+        SymbolServer server;
+        try {
+            server = new SymbolServer(host, port, symbols, allowedSymbols, ndkPath, jobs);
+        } catch (IOException e) {
+            System.err.println("启动服务失败: " + e.getMessage());
+            return 1;
+        }
+        server.start();
+        System.err.println("符号化服务已启动: http://" + host + ":" + server.port() + "/symbolize");
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.stop();
+        return 0;
+    }
+
+    private static int watch(StackTraceSymbolizer symbolizer, File inbox, File outbox, int jobs, int queueCapacity) {
+        if (!inbox.isDirectory()) {
+            System.err.println("收件目录不存在: " + inbox);
+            return 2;
+        }
+        if (outbox == null) {
+            System.err.println("监视模式需要--out指定结果目录");
+            return 2;
+        }
+        WatchDaemon daemon = new WatchDaemon(symbolizer, inbox.toPath(), outbox.toPath(), jobs, queueCapacity);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop, "watch-shutdown"));
+        System.err.println("正在监视: " + inbox.getAbsolutePath() + " -> " + outbox.getAbsolutePath());
+        try {
+            daemon.run(System.err);
+        } catch (IOException e) {
+            System.err.println("监视目录失败: " + e.getMessage());
+            return 1;
+        }
+        System.err.println(daemon.status());
+        return 0;
+    }
+
+    /**
+     * 在work-stealing线程池中并发处理所有输入
+     * 外部工具进程数随之受限：每个线程同一时刻只运行一个addr2line，symbolizer进程池上限也设为线程数
+     */
+    private static int runBatch(StackTraceSymbolizer symbolizer, List<Path[]> tasks, int jobs,
+                                CrashAggregator aggregator) {
+        SymbolizerPool.setMaxWorkersPerTool(jobs);
+        ForkJoinPool pool = new ForkJoinPool(jobs);
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong frames = new AtomicLong();
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>(tasks.size());
+            for (Path[] task : tasks) {
+                futures.add(pool.submit(() -> {
+                    try {
+                        frames.addAndGet(symbolizeFile(symbolizer, task[0], task[1], aggregator));
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        System.err.println("处理失败: " + task[0] + ": " + e.getMessage());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                }
+            }
+        } finally {
+            pool.shutdown();
+            SymbolizerPool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.err.println(String.format("完成 %d 个文件，失败 %d 个，共 %d 帧，耗时 %.2f 秒，%.1f 帧/秒",
+                tasks.size(), failed.get(), frames.get(), seconds, seconds > 0 ? frames.get() / seconds : 0));
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    private static void collect(Path input, Path outDir, List<Path[]> tasks) {
+        if (Files.isDirectory(input)) {
+            try (Stream<Path> stream = Files.walk(input)) {
+                stream.filter(Files::isRegularFile)
+                        .filter(path -> !path.getFileName().toString().endsWith(OUTPUT_SUFFIX))
+                        .sorted()
+                        .forEach(path -> {
+                            Path target = outDir == null
+                                    ? outputNextTo(path)
+                                    : outDir.resolve(input.relativize(path).toString() + OUTPUT_SUFFIX);
+                            tasks.add(new Path[]{path, target});
+                        });
+            } catch (IOException e) {
+                System.err.println("遍历目录失败: " + input + ": " + e.getMessage());
+            }
+        } else {
+            Path target = outDir == null
+                    ? outputNextTo(input)
+                    : outDir.resolve(input.getFileName().toString() + OUTPUT_SUFFIX);
+            tasks.add(new Path[]{input, target});
+        }
+    }
+
+    private static Path outputNextTo(Path input) {
+        return input.resolveSibling(input.getFileName().toString() + OUTPUT_SUFFIX);
+    }
+
+    /**
+     * 按崩溃块流式读取输入并逐块写出结果，输入再大内存占用也不变
+     * 先写临时文件再改名，下游不会读到写了一半的结果
+     */
+    static long symbolizeFile(StackTraceSymbolizer symbolizer, Path input, Path target,
+                              CrashAggregator aggregator) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        long[] frames = new long[1];
+        try {
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                CrashLogReader.read(input, block -> {
+                    List<StackFrame> resolved = symbolizer.resolve(block, CancelToken.NONE, null);
+                    frames[0] += resolved.size();
+                    out.write(StackTraceSymbolizer.formatFrames(resolved));
+                    if (aggregator != null) {
+                        long timestamp = CrashAggregator.timestampOf(block);
+                        aggregator.add(resolved, timestamp >= 0 ? timestamp : input.toFile().lastModified());
+                    }
+                });
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return frames[0];
+    }
+
+    private static void usage(PrintStream out) {
+        out.println("用法: ndktrace --symbols <SO文件或目录> [--ndk <NDK目录>] [--jobs N] [--out <输出目录>] [文件或目录...]");
+        out.println("  --symbols  带调试信息的SO文件或包含SO的目录");
+        out.println("  --ndk      NDK根目录，不指定时使用内置解析器");
+        out.println("  --jobs     并发处理的文件数，同时也是外部工具进程数的上限，默认为CPU核数");
+        out.println("  --out      结果输出目录，默认写在输入文件旁边(" + OUTPUT_SUFFIX + ")");
+        out.println("  --aggregate <文件>  按崩溃签名归并所有报告，按次数排序写入该文件");
+        out.println("  --top      计算签名使用的栈顶帧数，默认5");
+        out.println("  --metrics <秒>  统计各阶段耗时、进程数和缓存命中率并发布到JMX，每隔指定秒数打印摘要(0为只在结束时打印)");
+        out.println("不指定输入文件时从标准输入读取堆栈，结果写到标准输出");
+        out.println();
+        out.println("监视模式: ndktrace --symbols <SO文件或目录> --watch <收件目录> --out <结果目录> [--jobs N] [--queue N]");
+        out.println("  --watch    持续处理放入收件目录的墓碑文件，重启后跳过已有结果的文件");
+        out.println("  --queue    待处理队列长度，队列满时暂停接收新文件，默认为jobs的4倍");
+        out.println();
+        out.println("服务模式: ndktrace --serve <端口> [--host <地址>] [--symbols <默认符号路径>] [--allow-symbols <目录>]... [--ndk <NDK目录>] [--jobs N]");
+        out.println("  POST /symbolize  提交墓碑文本或JSON帧列表，GET /stats 查看统计");
+        out.println("  --allow-symbols  请求中可以指定的符号路径范围，可重复；--symbols之下的路径总是允许");
+    }
+}
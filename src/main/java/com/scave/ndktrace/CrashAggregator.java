@@ -0,0 +1,232 @@
+package com.scave.ndktrace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按崩溃签名归并符号化后的崩溃报告
+ * 签名由最上面N个有效帧的"库名!函数名"组成，帧字符串统一驻留为整数编号，
+ * 每个桶只保存编号数组和基本类型计数，几百万份报告也只占用很少的内存
+ */
+final class CrashAggregator {
+    // 崩溃处理本身产生的帧，不参与签名
+    private static final String[] NOISE_FUNCTIONS = {
+            "abort", "raise", "tgkill", "__pthread_kill", "pthread_kill", "__libc_android_abort",
+            "__fortify_fatal", "__stack_chk_fail", "android_set_abort_message"
+    };
+
+    private final int topFrames;
+    private final Map<String, Integer> internIds = new HashMap<>();
+    private final List<String> interned = new ArrayList<>();
+    private final Map<Signature, Bucket> buckets = new HashMap<>();
+    private long reports;
+
+    CrashAggregator(int topFrames) {
+        this.topFrames = Math.max(1, topFrames);
+    }
+
+    /**
+     * 加入一份已经符号化的报告，timestamp为崩溃时间（毫秒），未知时由调用方传入文件时间
+     */
+    synchronized void add(List<StackFrame> frames, long timestamp) {
+        if (frames.isEmpty()) {
+            return;
+        }
+        int[] ids = new int[topFrames];
+        int count = 0;
+        int[] versions = new int[topFrames];
+        int versionCount = 0;
+        for (StackFrame frame : frames) {
+            if (count == topFrames) {
+                break;
+            }
+            String library = new java.io.File(frame.libPath).getName();
+            String function = functionOf(frame);
+            if (count == 0 && isNoise(function)) {
+                continue;
+            }
+            ids[count++] = intern(library + "!" + function);
+            String buildId = frame.buildId != null ? frame.buildId : SymbolStore.buildIdOf(frame.soFile);
+            if (buildId != null && !buildId.isEmpty()) {
+                String version = library + "@" + (buildId.length() > 12 ? buildId.substring(0, 12) : buildId);
+                versions[versionCount++] = intern(version);
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        reports++;
+        Signature signature = new Signature(count == topFrames ? ids : Arrays.copyOf(ids, count));
+        Bucket bucket = buckets.get(signature);
+        if (bucket == null) {
+            bucket = new Bucket(signature.frames, timestamp);
+            buckets.put(signature, bucket);
+        }
+        bucket.count++;
+        bucket.firstSeen = Math.min(bucket.firstSeen, timestamp);
+        bucket.lastSeen = Math.max(bucket.lastSeen, timestamp);
+        for (int i = 0; i < versionCount; i++) {
+            bucket.addVersion(versions[i]);
+        }
+    }
+
+    synchronized long reports() {
+        return reports;
+    }
+
+    synchronized int bucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * 按出现次数从高到低输出汇总
+     */
+    synchronized void writeReport(Writer out) throws IOException {
+        List<Bucket> sorted = new ArrayList<>(buckets.values());
+        sorted.sort((a, b) -> Long.compare(b.count, a.count));
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        out.write("共 " + reports + " 份崩溃，" + sorted.size() + " 个签名\n\n");
+        int rank = 1;
+        for (Bucket bucket : sorted) {
+            out.write(String.format("#%d  %d 次 (%.1f%%)  首次 %s  最近 %s\n", rank++, bucket.count,
+                    bucket.count * 100.0 / reports,
+                    format.format(new Date(bucket.firstSeen)), format.format(new Date(bucket.lastSeen))));
+            for (int id : bucket.frames) {
+                out.write("    " + interned.get(id) + "\n");
+            }
+            if (bucket.versionCount > 0) {
+                out.write("    版本:");
+                for (int i = 0; i < bucket.versionCount; i++) {
+                    out.write(" " + interned.get(bucket.versions[i]));
+                }
+                out.write("\n");
+            }
+            out.write("\n");
+        }
+    }
+
+    /**
+     * 从崩溃块中提取崩溃时间，只认墓碑中的"Timestamp:"行，找不到返回-1
+     */
+    static long timestampOf(String block) {
+        int index = block.indexOf("Timestamp: ");
+        if (index < 0) {
+            return -1;
+        }
+        int start = index + "Timestamp: ".length();
+        if (start + 19 > block.length()) {
+            return -1;
+        }
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(block.substring(start, start + 19)).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 取最内层的函数名并去掉偏移，解析失败时退回到堆栈自带的函数名提示
+     */
+    static String functionOf(StackFrame frame) {
+        String function = null;
+        if (!ToolExecutor.isFailure(frame.result)) {
+            int at = frame.result.indexOf(" at ");
+            function = at >= 0 ? frame.result.substring(0, at) : frame.result;
+        } else if (frame.functionHint != null) {
+            function = frame.functionHint;
+        }
+        if (function == null) {
+            return "0x" + frame.address;
+        }
+        int plus = function.lastIndexOf('+');
+        if (plus > 0 && plus + 1 < function.length() && isOffset(function, plus + 1)) {
+            function = function.substring(0, plus);
+        }
+        // 墓碑自带的函数名提示是修饰名
+        return Demangler.demangle(function.trim());
+    }
+
+    private static boolean isOffset(String text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNoise(String function) {
+        for (String noise : NOISE_FUNCTIONS) {
+            if (noise.equals(function)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int intern(String value) {
+        Integer id = internIds.get(value);
+        if (id == null) {
+            id = interned.size();
+            interned.add(value);
+            internIds.put(value, id);
+        }
+        return id;
+    }
+
+    private static final class Signature {
+        final int[] frames;
+        final int hash;
+
+        Signature(int[] frames) {
+            this.frames = frames;
+            this.hash = Arrays.hashCode(frames);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature && Arrays.equals(frames, ((Signature) o).frames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Bucket {
+        final int[] frames;
+        long count;
+        long firstSeen;
+        long lastSeen;
+        int[] versions = new int[1];
+        int versionCount;
+
+        Bucket(int[] frames, long timestamp) {
+            this.frames = frames;
+            this.firstSeen = timestamp;
+            this.lastSeen = timestamp;
+        }
+
+        void addVersion(int id) {
+            for (int i = 0; i < versionCount; i++) {
+                if (versions[i] == id) {
+                    return;
+                }
+            }
+            if (versionCount == versions.length) {
+                versions = Arrays.copyOf(versions, versionCount * 2);
+            }
+            versions[versionCount++] = id;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.scave.ndktrace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 流式读取墓碑、logcat或bugreport，只挑出崩溃块交给下游
+ * 输入按固定大小的块读取，不相关的行只在字节层面检查、不解码成字符串，内存占用与输入大小无关
+ * 崩溃块从"*** *** ***"头、"backtrace:"或第一条帧开始，到帧之后第一条非帧行结束；
+ * 帧的判断与FrameParser一致，墓碑、ASan、Breakpad和Crashlytics格式都能识别。
+ * Breakpad的帧之间有缩进的寄存器和"Found by"行，这些行不结束崩溃块
+ */
+final class CrashLogReader {
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    // 超长的行只保留开头部分
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    // 单个崩溃块的行数上限，超过时先交给下游再继续
+    private static final int MAX_BLOCK_LINES = 4096;
+    // 崩溃头之后这么多行内还没有出现帧，认为不是完整的崩溃块
+    private static final int MAX_HEADER_LINES = 512;
+
+    private static final byte[] HEADER = "*** *** ***".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BACKTRACE = "backtrace:".getBytes(StandardCharsets.US_ASCII);
+
+    interface BlockHandler {
+        void onBlock(String block) throws IOException;
+    }
+
+    private final BlockHandler handler;
+    private final StringBuilder block = new StringBuilder();
+    private final ByteLine view = new ByteLine();
+    private final FrameParser.Frame frame = new FrameParser.Frame();
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean truncated;
+    private int blockLines;
+    private boolean inBlock;
+    private boolean sawFrame;
+    private FrameParser.Format blockFormat;
+    private long blocks;
+
+    private CrashLogReader(BlockHandler handler) {
+        this.handler = handler;
+    }
+
+    static long read(Path file, BlockHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel, handler);
+        }
+    }
+
+    /**
+     * 读取整个通道，返回交给下游的崩溃块数量
+     */
+    static long read(ReadableByteChannel channel, BlockHandler handler) throws IOException {
+        CrashLogReader reader = new CrashLogReader(handler);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            reader.consume(buffer);
+            buffer.clear();
+        }
+        if (reader.lineLength > 0 || reader.truncated) {
+            reader.endLine();
+        }
+        reader.flushBlock();
+        return reader.blocks;
+    }
+
+    private void consume(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                endLine();
+            } else if (lineLength < MAX_LINE_BYTES) {
+                if (lineLength == line.length) {
+                    line = Arrays.copyOf(line, Math.min(MAX_LINE_BYTES, line.length * 2));
+                }
+                line[lineLength++] = b;
+            } else {
+                truncated = true;
+            }
+        }
+    }
+
+    private void endLine() throws IOException {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        lineLength = 0;
+        truncated = false;
+
+        boolean header = contains(line, length, HEADER);
+        boolean isFrame = !header && isFrame(line, length);
+        if (header) {
+            // 新的崩溃头，上一个块到此结束
+            flushBlock();
+            startBlock();
+        } else if (inBlock) {
+            if (sawFrame && !isFrame && !continuesBlock(line, length)) {
+                flushBlock();
+                return;
+            }
+            if (!sawFrame && blockLines >= MAX_HEADER_LINES) {
+                // 崩溃头之后一直没有帧，丢弃这个块
+                resetBlock();
+                return;
+            }
+        } else if (isFrame || contains(line, length, BACKTRACE)) {
+            startBlock();
+        } else {
+            return;
+        }
+
+        if (isFrame) {
+            sawFrame = true;
+            blockFormat = frame.format;
+        }
+        block.append(new String(line, 0, length, StandardCharsets.UTF_8)).append('\n');
+        if (++blockLines >= MAX_BLOCK_LINES && sawFrame) {
+            handler.onBlock(block.toString());
+            block.setLength(0);
+            blockLines = 0;
+        }
+    }
+
+    private void startBlock() {
+        inBlock = true;
+        sawFrame = false;
+        blockFormat = null;
+        blockLines = 0;
+        block.setLength(0);
+    }
+
+    private void flushBlock() throws IOException {
+        if (inBlock && sawFrame && block.length() > 0) {
+            blocks++;
+            handler.onBlock(block.toString());
+        }
+        resetBlock();
+    }
+
+    private void resetBlock() {
+        inBlock = false;
+        sawFrame = false;
+        blockFormat = null;
+        blockLines = 0;
+        block.setLength(0);
+        // 处理过超长块后不继续占用大缓冲
+        if (block.capacity() > MAX_LINE_BYTES * 4) {
+            block.trimToSize();
+        }
+    }
+
+    /**
+     * 直接在字节上运行FrameParser，不匹配的行不解码也不分配对象
+     */
+    private boolean isFrame(byte[] bytes, int length) {
+        view.reset(bytes, length);
+        return FrameParser.parse(view, frame);
+    }
+
+    /**
+     * Breakpad块中帧之后缩进的非空行属于同一个线程的堆栈
+     */
+    private boolean continuesBlock(byte[] bytes, int length) {
+        if (blockFormat != FrameParser.Format.BREAKPAD || length == 0 || (bytes[0] != ' ' && bytes[0] != '\t')) {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            if (bytes[i] != ' ' && bytes[i] != '\t') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(byte[] bytes, int length, byte[] needle) {
+        return indexOf(bytes, length, needle, 0) >= 0;
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte[] needle, int from) {
+        byte first = needle[0];
+        int max = length - needle.length;
+        for (int i = from; i <= max; i++) {
+            if (bytes[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < needle.length && bytes[i + j] == needle[j]) {
+                j++;
+            }
+            if (j == needle.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 把行缓冲按Latin-1看作字符序列；帧中的数字、地址和分隔符都是ASCII，
+     * 只有匹配成功后取子串时才创建字符串，块内容仍按UTF-8解码
+     */
+    private static final class ByteLine implements CharSequence {
+        private byte[] bytes;
+        private int length;
+
+        void reset(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index >= length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return (char) (bytes[index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * 数据目录中文件的进程间锁，GUI、命令行和监视进程共用同一份索引和缓存文件
+ * 锁文件的通道一直保持打开；FileLock在同一JVM中不能重复获取，调用方自己保证进程内串行
+ */
+final class DataFileLock {
+    private final File lockFile;
+    private FileChannel channel;
+
+    DataFileLock(String name) {
+        lockFile = AppDirs.dataFile(name + ".lock");
+    }
+
+    /**
+     * 阻塞直到拿到锁，用try-with-resources释放
+     */
+    synchronized FileLock acquire() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        return channel.lock();
+    }
+
+    /**
+     * 用临时文件原子地替换目标文件，目标文件在别处打开时也不会留下半个文件
+     */
+    static void replace(File temp, File target) throws IOException {
+        try {
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 文件的身份（inode等），被替换后会变化；平台不提供时返回null
+     */
+    static Object fileKey(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,1951 @@
+package com.scave.ndktrace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Itanium C++ ABI符号名还原，输出格式和llvm-cxxfilt一致
+ * 先解析成节点树再打印，函数指针、数组引用等需要把名字夹在类型中间的写法才能正确输出；
+ * 结果按原始名缓存在两代的并发表中，std::__ndk1::这类反复出现的名字每个进程只解析一次
+ */
+final class Demangler {
+    // 每一代最多保存的名字数，新一代满了之后旧一代被丢弃，仍在使用的名字会被重新放入新一代
+    private static final int GENERATION_SIZE = 8192;
+
+    private static volatile Map<String, String> young = new ConcurrentHashMap<>();
+    private static volatile Map<String, String> old = new ConcurrentHashMap<>();
+
+    private static final Map<Character, String> BUILTINS = new HashMap<>();
+    // 运算符编码到{符号, 类别}，类别：b二元、u前置一元、p后置一元、n只用于运算符函数名
+    private static final Map<String, String[]> OPERATORS = new HashMap<>();
+
+    static {
+        String[][] builtins = {
+                {"v", "void"}, {"w", "wchar_t"}, {"b", "bool"}, {"c", "char"}, {"a", "signed char"},
+                {"h", "unsigned char"}, {"s", "short"}, {"t", "unsigned short"}, {"i", "int"},
+                {"j", "unsigned int"}, {"l", "long"}, {"m", "unsigned long"}, {"x", "long long"},
+                {"y", "unsigned long long"}, {"n", "__int128"}, {"o", "unsigned __int128"}, {"f", "float"},
+                {"d", "double"}, {"e", "long double"}, {"g", "__float128"}, {"z", "..."}};
+        for (String[] builtin : builtins) {
+            BUILTINS.put(builtin[0].charAt(0), builtin[1]);
+        }
+        String[][] operators = {
+                {"aa", "&&", "b"}, {"ad", "&", "u"}, {"an", "&", "b"}, {"aN", "&=", "b"}, {"aS", "=", "b"},
+                {"aw", "co_await", "u"}, {"cl", "()", "n"}, {"cm", ",", "b"}, {"co", "~", "u"},
+                {"da", "delete[]", "u"}, {"de", "*", "u"}, {"dl", "delete", "u"}, {"dv", "/", "b"},
+                {"dV", "/=", "b"}, {"eo", "^", "b"}, {"eO", "^=", "b"}, {"eq", "==", "b"}, {"ge", ">=", "b"},
+                {"gt", ">", "b"}, {"ix", "[]", "n"}, {"le", "<=", "b"}, {"ls", "<<", "b"}, {"lS", "<<=", "b"},
+                {"lt", "<", "b"}, {"mi", "-", "b"}, {"mI", "-=", "b"}, {"ml", "*", "b"}, {"mL", "*=", "b"},
+                {"mm", "--", "p"}, {"na", "new[]", "n"}, {"ne", "!=", "b"}, {"ng", "-", "u"}, {"nt", "!", "u"},
+                {"nw", "new", "n"}, {"oo", "||", "b"}, {"or", "|", "b"}, {"oR", "|=", "b"}, {"pm", "->*", "b"},
+                {"pl", "+", "b"}, {"pL", "+=", "b"}, {"pp", "++", "p"}, {"ps", "+", "u"}, {"pt", "->", "n"},
+                {"qu", "?", "n"}, {"rm", "%", "b"}, {"rM", "%=", "b"}, {"rs", ">>", "b"}, {"rS", ">>=", "b"},
+                {"ss", "<=>", "b"}};
+        for (String[] operator : operators) {
+            OPERATORS.put(operator[0], new String[]{operator[1], operator[2]});
+        }
+    }
+
+    private final String input;
+    private int pos;
+    // 可被S_/S<seq-id>_引用的组件
+    private final List<Node> subs = new ArrayList<>();
+    // 当前函数或类模板的实参，用于T_/T<n>_
+    private List<Node> templateParams = new ArrayList<>();
+    // 正在解析泛型lambda的参数，超出范围的模板参数是auto
+    private boolean inLambda;
+
+    private Demangler(String input) {
+        this.input = input;
+    }
+
+    /**
+     * 还原符号名，不是Itanium修饰名或无法解析时原样返回
+     */
+    static String demangle(String name) {
+        if (name == null || !name.startsWith("_Z")) {
+            return name;
+        }
+        String cached = young.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        cached = old.get(name);
+        if (cached == null) {
+            long start = Metrics.start();
+            String demangled = parse(name);
+            Metrics.stop(Metrics.Stage.DEMANGLE, start);
+            cached = demangled != null ? demangled : name;
+        }
+        Map<String, String> current = young;
+        current.put(name, cached);
+        if (current.size() > GENERATION_SIZE) {
+            rotate(current);
+        }
+        return cached;
+    }
+
+    /**
+     * 还原addr2line -p输出中的函数名，包括" (inlined by) "连接的内联链
+     */
+    static String demangleResult(String result) {
+        if (result == null || result.indexOf("_Z") < 0) {
+            return result;
+        }
+        StringBuilder output = new StringBuilder(result.length() * 2);
+        int from = 0;
+        while (from <= result.length()) {
+            int end = result.indexOf(" (inlined by) ", from);
+            String frame = result.substring(from, end < 0 ? result.length() : end);
+            int at = frame.indexOf(" at ");
+            output.append(demangle(at >= 0 ? frame.substring(0, at) : frame));
+            if (at >= 0) {
+                output.append(frame, at, frame.length());
+            }
+            if (end < 0) {
+                break;
+            }
+            output.append(" (inlined by) ");
+            from = end + " (inlined by) ".length();
+        }
+        return output.toString();
+    }
+
+    /**
+     * 不经过缓存直接解析，失败时返回null
+     */
+    static String parse(String mangled) {
+        if (!mangled.startsWith("_Z")) {
+            return null;
+        }
+        Demangler demangler = new Demangler(mangled);
+        demangler.pos = 2;
+        try {
+            Node node = demangler.parseEncoding();
+            if (demangler.look() == '.') {
+                node = new Seq(node, " (", mangled.substring(demangler.pos), ")");
+                demangler.pos = mangled.length();
+            }
+            if (demangler.pos != mangled.length()) {
+                return null;
+            }
+            Printer printer = new Printer();
+            node.print(printer);
+            return printer.out.toString();
+        } catch (Invalid | StackOverflowError | IndexOutOfBoundsException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static synchronized void rotate(Map<String, String> full) {
+        if (young == full) {
+            old = full;
+            young = new ConcurrentHashMap<>();
+        }
+    }
+
+    // ---------- 解析 ----------
+
+    private char look() {
+        return look(0);
+    }
+
+    private char look(int ahead) {
+        return pos + ahead < input.length() ? input.charAt(pos + ahead) : '\0';
+    }
+
+    private boolean consume(char c) {
+        if (look() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean consume(String text) {
+        if (input.startsWith(text, pos)) {
+            pos += text.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw Invalid.INSTANCE;
+        }
+    }
+
+    private boolean isEndOfEncoding() {
+        return pos >= input.length() || look() == 'E' || look() == '.';
+    }
+
+    private Node parseEncoding() {
+        if (look() == 'G' || look() == 'T') {
+            return parseSpecialName();
+        }
+        State state = new State();
+        Node name = parseName(state);
+        if (isEndOfEncoding()) {
+            return name;
+        }
+        Node returnType = null;
+        if (state.endsWithTemplateArgs && !state.ctorDtorConversion) {
+            returnType = parseType();
+        }
+        List<Node> params = new ArrayList<>();
+        if (!consume('v')) {
+            do {
+                params.add(parseType());
+            } while (!isEndOfEncoding());
+        }
+        return new Encoding(returnType, name, params, state.cv, state.ref);
+    }
+
+    private Node parseSpecialName() {
+        if (consume("TA")) {
+            return new Seq("template parameter object for ", parseTemplateArg());
+        }
+        if (consume("TV")) {
+            return new Seq("vtable for ", parseType());
+        }
+        if (consume("TT")) {
+            return new Seq("VTT for ", parseType());
+        }
+        if (consume("TI")) {
+            return new Seq("typeinfo for ", parseType());
+        }
+        if (consume("TS")) {
+            return new Seq("typeinfo name for ", parseType());
+        }
+        if (consume("Tc")) {
+            parseCallOffset();
+            parseCallOffset();
+            return new Seq("covariant return thunk to ", parseEncoding());
+        }
+        if (consume("TC")) {
+            Node first = parseType();
+            parseNumber(true);
+            expect('_');
+            Node second = parseType();
+            return new Seq("construction vtable for ", second, "-in-", first);
+        }
+        if (consume("TW")) {
+            return new Seq("thread-local wrapper routine for ", parseName(null));
+        }
+        if (consume("TH")) {
+            return new Seq("thread-local initialization routine for ", parseName(null));
+        }
+        if (look() == 'T' && (look(1) == 'h' || look(1) == 'v')) {
+            pos++;
+            boolean virtual = look() == 'v';
+            parseCallOffset();
+            return new Seq(virtual ? "virtual thunk to " : "non-virtual thunk to ", parseEncoding());
+        }
+        if (consume("GV")) {
+            return new Seq("guard variable for ", parseName(null));
+        }
+        if (consume("GR")) {
+            Node name = parseName(null);
+            boolean hasSeqId = look() != '_';
+            if (hasSeqId) {
+                parseSeqId();
+            }
+            if (!consume('_') && hasSeqId) {
+                throw Invalid.INSTANCE;
+            }
+            return new Seq("reference temporary for ", name);
+        }
+        if (consume("GTt") || consume("GTn")) {
+            return new Seq("transaction clone for ", parseEncoding());
+        }
+        throw Invalid.INSTANCE;
+    }
+
+    private void parseCallOffset() {
+        if (consume('h')) {
+            parseNumber(true);
+            expect('_');
+        } else if (consume('v')) {
+            parseNumber(true);
+            expect('_');
+            parseNumber(true);
+            expect('_');
+        } else {
+            throw Invalid.INSTANCE;
+        }
+    }
+
+    private Node parseName(State state) {
+        consume('L');
+        if (look() == 'N') {
+            return parseNestedName(state);
+        }
+        if (look() == 'Z') {
+            return parseLocalName(state);
+        }
+        if (look() == 'S' && look(1) != 't') {
+            // <unscoped-template-name>是替换项时后面一定跟着模板实参
+            Node sub = parseSubstitution();
+            if (look() != 'I') {
+                throw Invalid.INSTANCE;
+            }
+            Node args = parseTemplateArgs(state != null);
+            if (state != null) {
+                state.endsWithTemplateArgs = true;
+            }
+            return new WithTemplateArgs(sub, args);
+        }
+        Node name = parseUnscopedName(state);
+        if (look() == 'I') {
+            subs.add(name);
+            Node args = parseTemplateArgs(state != null);
+            if (state != null) {
+                state.endsWithTemplateArgs = true;
+            }
+            return new WithTemplateArgs(name, args);
+        }
+        return name;
+    }
+
+    private Node parseUnscopedName(State state) {
+        if (consume("St")) {
+            consume('L');
+            return new Seq("std::", parseUnqualifiedName(state));
+        }
+        consume('L');
+        return parseUnqualifiedName(state);
+    }
+
+    /**
+     * N [CV] [ref] <prefix>... E，每个前缀都是替换项，整个名字本身不是
+     */
+    private Node parseNestedName(State state) {
+        expect('N');
+        int cv = parseCvQualifiers();
+        int ref = consume('O') ? 2 : consume('R') ? 1 : 0;
+        if (state != null) {
+            state.cv = cv;
+            state.ref = ref;
+        }
+        Node soFar = null;
+        if (consume("St")) {
+            soFar = new Name("std");
+        }
+        while (!consume('E')) {
+            consume('L');
+            if (consume('M')) {
+                // <data-member-prefix>，只出现在lambda所属的成员初始化中
+                if (soFar == null) {
+                    throw Invalid.INSTANCE;
+                }
+                continue;
+            }
+            char c = look();
+            Node component;
+            if (c == 'T') {
+                soFar = push(soFar, parseTemplateParam(), state);
+            } else if (c == 'I') {
+                if (soFar == null) {
+                    throw Invalid.INSTANCE;
+                }
+                Node args = parseTemplateArgs(state != null);
+                soFar = new WithTemplateArgs(soFar, args);
+                if (state != null) {
+                    state.endsWithTemplateArgs = true;
+                }
+            } else if (c == 'D' && (look(1) == 't' || look(1) == 'T')) {
+                soFar = push(soFar, parseDecltype(), state);
+            } else if (c == 'S' && look(1) != 't') {
+                component = parseSubstitution();
+                soFar = push(soFar, component, state);
+                if (soFar == component) {
+                    continue;
+                }
+            } else if (c == 'C' || (c == 'D' && look(1) != 'C')) {
+                if (soFar == null) {
+                    throw Invalid.INSTANCE;
+                }
+                if (soFar instanceof SpecialSubstitution) {
+                    // 构造/析构函数所属的std::string等要写成完整的模板名
+                    soFar = ((SpecialSubstitution) soFar).expanded();
+                }
+                soFar = push(soFar, parseCtorDtorName(soFar, state), state);
+                soFar = parseAbiTags(soFar);
+            } else {
+                soFar = push(soFar, parseUnqualifiedName(state), state);
+            }
+            subs.add(soFar);
+        }
+        if (soFar == null || subs.isEmpty()) {
+            throw Invalid.INSTANCE;
+        }
+        subs.remove(subs.size() - 1);
+        return soFar;
+    }
+
+    private static Node push(Node soFar, Node component, State state) {
+        if (state != null) {
+            state.endsWithTemplateArgs = false;
+        }
+        return soFar == null ? component : new Nested(soFar, component);
+    }
+
+    private Node parseLocalName(State state) {
+        expect('Z');
+        Node encoding = parseEncoding();
+        expect('E');
+        if (consume('s')) {
+            parseDiscriminator();
+            return new Nested(encoding, new Name("string literal"));
+        }
+        if (consume('d')) {
+            // 默认参数中的实体
+            parseNumber(false);
+            expect('_');
+            return new Nested(encoding, parseName(state));
+        }
+        Node entity = parseName(state);
+        parseDiscriminator();
+        return new Nested(encoding, entity);
+    }
+
+    private void parseDiscriminator() {
+        if (look() != '_') {
+            return;
+        }
+        if (look(1) == '_') {
+            pos += 2;
+            while (Character.isDigit(look())) {
+                pos++;
+            }
+            expect('_');
+        } else if (Character.isDigit(look(1))) {
+            pos += 2;
+        }
+    }
+
+    private Node parseUnqualifiedName(State state) {
+        Node result;
+        char c = look();
+        if (c == 'U') {
+            result = parseUnnamedTypeName();
+        } else if (Character.isDigit(c)) {
+            result = parseSourceName();
+        } else if (c == 'D' && look(1) == 'C') {
+            // 结构化绑定
+            pos += 2;
+            List<Node> names = new ArrayList<>();
+            do {
+                names.add(parseSourceName());
+            } while (!consume('E'));
+            result = new Seq("[", new CommaList(names), "]");
+        } else {
+            result = parseOperatorName(state);
+        }
+        return parseAbiTags(result);
+    }
+
+    private Node parseAbiTags(Node node) {
+        while (consume('B')) {
+            node = new AbiTag(node, parseBareSourceName());
+        }
+        return node;
+    }
+
+    private Node parseUnnamedTypeName() {
+        if (consume("Ut")) {
+            String count = parseNumber(false);
+            expect('_');
+            return new Name("'unnamed" + count + "'");
+        }
+        if (consume("Ul")) {
+            boolean savedLambda = inLambda;
+            inLambda = true;
+            List<Node> params = new ArrayList<>();
+            try {
+                if (!consume('v')) {
+                    while (look() != 'E') {
+                        params.add(parseType());
+                    }
+                }
+            } finally {
+                inLambda = savedLambda;
+            }
+            expect('E');
+            String count = parseNumber(false);
+            expect('_');
+            return new Seq("'lambda" + count + "'(", new CommaList(params), ")");
+        }
+        throw Invalid.INSTANCE;
+    }
+
+    private Node parseSourceName() {
+        String name = parseBareSourceName();
+        return new Name(name.startsWith("_GLOBAL__N") ? "(anonymous namespace)" : name);
+    }
+
+    private String parseBareSourceName() {
+        int start = pos;
+        while (Character.isDigit(look())) {
+            pos++;
+        }
+        if (start == pos) {
+            throw Invalid.INSTANCE;
+        }
+        int length = Integer.parseInt(input.substring(start, pos));
+        if (length <= 0 || pos + length > input.length()) {
+            throw Invalid.INSTANCE;
+        }
+        String name = input.substring(pos, pos + length);
+        pos += length;
+        return name;
+    }
+
+    private Node parseOperatorName(State state) {
+        if (consume("cv")) {
+            Node type = parseType();
+            if (state != null) {
+                state.ctorDtorConversion = true;
+            }
+            return new Seq("operator ", type);
+        }
+        if (consume("li")) {
+            return new Name("operator\"\" " + parseBareSourceName());
+        }
+        if (look() == 'v' && Character.isDigit(look(1))) {
+            pos += 2;
+            return new Seq("operator ", parseSourceName());
+        }
+        String[] operator = pos + 2 <= input.length() ? OPERATORS.get(input.substring(pos, pos + 2)) : null;
+        if (operator == null) {
+            throw Invalid.INSTANCE;
+        }
+        pos += 2;
+        String symbol = operator[0];
+        return new Name(Character.isLetter(symbol.charAt(0)) ? "operator " + symbol : "operator" + symbol);
+    }
+
+    private Node parseCtorDtorName(Node soFar, State state) {
+        if (consume('C')) {
+            boolean inheriting = consume('I');
+            char kind = look();
+            if (kind < '1' || kind > '5') {
+                throw Invalid.INSTANCE;
+            }
+            pos++;
+            if (state != null) {
+                state.ctorDtorConversion = true;
+            }
+            if (inheriting) {
+                parseName(null);
+            }
+            return new CtorDtorName(soFar, false);
+        }
+        if (look() == 'D' && "01245".indexOf(look(1)) >= 0) {
+            pos += 2;
+            if (state != null) {
+                state.ctorDtorConversion = true;
+            }
+            return new CtorDtorName(soFar, true);
+        }
+        throw Invalid.INSTANCE;
+    }
+
+    private int parseCvQualifiers() {
+        int cv = 0;
+        if (consume('r')) {
+            cv |= Qualified.RESTRICT;
+        }
+        if (consume('V')) {
+            cv |= Qualified.VOLATILE;
+        }
+        if (consume('K')) {
+            cv |= Qualified.CONST;
+        }
+        return cv;
+    }
+
+    private Node parseType() {
+        Node result;
+        char c = look();
+        switch (c) {
+            case 'r':
+            case 'V':
+            case 'K': {
+                int cv = parseCvQualifiers();
+                Node child = parseType();
+                if (child instanceof FunctionType) {
+                    // 成员函数类型上的cv限定写在参数列表后面
+                    result = ((FunctionType) child).withCv(cv);
+                } else {
+                    result = new Qualified(child, cv);
+                }
+                break;
+            }
+            case 'U': {
+                pos++;
+                String qualifier = parseBareSourceName();
+                Node child = parseType();
+                result = new Seq(child, " " + qualifier);
+                break;
+            }
+            case 'u':
+                pos++;
+                result = new Name(parseBareSourceName());
+                break;
+            case 'D':
+                switch (look(1)) {
+                    case 'd':
+                        pos += 2;
+                        return new Name("decimal64");
+                    case 'e':
+                        pos += 2;
+                        return new Name("decimal128");
+                    case 'f':
+                        pos += 2;
+                        return new Name("decimal32");
+                    case 'h':
+                        pos += 2;
+                        return new Name("half");
+                    case 'i':
+                        pos += 2;
+                        return new Name("char32_t");
+                    case 's':
+                        pos += 2;
+                        return new Name("char16_t");
+                    case 'u':
+                        pos += 2;
+                        return new Name("char8_t");
+                    case 'a':
+                        pos += 2;
+                        return new Name("auto");
+                    case 'c':
+                        pos += 2;
+                        return new Name("decltype(auto)");
+                    case 'n':
+                        pos += 2;
+                        return new Name("std::nullptr_t");
+                    case 'F': {
+                        pos += 2;
+                        String bits = parseNumber(false);
+                        expect('_');
+                        return new Name("_Float" + bits);
+                    }
+                    case 't':
+                    case 'T':
+                        result = parseDecltype();
+                        break;
+                    case 'v': {
+                        pos += 2;
+                        Node dimension;
+                        if (Character.isDigit(look())) {
+                            dimension = new Name(parseNumber(false));
+                        } else {
+                            dimension = consume('_') ? null : parseExpr();
+                        }
+                        if (dimension != null) {
+                            expect('_');
+                        }
+                        Node element = parseType();
+                        result = new Seq(element, " vector[", dimension, "]");
+                        break;
+                    }
+                    case 'p':
+                        pos += 2;
+                        result = new PackExpansion(parseType());
+                        break;
+                    case 'o':
+                    case 'O':
+                    case 'w':
+                    case 'x':
+                        result = parseFunctionType();
+                        break;
+                    default:
+                        throw Invalid.INSTANCE;
+                }
+                break;
+            case 'F':
+                result = parseFunctionType();
+                break;
+            case 'A':
+                result = parseArrayType();
+                break;
+            case 'M': {
+                pos++;
+                Node classType = parseType();
+                Node memberType = parseType();
+                result = new PointerToMember(classType, memberType);
+                break;
+            }
+            case 'T':
+                if (look(1) == 's' || look(1) == 'u' || look(1) == 'e') {
+                    // struct/union/enum限定的类型名
+                    pos += 2;
+                    result = parseName(null);
+                    break;
+                }
+                result = parseTemplateParam();
+                if (look() == 'I') {
+                    subs.add(result);
+                    result = new WithTemplateArgs(result, parseTemplateArgs(false));
+                }
+                break;
+            case 'P':
+                pos++;
+                result = new Pointer(parseType(), "*");
+                break;
+            case 'R':
+                pos++;
+                result = new Pointer(parseType(), "&");
+                break;
+            case 'O':
+                pos++;
+                result = new Pointer(parseType(), "&&");
+                break;
+            case 'C':
+                pos++;
+                result = new Seq(parseType(), " complex");
+                break;
+            case 'G':
+                pos++;
+                result = new Seq(parseType(), " imaginary");
+                break;
+            case 'S':
+                if (look(1) != 't') {
+                    Node sub = parseSubstitution();
+                    if (look() != 'I') {
+                        return sub;
+                    }
+                    result = new WithTemplateArgs(sub, parseTemplateArgs(false));
+                    break;
+                }
+                result = parseName(null);
+                break;
+            default: {
+                String builtin = BUILTINS.get(c);
+                if (builtin != null) {
+                    pos++;
+                    return new Name(builtin);
+                }
+                result = parseName(null);
+                break;
+            }
+        }
+        subs.add(result);
+        return result;
+    }
+
+    private Node parseFunctionType() {
+        String exceptionSpec = null;
+        Node exceptionNode = null;
+        if (consume("Do")) {
+            exceptionSpec = "noexcept";
+        } else if (consume("DO")) {
+            exceptionNode = new Seq("noexcept(", parseExpr(), ")");
+            expect('E');
+        } else if (consume("Dw")) {
+            List<Node> types = new ArrayList<>();
+            while (!consume('E')) {
+                types.add(parseType());
+            }
+            exceptionNode = new Seq("throw(", new CommaList(types), ")");
+        }
+        consume("Dx");
+        expect('F');
+        consume('Y');
+        Node returnType = parseType();
+        List<Node> params = new ArrayList<>();
+        int ref = 0;
+        while (true) {
+            if (consume('E')) {
+                break;
+            }
+            if (consume('v')) {
+                continue;
+            }
+            if (consume("RE")) {
+                ref = 1;
+                break;
+            }
+            if (consume("OE")) {
+                ref = 2;
+                break;
+            }
+            params.add(parseType());
+        }
+        if (exceptionSpec != null) {
+            exceptionNode = new Name(exceptionSpec);
+        }
+        return new FunctionType(returnType, params, 0, ref, exceptionNode);
+    }
+
+    private Node parseArrayType() {
+        expect('A');
+        Node dimension = null;
+        if (Character.isDigit(look())) {
+            dimension = new Name(parseNumber(false));
+            expect('_');
+        } else if (!consume('_')) {
+            dimension = parseExpr();
+            expect('_');
+        }
+        return new ArrayType(parseType(), dimension);
+    }
+
+    private Node parseTemplateParam() {
+        expect('T');
+        int index = 0;
+        if (!consume('_')) {
+            index = Integer.parseInt(parseNumber(false)) + 1;
+            expect('_');
+        }
+        if (index >= templateParams.size()) {
+            if (inLambda) {
+                return new Name("auto");
+            }
+            throw Invalid.INSTANCE;
+        }
+        Node param = templateParams.get(index);
+        return param instanceof ArgumentPack ? new ParameterPack(((ArgumentPack) param).elements) : param;
+    }
+
+    /**
+     * tag为true时这是名字上的模板实参，之后的T_引用它们
+     */
+    private Node parseTemplateArgs(boolean tag) {
+        expect('I');
+        List<Node> params = templateParams;
+        if (tag) {
+            params = new ArrayList<>();
+            templateParams = params;
+        }
+        List<Node> args = new ArrayList<>();
+        while (!consume('E')) {
+            Node arg = parseTemplateArg();
+            args.add(arg);
+            if (tag) {
+                params.add(arg);
+            }
+        }
+        return new TemplateArgs(args);
+    }
+
+    private Node parseTemplateArg() {
+        switch (look()) {
+            case 'X': {
+                pos++;
+                Node expr = parseExpr();
+                expect('E');
+                return expr;
+            }
+            case 'J': {
+                pos++;
+                List<Node> elements = new ArrayList<>();
+                while (!consume('E')) {
+                    elements.add(parseTemplateArg());
+                }
+                return new ArgumentPack(elements);
+            }
+            case 'L':
+                if (look(1) == 'Z') {
+                    pos += 2;
+                    return parseExternalName();
+                }
+                return parseExprPrimary();
+            default:
+                return parseType();
+        }
+    }
+
+    /**
+     * 模板实参中引用的函数或变量，有自己的模板参数作用域
+     */
+    private Node parseExternalName() {
+        List<Node> saved = templateParams;
+        Node encoding = parseEncoding();
+        templateParams = saved;
+        expect('E');
+        return encoding;
+    }
+
+    private Node parseExprPrimary() {
+        expect('L');
+        if (consume("_Z")) {
+            return parseExternalName();
+        }
+        char c = look();
+        if (c == 'b' && (look(1) == '0' || look(1) == '1') && look(2) == 'E') {
+            pos += 3;
+            return new Name(look(-2) == '1' ? "true" : "false");
+        }
+        if (consume("Dn")) {
+            consume('0');
+            expect('E');
+            return new Name("nullptr");
+        }
+        String suffix = null;
+        switch (c) {
+            case 'i':
+                suffix = "";
+                break;
+            case 'j':
+                suffix = "u";
+                break;
+            case 'l':
+                suffix = "l";
+                break;
+            case 'm':
+                suffix = "ul";
+                break;
+            case 'x':
+                suffix = "ll";
+                break;
+            case 'y':
+                suffix = "ull";
+                break;
+            default:
+                break;
+        }
+        Node type;
+        if (suffix != null) {
+            pos++;
+            type = null;
+        } else {
+            type = parseType();
+        }
+        StringBuilder value = new StringBuilder();
+        if (consume('n')) {
+            value.append('-');
+        }
+        while (look() != 'E' && look() != '\0') {
+            value.append(look());
+            pos++;
+        }
+        expect('E');
+        if (type == null) {
+            return new Name(value + suffix);
+        }
+        return new Seq("(", type, ")" + value);
+    }
+
+    private Node parseExpr() {
+        boolean global = consume("gs");
+        char c = look();
+        if (c == 'L') {
+            return parseExprPrimary();
+        }
+        if (c == 'T') {
+            return parseTemplateParam();
+        }
+        if (c == 'f' && (look(1) == 'p' || look(1) == 'L')) {
+            return parseFunctionParam();
+        }
+        if (Character.isDigit(c)) {
+            return parseBaseUnresolvedName();
+        }
+        if (pos + 2 > input.length()) {
+            throw Invalid.INSTANCE;
+        }
+        String code = input.substring(pos, pos + 2);
+        switch (code) {
+            case "cl": {
+                pos += 2;
+                Node callee = parseExpr();
+                List<Node> args = new ArrayList<>();
+                while (!consume('E')) {
+                    args.add(parseExpr());
+                }
+                return new Seq(callee, "(", new CommaList(args), ")");
+            }
+            case "cv": {
+                pos += 2;
+                Node type = parseType();
+                List<Node> args = new ArrayList<>();
+                if (consume('_')) {
+                    while (!consume('E')) {
+                        args.add(parseExpr());
+                    }
+                } else {
+                    args.add(parseExpr());
+                }
+                return new Seq("(", type, ")(", new CommaList(args), ")");
+            }
+            case "st":
+                pos += 2;
+                return new Seq("sizeof (", parseType(), ")");
+            case "sz":
+                pos += 2;
+                return new Seq("sizeof (", parseExpr(), ")");
+            case "at":
+                pos += 2;
+                return new Seq("alignof (", parseType(), ")");
+            case "az":
+                pos += 2;
+                return new Seq("alignof (", parseExpr(), ")");
+            case "sZ":
+                pos += 2;
+                return new Seq("sizeof...(", look() == 'T' ? parseTemplateParam() : parseFunctionParam(), ")");
+            case "sP": {
+                pos += 2;
+                List<Node> args = new ArrayList<>();
+                while (!consume('E')) {
+                    args.add(parseTemplateArg());
+                }
+                return new Seq("sizeof...(", new CommaList(args), ")");
+            }
+            case "sp":
+                pos += 2;
+                return new PackExpansion(parseExpr());
+            case "sr":
+                return parseUnresolvedName(global);
+            case "dt": {
+                pos += 2;
+                Node object = parseExpr();
+                return new Seq(object, ".", parseUnresolvedName(false));
+            }
+            case "pt": {
+                pos += 2;
+                Node object = parseExpr();
+                return new Seq(object, "->", parseUnresolvedName(false));
+            }
+            case "ds": {
+                pos += 2;
+                Node object = parseExpr();
+                return new Seq(object, ".*", parseExpr());
+            }
+            case "dc":
+            case "sc":
+            case "cc":
+            case "rc": {
+                pos += 2;
+                String cast = code.equals("dc") ? "dynamic_cast" : code.equals("sc") ? "static_cast"
+                        : code.equals("cc") ? "const_cast" : "reinterpret_cast";
+                Node type = parseType();
+                return new Seq(cast + "<", type, ">(", parseExpr(), ")");
+            }
+            case "te":
+                pos += 2;
+                return new Seq("typeid (", parseExpr(), ")");
+            case "ti":
+                pos += 2;
+                return new Seq("typeid (", parseType(), ")");
+            case "tw":
+                pos += 2;
+                return new Seq("throw ", parseExpr());
+            case "tr":
+                pos += 2;
+                return new Name("throw");
+            case "nx":
+                pos += 2;
+                return new Seq("noexcept (", parseExpr(), ")");
+            case "qu": {
+                pos += 2;
+                Node condition = parseExpr();
+                Node then = parseExpr();
+                return new Seq("(", condition, ") ? (", then, ") : (", parseExpr(), ")");
+            }
+            case "ix": {
+                pos += 2;
+                Node array = parseExpr();
+                return new Seq("(", array, ")[", parseExpr(), "]");
+            }
+            case "il": {
+                pos += 2;
+                List<Node> elements = new ArrayList<>();
+                while (!consume('E')) {
+                    elements.add(parseExpr());
+                }
+                return new Seq("{", new CommaList(elements), "}");
+            }
+            case "tl": {
+                pos += 2;
+                Node type = parseType();
+                List<Node> elements = new ArrayList<>();
+                while (!consume('E')) {
+                    elements.add(parseExpr());
+                }
+                return new Seq(type, "{", new CommaList(elements), "}");
+            }
+            case "on":
+            case "dn":
+                return parseUnresolvedName(global);
+            default:
+                break;
+        }
+        String[] operator = OPERATORS.get(code);
+        if (operator == null) {
+            throw Invalid.INSTANCE;
+        }
+        pos += 2;
+        switch (operator[1]) {
+            case "b": {
+                Node left = parseExpr();
+                Node right = parseExpr();
+                return new Seq("(", left, ") " + operator[0] + " (", right, ")");
+            }
+            case "u":
+                return new Seq((global ? "::" : "") + operator[0] + "(", parseExpr(), ")");
+            case "p":
+                if (consume('_')) {
+                    return new Seq(operator[0] + "(", parseExpr(), ")");
+                }
+                return new Seq("(", parseExpr(), ")" + operator[0]);
+            default:
+                throw Invalid.INSTANCE;
+        }
+    }
+
+    private Node parseFunctionParam() {
+        if (consume("fp")) {
+            parseCvQualifiers();
+            String number = parseNumber(false);
+            expect('_');
+            return new Name("fp" + number);
+        }
+        if (consume("fL")) {
+            parseNumber(false);
+            expect('p');
+            parseCvQualifiers();
+            String number = parseNumber(false);
+            expect('_');
+            return new Name("fp" + number);
+        }
+        throw Invalid.INSTANCE;
+    }
+
+    private Node parseUnresolvedName(boolean global) {
+        Node soFar = null;
+        if (consume("srN")) {
+            soFar = parseUnresolvedType();
+            if (look() == 'I') {
+                soFar = new WithTemplateArgs(soFar, parseTemplateArgs(false));
+            }
+            while (!consume('E')) {
+                soFar = new Nested(soFar, parseSimpleId());
+            }
+            return new Nested(soFar, parseBaseUnresolvedName());
+        }
+        if (!consume("sr")) {
+            Node base = parseBaseUnresolvedName();
+            return global ? new Seq("::", base) : base;
+        }
+        if (Character.isDigit(look())) {
+            do {
+                Node qualifier = parseSimpleId();
+                soFar = soFar == null ? qualifier : new Nested(soFar, qualifier);
+            } while (!consume('E'));
+            if (global) {
+                soFar = new Seq("::", soFar);
+            }
+        } else {
+            soFar = parseUnresolvedType();
+            if (look() == 'I') {
+                soFar = new WithTemplateArgs(soFar, parseTemplateArgs(false));
+            }
+        }
+        return new Nested(soFar, parseBaseUnresolvedName());
+    }
+
+    private Node parseUnresolvedType() {
+        Node result;
+        if (look() == 'T') {
+            result = parseTemplateParam();
+        } else if (look() == 'D') {
+            result = parseDecltype();
+        } else {
+            return parseSubstitution();
+        }
+        subs.add(result);
+        return result;
+    }
+
+    private Node parseSimpleId() {
+        Node name = parseSourceName();
+        return look() == 'I' ? new WithTemplateArgs(name, parseTemplateArgs(false)) : name;
+    }
+
+    private Node parseBaseUnresolvedName() {
+        if (Character.isDigit(look())) {
+            return parseSimpleId();
+        }
+        if (consume("dn")) {
+            return new Seq("~", Character.isDigit(look()) ? parseSimpleId() : parseUnresolvedType());
+        }
+        consume("on");
+        Node name = parseOperatorName(null);
+        return look() == 'I' ? new WithTemplateArgs(name, parseTemplateArgs(false)) : name;
+    }
+
+    private Node parseDecltype() {
+        expect('D');
+        if (!consume('t') && !consume('T')) {
+            throw Invalid.INSTANCE;
+        }
+        Node expr = parseExpr();
+        expect('E');
+        return new Seq("decltype(", expr, ")");
+    }
+
+    private Node parseSubstitution() {
+        expect('S');
+        char c = look();
+        if (c >= 'a' && c <= 'z') {
+            pos++;
+            Node special;
+            switch (c) {
+                case 'a':
+                    special = new SpecialSubstitution("std::allocator", "std::allocator", "allocator");
+                    break;
+                case 'b':
+                    special = new SpecialSubstitution("std::basic_string", "std::basic_string", "basic_string");
+                    break;
+                case 's':
+                    special = new SpecialSubstitution("std::string",
+                            "std::basic_string<char, std::char_traits<char>, std::allocator<char>>", "basic_string");
+                    break;
+                case 'i':
+                    special = new SpecialSubstitution("std::istream",
+                            "std::basic_istream<char, std::char_traits<char>>", "basic_istream");
+                    break;
+                case 'o':
+                    special = new SpecialSubstitution("std::ostream",
+                            "std::basic_ostream<char, std::char_traits<char>>", "basic_ostream");
+                    break;
+                case 'd':
+                    special = new SpecialSubstitution("std::iostream",
+                            "std::basic_iostream<char, std::char_traits<char>>", "basic_iostream");
+                    break;
+                default:
+                    throw Invalid.INSTANCE;
+            }
+            Node tagged = parseAbiTags(special);
+            if (tagged != special) {
+                subs.add(tagged);
+            }
+            return tagged;
+        }
+        int index = consume('_') ? 0 : parseSeqId() + 1;
+        if (index > 0) {
+            expect('_');
+        }
+        if (index >= subs.size()) {
+            throw Invalid.INSTANCE;
+        }
+        return subs.get(index);
+    }
+
+    /**
+     * 36进制的序号，数字和大写字母
+     */
+    private int parseSeqId() {
+        int value = 0;
+        int start = pos;
+        while (true) {
+            char c = look();
+            if (c >= '0' && c <= '9') {
+                value = value * 36 + (c - '0');
+            } else if (c >= 'A' && c <= 'Z') {
+                value = value * 36 + (c - 'A' + 10);
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw Invalid.INSTANCE;
+        }
+        return value;
+    }
+
+    /**
+     * 十进制数字串，allowNegative时前缀n表示负数
+     */
+    private String parseNumber(boolean allowNegative) {
+        int start = pos;
+        if (allowNegative) {
+            consume('n');
+        }
+        while (Character.isDigit(look())) {
+            pos++;
+        }
+        return input.substring(start, pos);
+    }
+
+    /**
+     * 名字解析过程中收集的函数限定符和模板信息
+     */
+    private static final class State {
+        int cv;
+        int ref;
+        // 名字以模板实参结尾且不是构造/析构/类型转换函数时，参数前有返回类型
+        boolean endsWithTemplateArgs;
+        boolean ctorDtorConversion;
+    }
+
+    private static final class Invalid extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final Invalid INSTANCE = new Invalid();
+
+        private Invalid() {
+            super(null, null, false, false);
+        }
+    }
+
+    // ---------- 打印 ----------
+
+    /**
+     * 输出缓冲和参数包展开的位置，packMax为-1时不在展开中
+     */
+    private static final class Printer {
+        final StringBuilder out = new StringBuilder(64);
+        int packIndex = -1;
+        int packMax = -1;
+
+        char last() {
+            return out.length() == 0 ? '\0' : out.charAt(out.length() - 1);
+        }
+    }
+
+    /**
+     * 类型在名字左边和右边的部分分开打印，例如void (*name)(int)
+     */
+    private abstract static class Node {
+        abstract void printLeft(Printer p);
+
+        void printRight(Printer p) {
+        }
+
+        boolean hasRightPart() {
+            return false;
+        }
+
+        boolean hasArray() {
+            return false;
+        }
+
+        boolean hasFunction() {
+            return false;
+        }
+
+        /**
+         * 打印时实际代表的节点，参数包是当前展开的元素
+         */
+        Node syntaxNode(Printer p) {
+            return this;
+        }
+
+        /**
+         * 构造/析构函数用的类名，不含命名空间和模板实参
+         */
+        String baseName() {
+            Printer p = new Printer();
+            print(p);
+            return p.out.toString();
+        }
+
+        final void print(Printer p) {
+            printLeft(p);
+            printRight(p);
+        }
+    }
+
+    private static final class Name extends Node {
+        final String text;
+
+        Name(String text) {
+            this.text = text;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            p.out.append(text);
+        }
+
+        @Override
+        String baseName() {
+            return text;
+        }
+    }
+
+    /**
+     * 字符串和节点依次拼接，用于表达式和各种带前后缀的名字
+     */
+    private static final class Seq extends Node {
+        final Object[] parts;
+
+        Seq(Object... parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            for (Object part : parts) {
+                if (part instanceof Node) {
+                    ((Node) part).print(p);
+                } else if (part != null) {
+                    p.out.append(part);
+                }
+            }
+        }
+
+        @Override
+        String baseName() {
+            Object lastPart = parts[parts.length - 1];
+            if (parts.length == 2 && "std::".equals(parts[0]) && lastPart instanceof Node) {
+                return ((Node) lastPart).baseName();
+            }
+            return super.baseName();
+        }
+    }
+
+    private static final class Nested extends Node {
+        final Node qualifier;
+        final Node name;
+
+        Nested(Node qualifier, Node name) {
+            this.qualifier = qualifier;
+            this.name = name;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            qualifier.print(p);
+            p.out.append("::");
+            name.print(p);
+        }
+
+        @Override
+        String baseName() {
+            return name.baseName();
+        }
+    }
+
+    private static final class WithTemplateArgs extends Node {
+        final Node name;
+        final Node args;
+
+        WithTemplateArgs(Node name, Node args) {
+            this.name = name;
+            this.args = args;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            name.print(p);
+            if (p.last() == '<') {
+                // operator<< <int>
+                p.out.append(' ');
+            }
+            args.print(p);
+        }
+
+        @Override
+        String baseName() {
+            return name.baseName();
+        }
+    }
+
+    private static final class TemplateArgs extends Node {
+        final List<Node> args;
+
+        TemplateArgs(List<Node> args) {
+            this.args = args;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            p.out.append('<');
+            printWithComma(p, args);
+            p.out.append('>');
+        }
+    }
+
+    private static final class CommaList extends Node {
+        final List<Node> elements;
+
+        CommaList(List<Node> elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            printWithComma(p, elements);
+        }
+    }
+
+    /**
+     * 逗号分隔，空的参数包不留下多余的逗号
+     */
+    private static void printWithComma(Printer p, List<Node> elements) {
+        boolean first = true;
+        for (Node element : elements) {
+            int beforeComma = p.out.length();
+            if (!first) {
+                p.out.append(", ");
+            }
+            int afterComma = p.out.length();
+            element.print(p);
+            if (p.out.length() == afterComma) {
+                p.out.setLength(beforeComma);
+                continue;
+            }
+            first = false;
+        }
+    }
+
+    private static final class AbiTag extends Node {
+        final Node base;
+        final String tag;
+
+        AbiTag(Node base, String tag) {
+            this.base = base;
+            this.tag = tag;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            base.print(p);
+            p.out.append("[abi:").append(tag).append(']');
+        }
+
+        @Override
+        String baseName() {
+            return base.baseName();
+        }
+    }
+
+    private static final class SpecialSubstitution extends Node {
+        final String text;
+        final String expandedText;
+        final String base;
+
+        SpecialSubstitution(String text, String expandedText, String base) {
+            this.text = text;
+            this.expandedText = expandedText;
+            this.base = base;
+        }
+
+        Node expanded() {
+            return new SpecialSubstitution(expandedText, expandedText, base);
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            p.out.append(text);
+        }
+
+        @Override
+        String baseName() {
+            return base;
+        }
+    }
+
+    private static final class CtorDtorName extends Node {
+        final Node owner;
+        final boolean destructor;
+
+        CtorDtorName(Node owner, boolean destructor) {
+            this.owner = owner;
+            this.destructor = destructor;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            if (destructor) {
+                p.out.append('~');
+            }
+            p.out.append(owner.baseName());
+        }
+    }
+
+    private static final class Qualified extends Node {
+        static final int CONST = 1;
+        static final int VOLATILE = 2;
+        static final int RESTRICT = 4;
+
+        final Node child;
+        final int cv;
+
+        Qualified(Node child, int cv) {
+            this.child = child;
+            this.cv = cv;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            child.printLeft(p);
+            printQualifiers(p, cv);
+        }
+
+        @Override
+        void printRight(Printer p) {
+            child.printRight(p);
+        }
+
+        @Override
+        boolean hasRightPart() {
+            return child.hasRightPart();
+        }
+
+        @Override
+        boolean hasArray() {
+            return child.hasArray();
+        }
+
+        @Override
+        boolean hasFunction() {
+            return child.hasFunction();
+        }
+    }
+
+    private static void printQualifiers(Printer p, int cv) {
+        if ((cv & Qualified.CONST) != 0) {
+            p.out.append(" const");
+        }
+        if ((cv & Qualified.VOLATILE) != 0) {
+            p.out.append(" volatile");
+        }
+        if ((cv & Qualified.RESTRICT) != 0) {
+            p.out.append(" restrict");
+        }
+    }
+
+    private static void printRefQualifier(Printer p, int ref) {
+        if (ref == 1) {
+            p.out.append(" &");
+        } else if (ref == 2) {
+            p.out.append(" &&");
+        }
+    }
+
+    /**
+     * 指针和引用，指向函数或数组时要用括号把*包起来
+     */
+    private static final class Pointer extends Node {
+        final Node pointee;
+        final String symbol;
+
+        Pointer(Node pointee, String symbol) {
+            this.pointee = pointee;
+            this.symbol = symbol;
+        }
+
+        /**
+         * 引用折叠：T&&中T是X&时结果是X&，只要有一层是&就是&
+         */
+        private Pointer collapse(Printer p) {
+            if (symbol.equals("*")) {
+                return this;
+            }
+            String kind = symbol;
+            Node target = pointee;
+            for (int depth = 0; depth < 64; depth++) {
+                Node syntax = target.syntaxNode(p);
+                if (!(syntax instanceof Pointer) || ((Pointer) syntax).symbol.equals("*")) {
+                    break;
+                }
+                Pointer inner = (Pointer) syntax;
+                target = inner.pointee;
+                if (inner.symbol.equals("&")) {
+                    kind = "&";
+                }
+            }
+            return target == pointee ? this : new Pointer(target, kind);
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            Pointer collapsed = collapse(p);
+            Node target = collapsed.pointee;
+            target.printLeft(p);
+            if (target.hasArray()) {
+                p.out.append(' ');
+            }
+            if (target.hasArray() || target.hasFunction()) {
+                p.out.append('(');
+            }
+            p.out.append(collapsed.symbol);
+        }
+
+        @Override
+        void printRight(Printer p) {
+            Node target = collapse(p).pointee;
+            if (target.hasArray() || target.hasFunction()) {
+                p.out.append(')');
+            }
+            target.printRight(p);
+        }
+
+        @Override
+        boolean hasRightPart() {
+            return pointee.hasRightPart();
+        }
+    }
+
+    private static final class PointerToMember extends Node {
+        final Node classType;
+        final Node memberType;
+
+        PointerToMember(Node classType, Node memberType) {
+            this.classType = classType;
+            this.memberType = memberType;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            memberType.printLeft(p);
+            if (memberType.hasArray() || memberType.hasFunction()) {
+                p.out.append('(');
+            } else {
+                p.out.append(' ');
+            }
+            classType.print(p);
+            p.out.append("::*");
+        }
+
+        @Override
+        void printRight(Printer p) {
+            if (memberType.hasArray() || memberType.hasFunction()) {
+                p.out.append(')');
+            }
+            memberType.printRight(p);
+        }
+
+        @Override
+        boolean hasRightPart() {
+            return memberType.hasRightPart();
+        }
+    }
+
+    private static final class ArrayType extends Node {
+        final Node element;
+        final Node dimension;
+
+        ArrayType(Node element, Node dimension) {
+            this.element = element;
+            this.dimension = dimension;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            element.printLeft(p);
+        }
+
+        @Override
+        void printRight(Printer p) {
+            if (p.last() != ']') {
+                p.out.append(' ');
+            }
+            p.out.append('[');
+            if (dimension != null) {
+                dimension.print(p);
+            }
+            p.out.append(']');
+            element.printRight(p);
+        }
+
+        @Override
+        boolean hasRightPart() {
+            return true;
+        }
+
+        @Override
+        boolean hasArray() {
+            return true;
+        }
+    }
+
+    private static final class FunctionType extends Node {
+        final Node returnType;
+        final List<Node> params;
+        final int cv;
+        final int ref;
+        final Node exceptionSpec;
+
+        FunctionType(Node returnType, List<Node> params, int cv, int ref, Node exceptionSpec) {
+            this.returnType = returnType;
+            this.params = params;
+            this.cv = cv;
+            this.ref = ref;
+            this.exceptionSpec = exceptionSpec;
+        }
+
+        FunctionType withCv(int extra) {
+            return new FunctionType(returnType, params, cv | extra, ref, exceptionSpec);
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            returnType.printLeft(p);
+            p.out.append(' ');
+        }
+
+        @Override
+        void printRight(Printer p) {
+            p.out.append('(');
+            printWithComma(p, params);
+            p.out.append(')');
+            returnType.printRight(p);
+            printQualifiers(p, cv);
+            printRefQualifier(p, ref);
+            if (exceptionSpec != null) {
+                p.out.append(' ');
+                exceptionSpec.print(p);
+            }
+        }
+
+        @Override
+        boolean hasRightPart() {
+            return true;
+        }
+
+        @Override
+        boolean hasFunction() {
+            return true;
+        }
+    }
+
+    private static final class Encoding extends Node {
+        final Node returnType;
+        final Node name;
+        final List<Node> params;
+        final int cv;
+        final int ref;
+
+        Encoding(Node returnType, Node name, List<Node> params, int cv, int ref) {
+            this.returnType = returnType;
+            this.name = name;
+            this.params = params;
+            this.cv = cv;
+            this.ref = ref;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            if (returnType != null) {
+                returnType.printLeft(p);
+                if (!returnType.hasRightPart()) {
+                    p.out.append(' ');
+                }
+            }
+            name.print(p);
+        }
+
+        @Override
+        void printRight(Printer p) {
+            p.out.append('(');
+            printWithComma(p, params);
+            p.out.append(')');
+            if (returnType != null) {
+                returnType.printRight(p);
+            }
+            printQualifiers(p, cv);
+            printRefQualifier(p, ref);
+        }
+
+        @Override
+        boolean hasRightPart() {
+            return true;
+        }
+
+        @Override
+        boolean hasFunction() {
+            return true;
+        }
+    }
+
+    /**
+     * 模板实参中的J...E，直接打印时逗号分隔
+     */
+    private static final class ArgumentPack extends Node {
+        final List<Node> elements;
+
+        ArgumentPack(List<Node> elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            printWithComma(p, elements);
+        }
+    }
+
+    /**
+     * 通过T_引用的参数包，在展开中按当前下标打印其中一个元素
+     */
+    private static final class ParameterPack extends Node {
+        final List<Node> elements;
+
+        ParameterPack(List<Node> elements) {
+            this.elements = elements;
+        }
+
+        private Node current(Printer p) {
+            if (p.packMax == -1) {
+                p.packMax = elements.size();
+                p.packIndex = 0;
+            }
+            return p.packIndex < elements.size() ? elements.get(p.packIndex) : null;
+        }
+
+        @Override
+        Node syntaxNode(Printer p) {
+            Node element = current(p);
+            return element != null ? element.syntaxNode(p) : this;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            Node element = current(p);
+            if (element != null) {
+                element.printLeft(p);
+            }
+        }
+
+        @Override
+        void printRight(Printer p) {
+            Node element = current(p);
+            if (element != null) {
+                element.printRight(p);
+            }
+        }
+    }
+
+    /**
+     * Dp/sp：对包中的每个元素打印一次模式，子节点中没有参数包时输出"..."
+     */
+    private static final class PackExpansion extends Node {
+        final Node child;
+
+        PackExpansion(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        void printLeft(Printer p) {
+            int savedIndex = p.packIndex;
+            int savedMax = p.packMax;
+            p.packIndex = -1;
+            p.packMax = -1;
+            int start = p.out.length();
+            child.print(p);
+            if (p.packMax == -1) {
+                p.out.append("...");
+            } else if (p.packMax == 0) {
+                p.out.setLength(start);
+            } else {
+                for (int i = 1; i < p.packMax; i++) {
+                    p.out.append(", ");
+                    p.packIndex = i;
+                    child.print(p);
+                }
+            }
+            p.packIndex = savedIndex;
+            p.packMax = savedMax;
+        }
+    }
+}
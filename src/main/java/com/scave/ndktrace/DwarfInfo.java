@@ -0,0 +1,1092 @@
+package com.scave.ndktrace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * .debug_info/.debug_abbrev解析，支持DWARF 2-5
+ * 编译单元只在第一次被查询时才完整解析，解析结果留在内存里供后续查询复用
+ */
+final class DwarfInfo {
+    private static final int DW_TAG_INLINED_SUBROUTINE = 0x1d;
+    private static final int DW_TAG_SUBPROGRAM = 0x2e;
+
+    private static final int DW_AT_NAME = 0x03;
+    private static final int DW_AT_STMT_LIST = 0x10;
+    private static final int DW_AT_LOW_PC = 0x11;
+    private static final int DW_AT_HIGH_PC = 0x12;
+    private static final int DW_AT_COMP_DIR = 0x1b;
+    private static final int DW_AT_ABSTRACT_ORIGIN = 0x31;
+    private static final int DW_AT_SPECIFICATION = 0x47;
+    private static final int DW_AT_RANGES = 0x55;
+    private static final int DW_AT_CALL_COLUMN = 0x57;
+    private static final int DW_AT_CALL_FILE = 0x58;
+    private static final int DW_AT_CALL_LINE = 0x59;
+    private static final int DW_AT_LINKAGE_NAME = 0x6e;
+    private static final int DW_AT_STR_OFFSETS_BASE = 0x72;
+    private static final int DW_AT_ADDR_BASE = 0x73;
+    private static final int DW_AT_RNGLISTS_BASE = 0x74;
+    private static final int DW_AT_MIPS_LINKAGE_NAME = 0x2007;
+    private static final int DW_AT_GNU_ADDR_BASE = 0x2133;
+
+    private static final int DW_FORM_ADDR = 0x01;
+    private static final int DW_FORM_BLOCK2 = 0x03;
+    private static final int DW_FORM_BLOCK4 = 0x04;
+    private static final int DW_FORM_DATA2 = 0x05;
+    private static final int DW_FORM_DATA4 = 0x06;
+    private static final int DW_FORM_DATA8 = 0x07;
+    private static final int DW_FORM_STRING = 0x08;
+    private static final int DW_FORM_BLOCK = 0x09;
+    private static final int DW_FORM_BLOCK1 = 0x0a;
+    private static final int DW_FORM_DATA1 = 0x0b;
+    private static final int DW_FORM_FLAG = 0x0c;
+    private static final int DW_FORM_SDATA = 0x0d;
+    private static final int DW_FORM_STRP = 0x0e;
+    private static final int DW_FORM_UDATA = 0x0f;
+    private static final int DW_FORM_REF_ADDR = 0x10;
+    private static final int DW_FORM_REF1 = 0x11;
+    private static final int DW_FORM_REF2 = 0x12;
+    private static final int DW_FORM_REF4 = 0x13;
+    private static final int DW_FORM_REF8 = 0x14;
+    private static final int DW_FORM_REF_UDATA = 0x15;
+    private static final int DW_FORM_INDIRECT = 0x16;
+    private static final int DW_FORM_SEC_OFFSET = 0x17;
+    private static final int DW_FORM_EXPRLOC = 0x18;
+    private static final int DW_FORM_FLAG_PRESENT = 0x19;
+    private static final int DW_FORM_STRX = 0x1a;
+    private static final int DW_FORM_ADDRX = 0x1b;
+    private static final int DW_FORM_REF_SUP4 = 0x1c;
+    private static final int DW_FORM_STRP_SUP = 0x1d;
+    private static final int DW_FORM_DATA16 = 0x1e;
+    private static final int DW_FORM_LINE_STRP = 0x1f;
+    private static final int DW_FORM_REF_SIG8 = 0x20;
+    private static final int DW_FORM_IMPLICIT_CONST = 0x21;
+    private static final int DW_FORM_LOCLISTX = 0x22;
+    private static final int DW_FORM_RNGLISTX = 0x23;
+    private static final int DW_FORM_REF_SUP8 = 0x24;
+    private static final int DW_FORM_STRX1 = 0x25;
+    private static final int DW_FORM_STRX2 = 0x26;
+    private static final int DW_FORM_STRX3 = 0x27;
+    private static final int DW_FORM_STRX4 = 0x28;
+    private static final int DW_FORM_ADDRX1 = 0x29;
+    private static final int DW_FORM_ADDRX2 = 0x2a;
+    private static final int DW_FORM_ADDRX3 = 0x2b;
+    private static final int DW_FORM_ADDRX4 = 0x2c;
+    private static final int DW_FORM_GNU_ADDR_INDEX = 0x1f01;
+    private static final int DW_FORM_GNU_STR_INDEX = 0x1f02;
+    private static final int DW_FORM_GNU_REF_ALT = 0x1f20;
+    private static final int DW_FORM_GNU_STRP_ALT = 0x1f21;
+
+    private static final int DW_UT_TYPE = 0x02;
+    private static final int DW_UT_SKELETON = 0x04;
+    private static final int DW_UT_SPLIT_COMPILE = 0x05;
+    private static final int DW_UT_SPLIT_TYPE = 0x06;
+
+    private static final int DW_RLE_END_OF_LIST = 0;
+    private static final int DW_RLE_BASE_ADDRESSX = 1;
+    private static final int DW_RLE_STARTX_ENDX = 2;
+    private static final int DW_RLE_STARTX_LENGTH = 3;
+    private static final int DW_RLE_OFFSET_PAIR = 4;
+    private static final int DW_RLE_BASE_ADDRESS = 5;
+    private static final int DW_RLE_START_END = 6;
+    private static final int DW_RLE_START_LENGTH = 7;
+
+    private final ByteBuffer info;
+    private final ByteBuffer abbrev;
+    private final ByteBuffer str;
+    private final ByteBuffer lineStr;
+    private final ByteBuffer line;
+    private final ByteBuffer strOffsets;
+    private final ByteBuffer addr;
+    private final ByteBuffer ranges;
+    private final ByteBuffer rnglists;
+
+    private final Map<Long, Abbrev[]> abbrevTables = new HashMap<>();
+    private final Map<Long, String> functionNames = new HashMap<>();
+    private List<Unit> units;
+    private long[] rangeStarts;
+    private long[] rangeEnds;
+    private int[] rangeUnits;
+
+    private DwarfInfo(ElfFile elf) throws IOException {
+        info = elf.section(".debug_info");
+        abbrev = elf.section(".debug_abbrev");
+        str = elf.section(".debug_str");
+        lineStr = elf.section(".debug_line_str");
+        line = elf.section(".debug_line");
+        strOffsets = elf.section(".debug_str_offsets");
+        addr = elf.section(".debug_addr");
+        ranges = elf.section(".debug_ranges");
+        rnglists = elf.section(".debug_rnglists");
+    }
+
+    /**
+     * 没有调试信息时返回null
+     */
+    static DwarfInfo load(ElfFile elf) throws IOException {
+        if (!elf.hasSection(".debug_info") || !elf.hasSection(".debug_abbrev")) {
+            return null;
+        }
+        DwarfInfo dwarf = new DwarfInfo(elf);
+        if (dwarf.info == null || dwarf.abbrev == null) {
+            return null;
+        }
+        return dwarf;
+    }
+
+    /**
+     * 解析地址，返回的帧从最内层的内联函数开始，最后一个是真正的函数；没有调试信息覆盖时返回空列表
+     */
+    synchronized List<Frame> lookup(long address) throws IOException {
+        if (units == null) {
+            loadUnits();
+        }
+        Unit unit = findUnit(address);
+        if (unit == null) {
+            return new ArrayList<>();
+        }
+        if (unit.scopes == null) {
+            loadScopes(unit);
+        }
+        if (unit.lineTable == null && unit.stmtList >= 0 && line != null) {
+            unit.lineTable = new DwarfLineTable(this, line, unit.stmtList, unit.compDir, unit.addressSize);
+        }
+
+        // 包含地址的作用域按先序遍历排列，正好是从外到内的调用链
+        List<Scope> chain = new ArrayList<>();
+        for (Scope scope : unit.scopes) {
+            if (scope.contains(address)) {
+                if (scope.tag == DW_TAG_SUBPROGRAM) {
+                    chain.clear();
+                }
+                chain.add(scope);
+            }
+        }
+
+        List<Frame> frames = new ArrayList<>();
+        DwarfLineTable lineTable = unit.lineTable;
+        String file = "??";
+        int lineNumber = 0;
+        int column = 0;
+        if (lineTable != null) {
+            int row = lineTable.findRow(address);
+            if (row >= 0) {
+                file = lineTable.file(row);
+                lineNumber = lineTable.line(row);
+                column = lineTable.column(row);
+            }
+        }
+        if (chain.isEmpty()) {
+            frames.add(new Frame(null, file, lineNumber, column));
+            return frames;
+        }
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            Scope scope = chain.get(i);
+            frames.add(new Frame(functionName(scope.dieOffset), file, lineNumber, column));
+            // 外层函数的位置是当前内联函数的调用点
+            file = lineTable != null ? lineTable.fileName(scope.callFile) : "??";
+            lineNumber = (int) scope.callLine;
+            column = (int) scope.callColumn;
+        }
+        return frames;
+    }
+
+    private void loadUnits() throws IOException {
+        units = new ArrayList<>();
+        ByteBuffer buf = info.duplicate().order(info.order());
+        int pos = 0;
+        while (pos + 11 <= buf.limit()) {
+            Unit unit = readUnitHeader(buf, pos);
+            if (unit == null) {
+                break;
+            }
+            if (unit.hasCode) {
+                readUnitDie(unit);
+                units.add(unit);
+            }
+            pos = (int) unit.end;
+        }
+        buildRangeIndex();
+    }
+
+    private Unit readUnitHeader(ByteBuffer buf, int pos) throws IOException {
+        buf.position(pos);
+        Unit unit = new Unit();
+        unit.offset = pos;
+        long length = buf.getInt() & 0xffffffffL;
+        unit.offsetSize = 4;
+        if (length == 0xffffffffL) {
+            length = buf.getLong();
+            unit.offsetSize = 8;
+        }
+        if (length == 0) {
+            return null;
+        }
+        unit.end = buf.position() + length;
+        if (unit.end > buf.limit()) {
+            throw new IOException(".debug_info编译单元越界");
+        }
+        unit.version = buf.getShort() & 0xffff;
+        unit.hasCode = true;
+        if (unit.version >= 5) {
+            int unitType = buf.get() & 0xff;
+            unit.addressSize = buf.get() & 0xff;
+            unit.abbrevOffset = readOffset(buf, unit.offsetSize);
+            if (unitType == DW_UT_SKELETON || unitType == DW_UT_SPLIT_COMPILE) {
+                buf.getLong(); // dwo_id
+            } else if (unitType == DW_UT_TYPE || unitType == DW_UT_SPLIT_TYPE) {
+                unit.hasCode = false;
+            }
+        } else if (unit.version >= 2) {
+            unit.abbrevOffset = readOffset(buf, unit.offsetSize);
+            unit.addressSize = buf.get() & 0xff;
+        } else {
+            throw new IOException("不支持的DWARF版本: " + unit.version);
+        }
+        unit.dieOffset = buf.position();
+        unit.abbrevs = abbrevTable(unit.abbrevOffset);
+        return unit;
+    }
+
+    private void readUnitDie(Unit unit) throws IOException {
+        ByteBuffer buf = info.duplicate().order(info.order());
+        buf.position((int) unit.dieOffset);
+        Die die = new Die();
+        if (!readDie(unit, buf, die)) {
+            return;
+        }
+        if (die.strOffsetsBase >= 0) {
+            unit.strOffsetsBase = die.strOffsetsBase;
+        } else if (unit.version >= 5) {
+            unit.strOffsetsBase = 8;
+        }
+        if (die.addrBase >= 0) {
+            unit.addrBase = die.addrBase;
+        }
+        if (die.rnglistsBase >= 0) {
+            unit.rnglistsBase = die.rnglistsBase;
+        }
+        unit.stmtList = die.stmtList;
+        unit.compDir = die.compDirForm != 0 ? readString(unit, die.compDirForm, die.compDir) : "";
+        if (die.lowForm != 0) {
+            unit.basePc = readAddress(unit, die.lowForm, die.low);
+        }
+        unit.ranges = dieRanges(unit, die);
+    }
+
+    private void buildRangeIndex() {
+        int count = 0;
+        for (Unit unit : units) {
+            count += unit.ranges.length / 2;
+        }
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        int[] owners = new int[count];
+        Integer[] order = new Integer[count];
+        int n = 0;
+        for (int u = 0; u < units.size(); u++) {
+            long[] unitRanges = units.get(u).ranges;
+            for (int i = 0; i < unitRanges.length; i += 2) {
+                starts[n] = unitRanges[i];
+                ends[n] = unitRanges[i + 1];
+                owners[n] = u;
+                order[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compareUnsigned(starts[a], starts[b]));
+        rangeStarts = new long[count];
+        rangeEnds = new long[count];
+        rangeUnits = new int[count];
+        for (int i = 0; i < count; i++) {
+            rangeStarts[i] = starts[order[i]];
+            rangeEnds[i] = ends[order[i]];
+            rangeUnits[i] = owners[order[i]];
+        }
+    }
+
+    private Unit findUnit(long address) {
+        int low = 0;
+        int high = rangeStarts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(rangeStarts[mid], address) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        // 空范围或重叠的范围很少见，往前多看几个
+        for (int i = low - 1; i >= 0 && i >= low - 4; i--) {
+            if (Long.compareUnsigned(address, rangeEnds[i]) < 0) {
+                return units.get(rangeUnits[i]);
+            }
+        }
+        return null;
+    }
+
+    private void loadScopes(Unit unit) throws IOException {
+        List<Scope> scopes = new ArrayList<>();
+        ByteBuffer buf = info.duplicate().order(info.order());
+        buf.position((int) unit.dieOffset);
+        Die die = new Die();
+        int depth = 0;
+        while (buf.position() < unit.end) {
+            if (!readDie(unit, buf, die)) {
+                depth--;
+                if (depth <= 0) {
+                    break;
+                }
+                continue;
+            }
+            if ((die.tag == DW_TAG_SUBPROGRAM || die.tag == DW_TAG_INLINED_SUBROUTINE)
+                    && (die.lowForm != 0 || die.rangesForm != 0)) {
+                Scope scope = new Scope();
+                scope.tag = die.tag;
+                scope.dieOffset = die.offset;
+                scope.ranges = dieRanges(unit, die);
+                scope.callFile = die.callFile;
+                scope.callLine = die.callLine;
+                scope.callColumn = die.callColumn;
+                scopes.add(scope);
+            }
+            if (die.hasChildren) {
+                depth++;
+            }
+        }
+        unit.scopes = scopes;
+    }
+
+    /**
+     * 函数名优先取能还原的链接名，带命名空间和参数，和llvm-symbolizer一致；
+     * 没有时用DW_AT_name，两者都沿abstract_origin/specification查找
+     */
+    private String functionName(long dieOffset) throws IOException {
+        String cached = functionNames.get(dieOffset);
+        if (cached != null) {
+            return cached;
+        }
+        String name = null;
+        String shortName = null;
+        long offset = dieOffset;
+        Die die = new Die();
+        for (int hops = 0; hops < 8 && offset >= 0 && name == null; hops++) {
+            Unit unit = unitAt(offset);
+            if (unit == null) {
+                break;
+            }
+            ByteBuffer buf = info.duplicate().order(info.order());
+            buf.position((int) offset);
+            if (!readDie(unit, buf, die)) {
+                break;
+            }
+            if (die.nameForm != 0 && shortName == null) {
+                shortName = readString(unit, die.nameForm, die.name);
+            }
+            if (die.linkageForm != 0) {
+                String linkage = readString(unit, die.linkageForm, die.linkage);
+                String demangled = Demangler.demangle(linkage);
+                if (demangled != null && !demangled.equals(linkage)) {
+                    name = demangled;
+                } else if (shortName == null) {
+                    shortName = linkage;
+                }
+            }
+            offset = die.abstractOrigin >= 0 ? die.abstractOrigin : die.specification;
+        }
+        if (name == null) {
+            name = shortName != null ? shortName : "??";
+        }
+        functionNames.put(dieOffset, name);
+        return name;
+    }
+
+    private Unit unitAt(long offset) throws IOException {
+        int low = 0;
+        int high = units.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Unit unit = units.get(mid);
+            if (offset < unit.offset) {
+                high = mid - 1;
+            } else if (offset >= unit.end) {
+                low = mid + 1;
+            } else {
+                return unit;
+            }
+        }
+        return null;
+    }
+
+    private boolean readDie(Unit unit, ByteBuffer buf, Die die) throws IOException {
+        die.reset();
+        die.offset = buf.position();
+        long code = readUleb(buf);
+        if (code == 0) {
+            return false;
+        }
+        if (code >= unit.abbrevs.length || unit.abbrevs[(int) code] == null) {
+            throw new IOException("无效的缩写码: " + code);
+        }
+        Abbrev abbrevEntry = unit.abbrevs[(int) code];
+        die.tag = abbrevEntry.tag;
+        die.hasChildren = abbrevEntry.hasChildren;
+        for (int i = 0; i < abbrevEntry.attrs.length; i++) {
+            int attr = abbrevEntry.attrs[i];
+            int form = abbrevEntry.forms[i];
+            if (form == DW_FORM_INDIRECT) {
+                form = (int) readUleb(buf);
+            }
+            long value = form == DW_FORM_IMPLICIT_CONST
+                    ? abbrevEntry.implicitConsts[i]
+                    : readFormValue(buf, form, unit);
+            switch (attr) {
+                case DW_AT_NAME:
+                    die.nameForm = form;
+                    die.name = value;
+                    break;
+                case DW_AT_LINKAGE_NAME:
+                case DW_AT_MIPS_LINKAGE_NAME:
+                    die.linkageForm = form;
+                    die.linkage = value;
+                    break;
+                case DW_AT_LOW_PC:
+                    die.lowForm = form;
+                    die.low = value;
+                    break;
+                case DW_AT_HIGH_PC:
+                    die.highForm = form;
+                    die.high = value;
+                    break;
+                case DW_AT_RANGES:
+                    die.rangesForm = form;
+                    die.ranges = value;
+                    break;
+                case DW_AT_ABSTRACT_ORIGIN:
+                    die.abstractOrigin = toInfoOffset(unit, form, value);
+                    break;
+                case DW_AT_SPECIFICATION:
+                    die.specification = toInfoOffset(unit, form, value);
+                    break;
+                case DW_AT_CALL_FILE:
+                    die.callFile = value;
+                    break;
+                case DW_AT_CALL_LINE:
+                    die.callLine = value;
+                    break;
+                case DW_AT_CALL_COLUMN:
+                    die.callColumn = value;
+                    break;
+                case DW_AT_STMT_LIST:
+                    die.stmtList = value;
+                    break;
+                case DW_AT_COMP_DIR:
+                    die.compDirForm = form;
+                    die.compDir = value;
+                    break;
+                case DW_AT_STR_OFFSETS_BASE:
+                    die.strOffsetsBase = value;
+                    break;
+                case DW_AT_ADDR_BASE:
+                case DW_AT_GNU_ADDR_BASE:
+                    die.addrBase = value;
+                    break;
+                case DW_AT_RNGLISTS_BASE:
+                    die.rnglistsBase = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private static long toInfoOffset(Unit unit, int form, long value) {
+        switch (form) {
+            case DW_FORM_REF1:
+            case DW_FORM_REF2:
+            case DW_FORM_REF4:
+            case DW_FORM_REF8:
+            case DW_FORM_REF_UDATA:
+                return unit.offset + value;
+            case DW_FORM_REF_ADDR:
+                return value;
+            default:
+                // 其他引用（补充文件、类型签名）不在本文件内
+                return -1;
+        }
+    }
+
+    /**
+     * 读取属性的原始值；字符串返回偏移或索引，块类数据直接跳过
+     */
+    private long readFormValue(ByteBuffer buf, int form, Unit unit) throws IOException {
+        switch (form) {
+            case DW_FORM_ADDR:
+                return readAddress(buf, unit.addressSize);
+            case DW_FORM_DATA1:
+            case DW_FORM_REF1:
+            case DW_FORM_FLAG:
+            case DW_FORM_STRX1:
+            case DW_FORM_ADDRX1:
+                return buf.get() & 0xff;
+            case DW_FORM_DATA2:
+            case DW_FORM_REF2:
+            case DW_FORM_STRX2:
+            case DW_FORM_ADDRX2:
+                return buf.getShort() & 0xffff;
+            case DW_FORM_STRX3:
+            case DW_FORM_ADDRX3:
+                return readUnsigned3(buf);
+            case DW_FORM_DATA4:
+            case DW_FORM_REF4:
+            case DW_FORM_REF_SUP4:
+            case DW_FORM_STRX4:
+            case DW_FORM_ADDRX4:
+                return buf.getInt() & 0xffffffffL;
+            case DW_FORM_DATA8:
+            case DW_FORM_REF8:
+            case DW_FORM_REF_SIG8:
+            case DW_FORM_REF_SUP8:
+                return buf.getLong();
+            case DW_FORM_SDATA:
+                return readSleb(buf);
+            case DW_FORM_UDATA:
+            case DW_FORM_REF_UDATA:
+            case DW_FORM_STRX:
+            case DW_FORM_ADDRX:
+            case DW_FORM_LOCLISTX:
+            case DW_FORM_RNGLISTX:
+            case DW_FORM_GNU_ADDR_INDEX:
+            case DW_FORM_GNU_STR_INDEX:
+                return readUleb(buf);
+            case DW_FORM_STRP:
+            case DW_FORM_LINE_STRP:
+            case DW_FORM_SEC_OFFSET:
+            case DW_FORM_STRP_SUP:
+            case DW_FORM_GNU_REF_ALT:
+            case DW_FORM_GNU_STRP_ALT:
+                return readOffset(buf, unit.offsetSize);
+            case DW_FORM_REF_ADDR:
+                return unit.version <= 2 ? readAddress(buf, unit.addressSize) : readOffset(buf, unit.offsetSize);
+            case DW_FORM_STRING: {
+                long start = buf.position();
+                while (buf.get() != 0) {
+                    // 跳过内联字符串
+                }
+                return start;
+            }
+            case DW_FORM_FLAG_PRESENT:
+                return 1;
+            default:
+                skipForm(buf, form, unit.offsetSize, unit.addressSize);
+                return 0;
+        }
+    }
+
+    static void skipForm(ByteBuffer buf, int form, int offsetSize, int addressSize) throws IOException {
+        switch (form) {
+            case DW_FORM_BLOCK1:
+                skip(buf, buf.get() & 0xff);
+                break;
+            case DW_FORM_BLOCK2:
+                skip(buf, buf.getShort() & 0xffff);
+                break;
+            case DW_FORM_BLOCK4:
+                skip(buf, buf.getInt() & 0xffffffffL);
+                break;
+            case DW_FORM_BLOCK:
+            case DW_FORM_EXPRLOC:
+                skip(buf, readUleb(buf));
+                break;
+            case DW_FORM_DATA16:
+                buf.position(buf.position() + 16);
+                break;
+            case DW_FORM_ADDR:
+                buf.position(buf.position() + addressSize);
+                break;
+            case DW_FORM_DATA1:
+            case DW_FORM_FLAG:
+            case DW_FORM_STRX1:
+                buf.get();
+                break;
+            case DW_FORM_DATA2:
+            case DW_FORM_STRX2:
+                buf.getShort();
+                break;
+            case DW_FORM_STRX3:
+                readUnsigned3(buf);
+                break;
+            case DW_FORM_DATA4:
+            case DW_FORM_STRX4:
+                buf.getInt();
+                break;
+            case DW_FORM_DATA8:
+                buf.getLong();
+                break;
+            case DW_FORM_UDATA:
+            case DW_FORM_SDATA:
+            case DW_FORM_STRX:
+                readUleb(buf);
+                break;
+            case DW_FORM_STRP:
+            case DW_FORM_LINE_STRP:
+            case DW_FORM_SEC_OFFSET:
+                readOffset(buf, offsetSize);
+                break;
+            case DW_FORM_STRING:
+                readCString(buf);
+                break;
+            case DW_FORM_FLAG_PRESENT:
+            case DW_FORM_IMPLICIT_CONST:
+                break;
+            default:
+                throw new IOException("不支持的DWARF属性格式: 0x" + Integer.toHexString(form));
+        }
+    }
+
+    /**
+     * 行号表头中的字符串属性
+     */
+    String readFormString(ByteBuffer buf, int form, int offsetSize) throws IOException {
+        switch (form) {
+            case DW_FORM_STRING:
+                return readCString(buf);
+            case DW_FORM_LINE_STRP:
+                return stringAt(lineStr, readOffset(buf, offsetSize));
+            case DW_FORM_STRP:
+                return stringAt(str, readOffset(buf, offsetSize));
+            default:
+                skipForm(buf, form, offsetSize, 8);
+                return "??";
+        }
+    }
+
+    static long readFormConstant(ByteBuffer buf, int form) throws IOException {
+        switch (form) {
+            case DW_FORM_DATA1:
+                return buf.get() & 0xff;
+            case DW_FORM_DATA2:
+                return buf.getShort() & 0xffff;
+            case DW_FORM_DATA4:
+                return buf.getInt() & 0xffffffffL;
+            case DW_FORM_DATA8:
+                return buf.getLong();
+            case DW_FORM_UDATA:
+                return readUleb(buf);
+            default:
+                throw new IOException("不支持的常量格式: 0x" + Integer.toHexString(form));
+        }
+    }
+
+    private String readString(Unit unit, int form, long value) {
+        switch (form) {
+            case DW_FORM_STRING:
+                return stringAt(info, value);
+            case DW_FORM_STRP:
+                return stringAt(str, value);
+            case DW_FORM_LINE_STRP:
+                return stringAt(lineStr, value);
+            case DW_FORM_STRX:
+            case DW_FORM_STRX1:
+            case DW_FORM_STRX2:
+            case DW_FORM_STRX3:
+            case DW_FORM_STRX4:
+            case DW_FORM_GNU_STR_INDEX: {
+                if (strOffsets == null) {
+                    return "??";
+                }
+                int pos = (int) (unit.strOffsetsBase + value * unit.offsetSize);
+                long offset = unit.offsetSize == 8 ? strOffsets.getLong(pos) : strOffsets.getInt(pos) & 0xffffffffL;
+                return stringAt(str, offset);
+            }
+            default:
+                return "??";
+        }
+    }
+
+    private long readAddress(Unit unit, int form, long value) {
+        switch (form) {
+            case DW_FORM_ADDRX:
+            case DW_FORM_ADDRX1:
+            case DW_FORM_ADDRX2:
+            case DW_FORM_ADDRX3:
+            case DW_FORM_ADDRX4:
+            case DW_FORM_GNU_ADDR_INDEX:
+                return indexedAddress(unit, value);
+            default:
+                return value;
+        }
+    }
+
+    private long indexedAddress(Unit unit, long index) {
+        if (addr == null) {
+            return 0;
+        }
+        ByteBuffer buf = addr.duplicate().order(addr.order());
+        buf.position((int) (unit.addrBase + index * unit.addressSize));
+        return readAddress(buf, unit.addressSize);
+    }
+
+    /**
+     * 计算DIE覆盖的地址范围，结果为[起始, 结束)成对排列
+     */
+    private long[] dieRanges(Unit unit, Die die) throws IOException {
+        if (die.rangesForm != 0) {
+            return readRanges(unit, die.rangesForm, die.ranges);
+        }
+        if (die.lowForm == 0) {
+            return new long[0];
+        }
+        long low = readAddress(unit, die.lowForm, die.low);
+        if (die.highForm == 0) {
+            return new long[]{low, low + 1};
+        }
+        long high;
+        if (die.highForm == DW_FORM_ADDR || die.highForm == DW_FORM_ADDRX
+                || (die.highForm >= DW_FORM_ADDRX1 && die.highForm <= DW_FORM_ADDRX4)) {
+            high = readAddress(unit, die.highForm, die.high);
+        } else {
+            high = low + die.high;
+        }
+        return new long[]{low, high};
+    }
+
+    private long[] readRanges(Unit unit, int form, long value) throws IOException {
+        List<Long> result = new ArrayList<>();
+        if (unit.version < 5) {
+            if (ranges == null) {
+                return new long[0];
+            }
+            ByteBuffer buf = ranges.duplicate().order(ranges.order());
+            buf.position((int) value);
+            long base = unit.basePc;
+            long maxAddress = unit.addressSize == 8 ? -1L : 0xffffffffL;
+            while (buf.remaining() >= unit.addressSize * 2) {
+                long start = readAddress(buf, unit.addressSize);
+                long end = readAddress(buf, unit.addressSize);
+                if (start == 0 && end == 0) {
+                    break;
+                }
+                if (start == maxAddress) {
+                    base = end;
+                    continue;
+                }
+                result.add(base + start);
+                result.add(base + end);
+            }
+        } else {
+            if (rnglists == null) {
+                return new long[0];
+            }
+            long offset = value;
+            if (form == DW_FORM_RNGLISTX) {
+                int pos = (int) (unit.rnglistsBase + value * unit.offsetSize);
+                offset = unit.rnglistsBase + (unit.offsetSize == 8 ? rnglists.getLong(pos) : rnglists.getInt(pos) & 0xffffffffL);
+            }
+            ByteBuffer buf = rnglists.duplicate().order(rnglists.order());
+            buf.position((int) offset);
+            long base = unit.basePc;
+            boolean done = false;
+            while (!done && buf.hasRemaining()) {
+                int kind = buf.get() & 0xff;
+                switch (kind) {
+                    case DW_RLE_END_OF_LIST:
+                        done = true;
+                        break;
+                    case DW_RLE_BASE_ADDRESSX:
+                        base = indexedAddress(unit, readUleb(buf));
+                        break;
+                    case DW_RLE_STARTX_ENDX: {
+                        long start = indexedAddress(unit, readUleb(buf));
+                        long end = indexedAddress(unit, readUleb(buf));
+                        result.add(start);
+                        result.add(end);
+                        break;
+                    }
+                    case DW_RLE_STARTX_LENGTH: {
+                        long start = indexedAddress(unit, readUleb(buf));
+                        result.add(start);
+                        result.add(start + readUleb(buf));
+                        break;
+                    }
+                    case DW_RLE_OFFSET_PAIR:
+                        result.add(base + readUleb(buf));
+                        result.add(base + readUleb(buf));
+                        break;
+                    case DW_RLE_BASE_ADDRESS:
+                        base = readAddress(buf, unit.addressSize);
+                        break;
+                    case DW_RLE_START_END:
+                        result.add(readAddress(buf, unit.addressSize));
+                        result.add(readAddress(buf, unit.addressSize));
+                        break;
+                    case DW_RLE_START_LENGTH: {
+                        long start = readAddress(buf, unit.addressSize);
+                        result.add(start);
+                        result.add(start + readUleb(buf));
+                        break;
+                    }
+                    default:
+                        throw new IOException("无效的范围列表项: " + kind);
+                }
+            }
+        }
+        long[] pairs = new long[result.size()];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = result.get(i);
+        }
+        return pairs;
+    }
+
+    private Abbrev[] abbrevTable(long offset) throws IOException {
+        Abbrev[] table = abbrevTables.get(offset);
+        if (table != null) {
+            return table;
+        }
+        table = new Abbrev[64];
+        ByteBuffer buf = abbrev.duplicate().order(abbrev.order());
+        buf.position((int) offset);
+        while (buf.hasRemaining()) {
+            long code = readUleb(buf);
+            if (code == 0) {
+                break;
+            }
+            if (code > (1 << 20)) {
+                throw new IOException("缩写码过大: " + code);
+            }
+            Abbrev entry = new Abbrev();
+            entry.tag = (int) readUleb(buf);
+            entry.hasChildren = buf.get() != 0;
+            List<long[]> specs = new ArrayList<>();
+            while (true) {
+                long attr = readUleb(buf);
+                long form = readUleb(buf);
+                if (attr == 0 && form == 0) {
+                    break;
+                }
+                long implicitConst = form == DW_FORM_IMPLICIT_CONST ? readSleb(buf) : 0;
+                specs.add(new long[]{attr, form, implicitConst});
+            }
+            entry.attrs = new int[specs.size()];
+            entry.forms = new int[specs.size()];
+            entry.implicitConsts = new long[specs.size()];
+            for (int i = 0; i < specs.size(); i++) {
+                entry.attrs[i] = (int) specs.get(i)[0];
+                entry.forms[i] = (int) specs.get(i)[1];
+                entry.implicitConsts[i] = specs.get(i)[2];
+            }
+            if (code >= table.length) {
+                table = Arrays.copyOf(table, (int) Math.max(code + 1, table.length * 2L));
+            }
+            table[(int) code] = entry;
+        }
+        abbrevTables.put(offset, table);
+        return table;
+    }
+
+    private static void skip(ByteBuffer buf, long length) {
+        // 长度要先读出来，再基于新的位置跳过
+        buf.position((int) (buf.position() + length));
+    }
+
+    static long readUleb(ByteBuffer buf) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            int b = buf.get() & 0xff;
+            if (shift < 64) {
+                result |= (long) (b & 0x7f) << shift;
+            }
+            shift += 7;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+
+    static long readSleb(ByteBuffer buf) {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buf.get() & 0xff;
+            if (shift < 64) {
+                result |= (long) (b & 0x7f) << shift;
+            }
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (shift < 64 && (b & 0x40) != 0) {
+            result |= -1L << shift;
+        }
+        return result;
+    }
+
+    static long readAddress(ByteBuffer buf, int size) {
+        switch (size) {
+            case 8:
+                return buf.getLong();
+            case 4:
+                return buf.getInt() & 0xffffffffL;
+            case 2:
+                return buf.getShort() & 0xffff;
+            default:
+                long value = 0;
+                for (int i = 0; i < size; i++) {
+                    value |= (long) (buf.get() & 0xff) << (8 * i);
+                }
+                return value;
+        }
+    }
+
+    static long readOffset(ByteBuffer buf, int offsetSize) {
+        return offsetSize == 8 ? buf.getLong() : buf.getInt() & 0xffffffffL;
+    }
+
+    private static long readUnsigned3(ByteBuffer buf) {
+        int b0 = buf.get() & 0xff;
+        int b1 = buf.get() & 0xff;
+        int b2 = buf.get() & 0xff;
+        return b0 | (b1 << 8) | ((long) b2 << 16);
+    }
+
+    static String readCString(ByteBuffer buf) {
+        int start = buf.position();
+        while (buf.get() != 0) {
+            // 找到结尾的0
+        }
+        return decode(buf, start, buf.position() - 1);
+    }
+
+    private static String stringAt(ByteBuffer section, long offset) {
+        if (section == null || offset < 0 || offset >= section.limit()) {
+            return "??";
+        }
+        int start = (int) offset;
+        int end = start;
+        while (end < section.limit() && section.get(end) != 0) {
+            end++;
+        }
+        return decode(section, start, end);
+    }
+
+    private static String decode(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static final class Frame {
+        final String function;
+        final String file;
+        final int line;
+        final int column;
+
+        Frame(String function, String file, int line, int column) {
+            this.function = function;
+            this.file = file;
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    private static final class Unit {
+        long offset;
+        long end;
+        long dieOffset;
+        int version;
+        int offsetSize;
+        int addressSize;
+        long abbrevOffset;
+        boolean hasCode;
+        Abbrev[] abbrevs;
+        long strOffsetsBase;
+        long addrBase;
+        long rnglistsBase;
+        long basePc;
+        long stmtList = -1;
+        String compDir = "";
+        long[] ranges = new long[0];
+        List<Scope> scopes;
+        DwarfLineTable lineTable;
+    }
+
+    private static final class Abbrev {
+        int tag;
+        boolean hasChildren;
+        int[] attrs;
+        int[] forms;
+        long[] implicitConsts;
+    }
+
+    private static final class Scope {
+        int tag;
+        long dieOffset;
+        long[] ranges;
+        long callFile;
+        long callLine;
+        long callColumn;
+
+        boolean contains(long address) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (Long.compareUnsigned(address, ranges[i]) >= 0 && Long.compareUnsigned(address, ranges[i + 1]) < 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Die {
+        long offset;
+        int tag;
+        boolean hasChildren;
+        int nameForm;
+        long name;
+        int linkageForm;
+        long linkage;
+        int lowForm;
+        long low;
+        int highForm;
+        long high;
+        int rangesForm;
+        long ranges;
+        long abstractOrigin;
+        long specification;
+        long callFile;
+        long callLine;
+        long callColumn;
+        long stmtList;
+        int compDirForm;
+        long compDir;
+        long strOffsetsBase;
+        long addrBase;
+        long rnglistsBase;
+
+        void reset() {
+            nameForm = 0;
+            linkageForm = 0;
+            lowForm = 0;
+            highForm = 0;
+            rangesForm = 0;
+            abstractOrigin = -1;
+            specification = -1;
+            callFile = 0;
+            callLine = 0;
+            callColumn = 0;
+            stmtList = -1;
+            compDirForm = 0;
+            strOffsetsBase = -1;
+            addrBase = -1;
+            rnglistsBase = -1;
+        }
+    }
+}
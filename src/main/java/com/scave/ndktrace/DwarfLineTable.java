@@ -0,0 +1,330 @@
+package com.scave.ndktrace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一个编译单元的.debug_line行号表，支持DWARF 2-5
+ * 行号程序执行一次后以并列的基本类型数组保存，按地址二分查找
+ */
+final class DwarfLineTable {
+    private static final int DW_LNS_COPY = 1;
+    private static final int DW_LNS_ADVANCE_PC = 2;
+    private static final int DW_LNS_ADVANCE_LINE = 3;
+    private static final int DW_LNS_SET_FILE = 4;
+    private static final int DW_LNS_SET_COLUMN = 5;
+    private static final int DW_LNS_NEGATE_STMT = 6;
+    private static final int DW_LNS_BASIC_BLOCK = 7;
+    private static final int DW_LNS_CONST_ADD_PC = 8;
+    private static final int DW_LNS_FIXED_ADVANCE_PC = 9;
+    private static final int DW_LNE_END_SEQUENCE = 1;
+    private static final int DW_LNE_SET_ADDRESS = 2;
+    private static final int DW_LNE_DEFINE_FILE = 3;
+
+    private static final int DW_LNCT_PATH = 1;
+    private static final int DW_LNCT_DIRECTORY_INDEX = 2;
+
+    private final List<String> fileNames = new ArrayList<>();
+    private final int fileBase;
+
+    // 所有序列的行按序列起始地址排好序后平铺存放
+    private long[] addresses = new long[64];
+    private int[] files = new int[64];
+    private int[] lines = new int[64];
+    private int[] columns = new int[64];
+    private boolean[] sequenceEnds = new boolean[64];
+    private int rowCount;
+
+    private long[] sequenceStarts = new long[8];
+    private int[] sequenceFirstRows = new int[8];
+    private int sequenceCount;
+
+    DwarfLineTable(DwarfInfo info, ByteBuffer debugLine, long offset, String compDir, int addressSize) throws IOException {
+        ByteBuffer buf = debugLine.duplicate().order(debugLine.order());
+        buf.position((int) offset);
+        long unitLength = buf.getInt() & 0xffffffffL;
+        int offsetSize = 4;
+        if (unitLength == 0xffffffffL) {
+            unitLength = buf.getLong();
+            offsetSize = 8;
+        }
+        int end = (int) (buf.position() + unitLength);
+        int version = buf.getShort() & 0xffff;
+        if (version < 2 || version > 5) {
+            throw new IOException("不支持的行号表版本: " + version);
+        }
+        if (version >= 5) {
+            addressSize = buf.get() & 0xff;
+            buf.get(); // segment_selector_size
+        }
+        long headerLength = offsetSize == 8 ? buf.getLong() : buf.getInt() & 0xffffffffL;
+        int programStart = (int) (buf.position() + headerLength);
+        int minInstLength = buf.get() & 0xff;
+        if (version >= 4) {
+            buf.get(); // maximum_operations_per_instruction
+        }
+        boolean defaultIsStmt = buf.get() != 0;
+        int lineBase = buf.get();
+        int lineRange = buf.get() & 0xff;
+        int opcodeBase = buf.get() & 0xff;
+        int[] standardLengths = new int[opcodeBase];
+        for (int i = 1; i < opcodeBase; i++) {
+            standardLengths[i] = buf.get() & 0xff;
+        }
+
+        if (version >= 5) {
+            List<String> dirs = readV5Entries(info, buf, offsetSize, null, compDir);
+            fileNames.addAll(readV5Entries(info, buf, offsetSize, dirs, compDir));
+            fileBase = 0;
+        } else {
+            List<String> dirs = new ArrayList<>();
+            dirs.add(compDir);
+            String dir;
+            while (!(dir = DwarfInfo.readCString(buf)).isEmpty()) {
+                dirs.add(joinPath(compDir, dir));
+            }
+            String name;
+            while (!(name = DwarfInfo.readCString(buf)).isEmpty()) {
+                int dirIndex = (int) DwarfInfo.readUleb(buf);
+                DwarfInfo.readUleb(buf); // mtime
+                DwarfInfo.readUleb(buf); // length
+                fileNames.add(joinPath(dirIndex < dirs.size() ? dirs.get(dirIndex) : compDir, name));
+            }
+            fileBase = 1;
+        }
+
+        buf.position(programStart);
+        runProgram(buf, end, addressSize, minInstLength, defaultIsStmt, lineBase, lineRange, opcodeBase, standardLengths, compDir);
+        sortSequences();
+    }
+
+    /**
+     * 查找地址对应的行，返回行下标，找不到返回-1
+     */
+    int findRow(long address) {
+        int seq = upperBound(sequenceStarts, 0, sequenceCount, address) - 1;
+        if (seq < 0) {
+            return -1;
+        }
+        int first = sequenceFirstRows[seq];
+        int last = seq + 1 < sequenceCount ? sequenceFirstRows[seq + 1] : rowCount;
+        int row = upperBound(addresses, first, last, address) - 1;
+        if (row < first || sequenceEnds[row]) {
+            return -1;
+        }
+        return row;
+    }
+
+    String file(int row) {
+        return fileName(files[row]);
+    }
+
+    String fileName(long fileIndex) {
+        long index = fileIndex - fileBase;
+        if (index < 0 || index >= fileNames.size()) {
+            return "??";
+        }
+        return fileNames.get((int) index);
+    }
+
+    int line(int row) {
+        return lines[row];
+    }
+
+    int column(int row) {
+        return columns[row];
+    }
+
+    private void runProgram(ByteBuffer buf, int end, int addressSize, int minInstLength, boolean defaultIsStmt,
+                            int lineBase, int lineRange, int opcodeBase, int[] standardLengths, String compDir) {
+        long address = 0;
+        int file = 1;
+        int line = 1;
+        int column = 0;
+        boolean sequenceStarted = false;
+        while (buf.position() < end) {
+            int opcode = buf.get() & 0xff;
+            if (opcode >= opcodeBase) {
+                int adjusted = opcode - opcodeBase;
+                address += (long) (adjusted / lineRange) * minInstLength;
+                line += lineBase + adjusted % lineRange;
+                if (!sequenceStarted) {
+                    startSequence(address);
+                    sequenceStarted = true;
+                }
+                addRow(address, file, line, column, false);
+            } else if (opcode == 0) {
+                long length = DwarfInfo.readUleb(buf);
+                int next = (int) (buf.position() + length);
+                int sub = length > 0 ? buf.get() & 0xff : 0;
+                if (sub == DW_LNE_END_SEQUENCE) {
+                    if (sequenceStarted) {
+                        addRow(address, file, line, column, true);
+                    }
+                    sequenceStarted = false;
+                    address = 0;
+                    file = 1;
+                    line = 1;
+                    column = 0;
+                } else if (sub == DW_LNE_SET_ADDRESS) {
+                    address = DwarfInfo.readAddress(buf, (int) length - 1);
+                } else if (sub == DW_LNE_DEFINE_FILE) {
+                    fileNames.add(joinPath(compDir, DwarfInfo.readCString(buf)));
+                }
+                buf.position(next);
+            } else if (opcode == DW_LNS_COPY) {
+                if (!sequenceStarted) {
+                    startSequence(address);
+                    sequenceStarted = true;
+                }
+                addRow(address, file, line, column, false);
+            } else if (opcode == DW_LNS_ADVANCE_PC) {
+                address += DwarfInfo.readUleb(buf) * minInstLength;
+            } else if (opcode == DW_LNS_ADVANCE_LINE) {
+                line += (int) DwarfInfo.readSleb(buf);
+            } else if (opcode == DW_LNS_SET_FILE) {
+                file = (int) DwarfInfo.readUleb(buf);
+            } else if (opcode == DW_LNS_SET_COLUMN) {
+                column = (int) DwarfInfo.readUleb(buf);
+            } else if (opcode == DW_LNS_NEGATE_STMT || opcode == DW_LNS_BASIC_BLOCK) {
+                // 不影响地址到行号的映射
+            } else if (opcode == DW_LNS_CONST_ADD_PC) {
+                address += (long) ((255 - opcodeBase) / lineRange) * minInstLength;
+            } else if (opcode == DW_LNS_FIXED_ADVANCE_PC) {
+                address += buf.getShort() & 0xffff;
+            } else {
+                for (int i = 0; i < standardLengths[opcode]; i++) {
+                    DwarfInfo.readUleb(buf);
+                }
+            }
+        }
+    }
+
+    private void startSequence(long address) {
+        if (sequenceCount == sequenceStarts.length) {
+            sequenceStarts = Arrays.copyOf(sequenceStarts, sequenceCount * 2);
+            sequenceFirstRows = Arrays.copyOf(sequenceFirstRows, sequenceCount * 2);
+        }
+        sequenceStarts[sequenceCount] = address;
+        sequenceFirstRows[sequenceCount] = rowCount;
+        sequenceCount++;
+    }
+
+    private void addRow(long address, int file, int line, int column, boolean sequenceEnd) {
+        if (rowCount == addresses.length) {
+            int size = rowCount * 2;
+            addresses = Arrays.copyOf(addresses, size);
+            files = Arrays.copyOf(files, size);
+            lines = Arrays.copyOf(lines, size);
+            columns = Arrays.copyOf(columns, size);
+            sequenceEnds = Arrays.copyOf(sequenceEnds, size);
+        }
+        addresses[rowCount] = address;
+        files[rowCount] = file;
+        lines[rowCount] = line;
+        columns[rowCount] = column;
+        sequenceEnds[rowCount] = sequenceEnd;
+        rowCount++;
+    }
+
+    /**
+     * 序列在行号程序中不一定按地址排列，按起始地址重排后才能二分查找
+     */
+    private void sortSequences() {
+        Integer[] order = new Integer[sequenceCount];
+        for (int i = 0; i < sequenceCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compareUnsigned(sequenceStarts[a], sequenceStarts[b]));
+
+        long[] newAddresses = new long[rowCount];
+        int[] newFiles = new int[rowCount];
+        int[] newLines = new int[rowCount];
+        int[] newColumns = new int[rowCount];
+        boolean[] newEnds = new boolean[rowCount];
+        long[] newStarts = new long[sequenceCount];
+        int[] newFirstRows = new int[sequenceCount];
+        int pos = 0;
+        for (int i = 0; i < sequenceCount; i++) {
+            int seq = order[i];
+            int first = sequenceFirstRows[seq];
+            int last = seq + 1 < sequenceCount ? sequenceFirstRows[seq + 1] : rowCount;
+            int length = last - first;
+            System.arraycopy(addresses, first, newAddresses, pos, length);
+            System.arraycopy(files, first, newFiles, pos, length);
+            System.arraycopy(lines, first, newLines, pos, length);
+            System.arraycopy(columns, first, newColumns, pos, length);
+            System.arraycopy(sequenceEnds, first, newEnds, pos, length);
+            newStarts[i] = sequenceStarts[seq];
+            newFirstRows[i] = pos;
+            pos += length;
+        }
+        addresses = newAddresses;
+        files = newFiles;
+        lines = newLines;
+        columns = newColumns;
+        sequenceEnds = newEnds;
+        sequenceStarts = newStarts;
+        sequenceFirstRows = newFirstRows;
+    }
+
+    private List<String> readV5Entries(DwarfInfo info, ByteBuffer buf, int offsetSize,
+                                       List<String> dirs, String compDir) throws IOException {
+        int formatCount = buf.get() & 0xff;
+        long[] contentTypes = new long[formatCount];
+        int[] forms = new int[formatCount];
+        for (int i = 0; i < formatCount; i++) {
+            contentTypes[i] = DwarfInfo.readUleb(buf);
+            forms[i] = (int) DwarfInfo.readUleb(buf);
+        }
+        long count = DwarfInfo.readUleb(buf);
+        List<String> entries = new ArrayList<>((int) count);
+        for (long n = 0; n < count; n++) {
+            String path = null;
+            long dirIndex = 0;
+            for (int i = 0; i < formatCount; i++) {
+                if (contentTypes[i] == DW_LNCT_PATH) {
+                    path = info.readFormString(buf, forms[i], offsetSize);
+                } else if (contentTypes[i] == DW_LNCT_DIRECTORY_INDEX) {
+                    dirIndex = DwarfInfo.readFormConstant(buf, forms[i]);
+                } else {
+                    DwarfInfo.skipForm(buf, forms[i], offsetSize, 8);
+                }
+            }
+            if (path == null) {
+                path = "??";
+            }
+            if (dirs == null) {
+                entries.add(n == 0 ? path : joinPath(compDir, path));
+            } else {
+                String dir = dirIndex < dirs.size() ? dirs.get((int) dirIndex) : compDir;
+                entries.add(joinPath(dir, path));
+            }
+        }
+        return entries;
+    }
+
+    private static String joinPath(String dir, String name) {
+        if (dir == null || dir.isEmpty() || name.startsWith("/") || (name.length() > 1 && name.charAt(1) == ':')) {
+            return name;
+        }
+        return dir.endsWith("/") ? dir + name : dir + "/" + name;
+    }
+
+    private static int upperBound(long[] values, int from, int to, long key) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(values[mid], key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,596 @@
+package com.scave.ndktrace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 通过内存映射读取的ELF文件，只解析符号化需要的节区头和符号表
+ * 普通文件只映射符号表、字符串表、调试节和build-id，不映射整个文件，超过2GB的SO也能打开；
+ * 所有偏移和大小都先和文件长度比较，截断或损坏的文件抛出IOException
+ */
+final class ElfFile {
+    static final int EM_ARM = 40;
+
+    private static final int SHT_SYMTAB = 2;
+    private static final int SHT_DYNSYM = 11;
+    private static final int SHT_NOBITS = 8;
+    private static final long SHF_COMPRESSED = 0x800;
+    private static final int STT_FUNC = 2;
+    private static final int STT_GNU_IFUNC = 10;
+    private static final int PT_NOTE = 4;
+    private static final int NT_GNU_BUILD_ID = 3;
+    // 小于这个大小的区间直接读入，不做映射
+    private static final int READ_LIMIT = 64 * 1024;
+    // PT_NOTE段最多读这么多，build-id在很靠前的位置
+    private static final int NOTE_LIMIT = 64 * 1024;
+
+    private final Region region;
+    private final long length;
+    // 读到文件头之前按大端读取魔数
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+    private final boolean is64;
+    private final int machine;
+    private final Map<String, Section> sections = new HashMap<>();
+    private List<Section> sectionHeaders = Collections.emptyList();
+    private final List<ByteBuffer> notes = new ArrayList<>();
+
+    private ElfFile(Region region, long length, boolean withSections) throws IOException {
+        this(region, length, withSections, true);
+    }
+
+    /**
+     * mapSections为false时只读节区头和节名，不读取任何节的内容
+     */
+    private ElfFile(Region region, long length, boolean withSections, boolean mapSections) throws IOException {
+        this.region = region;
+        this.length = length;
+        if (length < 0x34) {
+            throw new IOException("不是ELF文件");
+        }
+        ByteBuffer header = read(0, Math.min(length, 0x40));
+        if (header.order(ByteOrder.BIG_ENDIAN).getInt(0) != 0x7f454c46) {
+            throw new IOException("不是ELF文件");
+        }
+        is64 = header.get(4) == 2;
+        if (is64 && header.limit() < 0x40) {
+            throw new IOException("ELF文件头不完整");
+        }
+        order = header.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        header.order(order);
+        machine = header.getShort(0x12) & 0xffff;
+        readNotes(header);
+        if (withSections) {
+            readSections(header, mapSections);
+        }
+    }
+
+    /**
+     * 只根据文件开头的一段内容读取build-id，压缩包中的SO不必整个解压
+     * 节区头在文件末尾读不到，通过程序头中的PT_NOTE段查找，段超出这段内容时返回null
+     */
+    static String buildIdOfHeader(ByteBuffer prefix) {
+        try {
+            return new ElfFile(bufferRegion(prefix), prefix.limit(), false).buildId();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 只读取程序头和PT_NOTE段得到build-id，不映射文件；没有PT_NOTE时再只读.note.gnu.build-id一节
+     */
+    static String readBuildId(File file) throws IOException {
+        if (ArchiveLibrary.isEntry(file)) {
+            ByteBuffer data = ArchiveLibrary.map(file);
+            return readBuildId(bufferRegion(data), data.limit());
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return readBuildId(channelRegion(channel), channel.size());
+        }
+    }
+
+    private static String readBuildId(Region region, long length) throws IOException {
+        String id = parse(region, length, false).buildId();
+        if (id != null) {
+            return id;
+        }
+        ElfFile elf = parse(region, length, true, false);
+        Section section = elf.sections.get(".note.gnu.build-id");
+        if (section == null || section.type == SHT_NOBITS || section.size > NOTE_LIMIT) {
+            return null;
+        }
+        try {
+            return elf.findBuildIdNote(elf.read(section.offset, section.size));
+        } catch (RuntimeException e) {
+            throw new IOException("ELF文件损坏: " + e, e);
+        }
+    }
+
+    /**
+     * 符号信息的详细程度：2为带DWARF调试信息，1为只有.symtab，0为只有导出符号；只读节区头
+     * 同一build-id有多个文件（剥离前后的副本）时用来挑选信息最全的一个
+     */
+    static int symbolDetail(File file) throws IOException {
+        ElfFile elf = headersOnly(file);
+        if (elf.hasDebugSections()) {
+            return 2;
+        }
+        Section symtab = elf.sections.get(".symtab");
+        return symtab != null && symtab.type == SHT_SYMTAB ? 1 : 0;
+    }
+
+    static ElfFile open(File file) throws IOException {
+        if (ArchiveLibrary.isEntry(file)) {
+            ByteBuffer data = ArchiveLibrary.map(file);
+            return parse(bufferRegion(data), data.limit(), true);
+        }
+        // 需要的节在构造时全部映射好，映射在通道关闭后仍然有效
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return parse(channelRegion(channel), channel.size(), true);
+        }
+    }
+
+    /**
+     * 是否带有DWARF调试信息，只读节区头，不映射任何节
+     */
+    static boolean hasDebugInfo(File file) throws IOException {
+        return headersOnly(file).hasDebugSections();
+    }
+
+    private static ElfFile headersOnly(File file) throws IOException {
+        if (ArchiveLibrary.isEntry(file)) {
+            ByteBuffer data = ArchiveLibrary.map(file);
+            return parse(bufferRegion(data), data.limit(), true, false);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return parse(channelRegion(channel), channel.size(), true, false);
+        }
+    }
+
+    private boolean hasDebugSections() {
+        Section info = sections.get(".debug_info");
+        return info != null && info.type != SHT_NOBITS && sections.containsKey(".debug_abbrev");
+    }
+
+    private static ElfFile parse(Region region, long length, boolean withSections) throws IOException {
+        return parse(region, length, withSections, true);
+    }
+
+    /**
+     * 损坏的文件在解析中可能触发的运行时异常统一转为IOException
+     */
+    private static ElfFile parse(Region region, long length, boolean withSections, boolean mapSections)
+            throws IOException {
+        try {
+            return new ElfFile(region, length, withSections, mapSections);
+        } catch (RuntimeException e) {
+            throw new IOException("ELF文件损坏: " + e, e);
+        }
+    }
+
+    private static Region bufferRegion(ByteBuffer data) {
+        return (offset, size) -> {
+            ByteBuffer dup = data.duplicate();
+            dup.position((int) offset);
+            dup.limit((int) (offset + size));
+            return dup.slice();
+        };
+    }
+
+    private static Region channelRegion(FileChannel channel) {
+        return (offset, size) -> {
+            if (size <= READ_LIMIT) {
+                ByteBuffer data = ByteBuffer.allocate((int) size);
+                while (data.hasRemaining()) {
+                    if (channel.read(data, offset + data.position()) < 0) {
+                        throw new IOException("ELF文件被截断");
+                    }
+                }
+                data.flip();
+                return data;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        };
+    }
+
+    /**
+     * 读取文件中的一段，先检查是否越界
+     */
+    private ByteBuffer read(long offset, long size) throws IOException {
+        if (offset < 0 || size < 0 || offset > length - size) {
+            throw new IOException("ELF区间越界: " + offset + "+" + size);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("ELF区间超过2GB: " + size);
+        }
+        return region.read(offset, size).order(order);
+    }
+
+    boolean is64() {
+        return is64;
+    }
+
+    int machine() {
+        return machine;
+    }
+
+    ByteOrder order() {
+        return order;
+    }
+
+    /**
+     * 返回节区内容，压缩过的调试节会先解压，不存在或不是符号化需要的节时返回null
+     */
+    ByteBuffer section(String name) throws IOException {
+        Section section = sections.get(name);
+        if (section == null || section.type == SHT_NOBITS || !isNeeded(section)) {
+            return null;
+        }
+        ByteBuffer data = section.data().duplicate().order(order);
+        if ((section.flags & SHF_COMPRESSED) != 0) {
+            data = decompress(data);
+        }
+        return data.order(order);
+    }
+
+    boolean hasSection(String name) {
+        return sections.containsKey(name);
+    }
+
+    /**
+     * 读取GNU build-id（十六进制小写），优先用.note.gnu.build-id节，没有节区头时再看PT_NOTE段
+     */
+    String buildId() {
+        Section section = sections.get(".note.gnu.build-id");
+        if (section != null && section.data != null) {
+            String id = findBuildIdNote(section.data.duplicate().order(order));
+            if (id != null) {
+                return id;
+            }
+        }
+        for (ByteBuffer note : notes) {
+            String id = findBuildIdNote(note);
+            if (id != null) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 读入PT_NOTE段，超出文件（或开头片段）范围的段跳过
+     */
+    private void readNotes(ByteBuffer header) throws IOException {
+        long phoff = is64 ? header.getLong(0x20) : header.getInt(0x1C) & 0xffffffffL;
+        int phentsize = header.getShort(is64 ? 0x36 : 0x2A) & 0xffff;
+        int phnum = header.getShort(is64 ? 0x38 : 0x2C) & 0xffff;
+        if (phoff == 0 || phnum == 0 || phentsize < (is64 ? 0x38 : 0x20)) {
+            return;
+        }
+        long tableSize = (long) phentsize * phnum;
+        if (phoff < 0 || phoff > length - tableSize) {
+            return;
+        }
+        ByteBuffer table = read(phoff, tableSize);
+        for (int i = 0; i < phnum; i++) {
+            int pos = i * phentsize;
+            if (table.getInt(pos) != PT_NOTE) {
+                continue;
+            }
+            long offset = is64 ? table.getLong(pos + 8) : table.getInt(pos + 4) & 0xffffffffL;
+            long size = is64 ? table.getLong(pos + 32) : table.getInt(pos + 16) & 0xffffffffL;
+            size = Math.min(size, NOTE_LIMIT);
+            if (offset >= 0 && size >= 0 && offset <= length - size) {
+                notes.add(read(offset, size));
+            }
+        }
+    }
+
+    private String findBuildIdNote(ByteBuffer data) {
+        int end = data.limit();
+        int pos = 0;
+        while (pos + 12 <= end) {
+            int nameSize = data.getInt(pos);
+            int descSize = data.getInt(pos + 4);
+            int type = data.getInt(pos + 8);
+            long name = pos + 12L;
+            long desc = name + ((nameSize + 3L) & ~3L);
+            if (nameSize < 0 || descSize < 0 || desc + descSize > end) {
+                return null;
+            }
+            if (type == NT_GNU_BUILD_ID && nameSize == 4 && data.getInt((int) name) == gnuNoteName()) {
+                StringBuilder hex = new StringBuilder(descSize * 2);
+                for (int i = 0; i < descSize; i++) {
+                    int b = data.get((int) desc + i) & 0xff;
+                    hex.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                return hex.toString();
+            }
+            pos = (int) (desc + ((descSize + 3L) & ~3L));
+        }
+        return null;
+    }
+
+    private int gnuNoteName() {
+        // "GNU\0"按文件字节序读出的整数
+        return order == ByteOrder.LITTLE_ENDIAN ? 0x00554e47 : 0x474e5500;
+    }
+
+    private void readSections(ByteBuffer header, boolean mapSections) throws IOException {
+        long shoff;
+        int shentsize;
+        int shnum;
+        int shstrndx;
+        if (is64) {
+            shoff = header.getLong(0x28);
+            shentsize = header.getShort(0x3A) & 0xffff;
+            shnum = header.getShort(0x3C) & 0xffff;
+            shstrndx = header.getShort(0x3E) & 0xffff;
+        } else {
+            shoff = header.getInt(0x20) & 0xffffffffL;
+            shentsize = header.getShort(0x2E) & 0xffff;
+            shnum = header.getShort(0x30) & 0xffff;
+            shstrndx = header.getShort(0x32) & 0xffff;
+        }
+        if (shoff == 0 || shnum == 0) {
+            return;
+        }
+        if (shentsize < (is64 ? 0x40 : 0x28)) {
+            throw new IOException("ELF节区头大小错误: " + shentsize);
+        }
+        ByteBuffer table;
+        try {
+            table = read(shoff, (long) shentsize * shnum);
+        } catch (IOException e) {
+            throw new IOException("ELF节区头越界", e);
+        }
+        List<Section> headers = new ArrayList<>(shnum);
+        for (int i = 0; i < shnum; i++) {
+            Section section = readSectionHeader(table, i * shentsize);
+            if (section.type != SHT_NOBITS
+                    && (section.offset < 0 || section.size < 0 || section.offset > length - section.size)) {
+                throw new IOException("ELF节区越界: 第" + i + "节");
+            }
+            headers.add(section);
+        }
+        if (shstrndx >= headers.size()) {
+            return;
+        }
+        sectionHeaders = headers;
+        ByteBuffer names = read(headers.get(shstrndx).offset, headers.get(shstrndx).size);
+        for (Section section : headers) {
+            section.name = readString(names, section.nameIndex);
+            sections.putIfAbsent(section.name, section);
+        }
+        // 符号表引用的字符串表也要映射
+        for (Section section : headers) {
+            if (section.type == SHT_SYMTAB || section.type == SHT_DYNSYM) {
+                Section strtab = sectionByIndex(section.link);
+                if (strtab != null) {
+                    strtab.needed = true;
+                }
+            }
+        }
+        if (!mapSections) {
+            return;
+        }
+        for (Section section : headers) {
+            if (section.type != SHT_NOBITS && isNeeded(section)) {
+                try {
+                    section.data = read(section.offset, section.size);
+                } catch (IOException e) {
+                    // 超过2GB的节在用到时才报错，其他节照常使用
+                    section.error = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 符号化只用到符号表、字符串表、调试节和build-id
+     */
+    private static boolean isNeeded(Section section) {
+        return section.needed
+                || section.type == SHT_SYMTAB || section.type == SHT_DYNSYM
+                || section.name.startsWith(".debug_")
+                || section.name.equals(".note.gnu.build-id");
+    }
+
+    private Section readSectionHeader(ByteBuffer table, int pos) {
+        Section section = new Section();
+        section.nameIndex = table.getInt(pos) & 0xffffffffL;
+        section.type = table.getInt(pos + 4);
+        if (is64) {
+            section.flags = table.getLong(pos + 8);
+            section.offset = table.getLong(pos + 0x18);
+            section.size = table.getLong(pos + 0x20);
+            section.link = table.getInt(pos + 0x28);
+        } else {
+            section.flags = table.getInt(pos + 8) & 0xffffffffL;
+            section.offset = table.getInt(pos + 0x10) & 0xffffffffL;
+            section.size = table.getInt(pos + 0x14) & 0xffffffffL;
+            section.link = table.getInt(pos + 0x18);
+        }
+        return section;
+    }
+
+    /**
+     * 扫描.symtab和.dynsym中的函数符号，建立地址索引
+     * 名字记为"字符串表的节号<<32 | 表内偏移"，查询时由symbolName解码
+     */
+    SymbolIndex buildSymbolIndex() throws IOException {
+        int capacity = 0;
+        int entsize = is64 ? 24 : 16;
+        for (Section section : sectionHeaders) {
+            if (section.type == SHT_SYMTAB || section.type == SHT_DYNSYM) {
+                capacity += (int) (section.size / entsize);
+            }
+        }
+        long[] starts = new long[capacity];
+        int[] sizes = new int[capacity];
+        long[] names = new long[capacity];
+        int count = 0;
+        for (int index = 0; index < sectionHeaders.size(); index++) {
+            Section section = sectionHeaders.get(index);
+            if (section.type != SHT_SYMTAB && section.type != SHT_DYNSYM) {
+                continue;
+            }
+            Section strtab = sectionByIndex(section.link);
+            if (strtab == null || strtab.type == SHT_NOBITS) {
+                continue;
+            }
+            if (strtab.data() == null) {
+                continue;
+            }
+            ByteBuffer data = section.data();
+            int symbols = data.limit() / entsize;
+            for (int i = 0; i < symbols; i++) {
+                int pos = i * entsize;
+                long nameIndex = data.getInt(pos) & 0xffffffffL;
+                int info;
+                long value;
+                long size;
+                if (is64) {
+                    info = data.get(pos + 4) & 0xff;
+                    value = data.getLong(pos + 8);
+                    size = data.getLong(pos + 16);
+                } else {
+                    value = data.getInt(pos + 4) & 0xffffffffL;
+                    size = data.getInt(pos + 8) & 0xffffffffL;
+                    info = data.get(pos + 12) & 0xff;
+                }
+                int type = info & 0xf;
+                if ((type != STT_FUNC && type != STT_GNU_IFUNC) || value == 0 || nameIndex >= strtab.size) {
+                    continue;
+                }
+                if (machine == EM_ARM) {
+                    // Thumb函数的最低位是模式标记
+                    value &= ~1L;
+                }
+                starts[count] = value;
+                sizes[count] = (int) Math.min(size, Integer.MAX_VALUE);
+                names[count] = ((long) section.link << 32) | nameIndex;
+                count++;
+            }
+        }
+        return new SymbolIndex(this, starts, sizes, names, count);
+    }
+
+    /**
+     * 按buildSymbolIndex记下的引用读取符号名
+     */
+    String symbolName(long reference) {
+        Section strtab = sectionByIndex((int) (reference >>> 32));
+        if (strtab == null || strtab.data == null) {
+            return "";
+        }
+        return readString(strtab.data, reference & 0xffffffffL);
+    }
+
+    private Section sectionByIndex(int index) {
+        if (index <= 0 || index >= sectionHeaders.size()) {
+            return null;
+        }
+        return sectionHeaders.get(index);
+    }
+
+    /**
+     * 读取以0结尾的字符串，遇到表尾时截止
+     */
+    private static String readString(ByteBuffer table, long offset) {
+        if (offset < 0 || offset >= table.limit()) {
+            return "";
+        }
+        int start = (int) offset;
+        int end = start;
+        while (end < table.limit() && table.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = table.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer decompress(ByteBuffer data) throws IOException {
+        data.order(order);
+        int headerSize = is64 ? 24 : 12;
+        if (data.limit() < headerSize) {
+            throw new IOException("压缩调试节头不完整");
+        }
+        int type = data.getInt(0);
+        if (type != 1) {
+            throw new IOException("不支持的调试节压缩格式: " + type);
+        }
+        long size = is64 ? data.getLong(8) : data.getInt(4) & 0xffffffffL;
+        if (size < 0 || size > Integer.MAX_VALUE - 8) {
+            throw new IOException("压缩调试节过大: " + size);
+        }
+        byte[] input = new byte[data.limit() - headerSize];
+        data.position(headerSize);
+        data.get(input);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) size);
+            byte[] chunk = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                out.write(chunk, 0, n);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        } catch (DataFormatException e) {
+            throw new IOException("调试节解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 按文件偏移读取一段内容：普通文件读入或映射对应区间，压缩包中的条目和文件开头的片段直接切片
+     */
+    private interface Region {
+        ByteBuffer read(long offset, long size) throws IOException;
+    }
+
+    private static final class Section {
+        String name;
+        long nameIndex;
+        int type;
+        long flags;
+        long offset;
+        long size;
+        int link;
+        // 被符号表引用的字符串表
+        boolean needed;
+        ByteBuffer data;
+        IOException error;
+
+        ByteBuffer data() throws IOException {
+            if (error != null) {
+                throw new IOException("无法读取节" + name + ": " + error.getMessage(), error);
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 纯Java的符号化实现，直接读取SO中的DWARF和符号表，不依赖NDK中的工具
+ * 输出格式与addr2line -p一致，内联函数以" (inlined by) "连接
+ */
+public final class ElfSymbolizer {
+    // 同时保持映射的SO数量
+    private static final int MAX_MODULES = 16;
+
+    private static final Map<String, Module> MODULES = new LinkedHashMap<String, Module>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Module> eldest) {
+            return size() > MAX_MODULES;
+        }
+    };
+
+    // 是否只有符号表的判断结果，外部工具后端每一帧都要查，只读节区头并按文件记住
+    private static final int MAX_DEBUG_INFO_ENTRIES = 256;
+    private static final Map<String, Boolean> DEBUG_INFO = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_DEBUG_INFO_ENTRIES;
+        }
+    };
+
+    private ElfSymbolizer() {
+    }
+
+    public static String symbolize(File soFile, long address) throws IOException {
+        Module module = moduleFor(soFile);
+        if (module.dwarf != null) {
+            List<DwarfInfo.Frame> frames;
+            try {
+                frames = module.dwarf.lookup(address);
+            } catch (RuntimeException e) {
+                // 调试信息按需解析，损坏的编译单元在查询时才暴露
+                throw new IOException("调试信息损坏: " + soFile.getName(), e);
+            }
+            if (!frames.isEmpty()) {
+                StringBuilder output = new StringBuilder();
+                for (int i = 0; i < frames.size(); i++) {
+                    DwarfInfo.Frame frame = frames.get(i);
+                    if (i > 0) {
+                        output.append(" (inlined by) ");
+                    }
+                    String function = frame.function;
+                    if (function == null) {
+                        SymbolIndex symbols = module.symbols();
+                        int index = symbols.find(address);
+                        function = index >= 0 ? Demangler.demangle(symbols.name(index)) : "??";
+                    }
+                    output.append(function).append(" at ")
+                            .append(frame.file).append(':').append(frame.line).append(':').append(frame.column);
+                }
+                return output.toString();
+            }
+        }
+        return symbolizeFunction(module, address);
+    }
+
+    /**
+     * 只通过符号表解析到"函数名+偏移"
+     */
+    public static String symbolizeFunction(File soFile, long address) throws IOException {
+        return symbolizeFunction(moduleFor(soFile), address);
+    }
+
+    /**
+     * 是ELF文件但不含DWARF调试信息，外部工具对这种SO也只能给出函数级结果
+     * 只读取节区头，不映射SO，结果按文件缓存
+     */
+    public static boolean isSymbolTableOnly(File soFile) {
+        String key = ArchiveLibrary.identity(soFile);
+        synchronized (DEBUG_INFO) {
+            Boolean cached = DEBUG_INFO.get(key);
+            if (cached != null) {
+                return !cached;
+            }
+        }
+        boolean hasDebugInfo;
+        try {
+            hasDebugInfo = ElfFile.hasDebugInfo(soFile);
+        } catch (IOException e) {
+            // 不是ELF或者读不了，交给外部工具报告错误
+            hasDebugInfo = true;
+        }
+        synchronized (DEBUG_INFO) {
+            DEBUG_INFO.put(key, hasDebugInfo);
+        }
+        return !hasDebugInfo;
+    }
+
+    private static String symbolizeFunction(Module module, long address) throws IOException {
+        SymbolIndex symbols = module.symbols();
+        int index = symbols.find(address);
+        if (index < 0) {
+            return "?? at ??:0:0";
+        }
+        return Demangler.demangle(symbols.name(index)) + "+0x" + Long.toHexString(address - symbols.start(index)) + " at ??:0:0";
+    }
+
+    private static Module moduleFor(File soFile) throws IOException {
+        String key = ArchiveLibrary.identity(soFile);
+        synchronized (MODULES) {
+            Module module = MODULES.get(key);
+            if (module == null) {
+                ElfFile elf = ElfFile.open(soFile);
+                try {
+                    module = new Module(elf, DwarfInfo.load(elf));
+                } catch (RuntimeException e) {
+                    throw new IOException("调试信息损坏: " + soFile.getName(), e);
+                }
+                MODULES.put(key, module);
+            }
+            return module;
+        }
+    }
+
+    private static final class Module {
+        final ElfFile elf;
+        final DwarfInfo dwarf;
+
+        private SymbolIndex symbols;
+
+        Module(ElfFile elf, DwarfInfo dwarf) {
+            this.elf = elf;
+            this.dwarf = dwarf;
+        }
+
+        // 符号索引在第一次查询时才建立
+        synchronized SymbolIndex symbols() throws IOException {
+            if (symbols == null) {
+                symbols = elf.buildSymbolIndex();
+            }
+            return symbols;
+        }
+    }
+}
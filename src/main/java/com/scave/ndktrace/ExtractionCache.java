@@ -0,0 +1,157 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 从压缩包中解出的SO的磁盘缓存，所有压缩包格式和多次运行共用，总大小有上限，超出时按最近使用时间淘汰
+ * 文件名由压缩包路径、大小、修改时间和条目名计算，压缩包更新后自然失效
+ * 每次交给调用方时都刷新修改时间，修改时间在IN_USE_MS之内的文件可能正被映射或被外部工具读取，
+ * 淘汰时跳过（映射更久的文件在Windows上删不掉会被跳过，其他平台删除后已有的映射仍然有效）；
+ * 不同条目的解压互不等待，同一条目只解压一次
+ */
+final class ExtractionCache {
+    private static final String CACHE_DIR = "extracted";
+    private static final long MAX_BYTES = 512L * 1024 * 1024;
+    // 远大于外部工具单次调用的期限
+    private static final long IN_USE_MS = 10 * 60_000L;
+
+    // 每个缓存文件名一个锁对象
+    private static final Map<String, Object> ENTRY_LOCKS = new ConcurrentHashMap<>();
+    // 保护totalBytes和淘汰
+    private static final Object SIZE_LOCK = new Object();
+    private static long totalBytes = -1;
+
+    private ExtractionCache() {
+    }
+
+    /**
+     * 打开压缩包中一个条目的解压数据
+     */
+    interface Opener {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * 返回条目解压后的文件，已解压过时只更新使用时间
+     */
+    static File extract(File archive, String entryName, long size, Opener opener) throws IOException {
+        File dir = AppDirs.dataFile(CACHE_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        File target = new File(dir, digest(archive.getPath() + "|" + archive.length() + "|"
+                + archive.lastModified() + "|" + entryName) + "-" + entryName.substring(entryName.lastIndexOf('/') + 1));
+        if (touchIfPresent(target, size)) {
+            return target;
+        }
+        synchronized (ENTRY_LOCKS.computeIfAbsent(target.getName(), k -> new Object())) {
+            // 等锁期间可能已由其他线程解出
+            if (touchIfPresent(target, size)) {
+                return target;
+            }
+            synchronized (SIZE_LOCK) {
+                ensureTotal(dir);
+            }
+            // 临时文件名各不相同，其他进程同时解压同一条目也不会写到同一个文件
+            File temp = Files.createTempFile(dir.toPath(), target.getName() + ".", ".tmp").toFile();
+            try {
+                try (InputStream in = opener.open()) {
+                    Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                if (temp.length() != size) {
+                    throw new IOException("解压结果大小不符: " + entryName);
+                }
+                DataFileLock.replace(temp, target);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+        synchronized (SIZE_LOCK) {
+            totalBytes += size;
+            if (totalBytes > MAX_BYTES) {
+                evict(dir);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 文件已完整解出时刷新修改时间，表示正在使用
+     */
+    private static boolean touchIfPresent(File target, long size) {
+        if (target.isFile() && target.length() == size) {
+            target.setLastModified(System.currentTimeMillis());
+            return true;
+        }
+        return false;
+    }
+
+    private static void ensureTotal(File dir) {
+        if (totalBytes >= 0) {
+            return;
+        }
+        totalBytes = 0;
+        long cutoff = System.currentTimeMillis() - IN_USE_MS;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    // 上次解压中断留下的文件，较新的可能是其他进程正在写入的
+                    if (file.lastModified() < cutoff) {
+                        file.delete();
+                    }
+                } else {
+                    totalBytes += file.length();
+                }
+            }
+        }
+    }
+
+    /**
+     * 从最久未使用的文件开始删除，直到总大小降到上限以下；最近交出去的文件可能仍在使用，不删除
+     */
+    private static void evict(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - IN_USE_MS;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (totalBytes <= MAX_BYTES || file.lastModified() >= cutoff) {
+                break;
+            }
+            if (file.getName().endsWith(".tmp")) {
+                continue;
+            }
+            long size = file.length();
+            if (file.delete()) {
+                totalBytes -= size;
+            }
+        }
+    }
+
+    static String digest(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(16);
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
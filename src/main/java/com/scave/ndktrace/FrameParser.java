@@ -0,0 +1,320 @@
+package com.scave.ndktrace;
+
+/**
+ * 手写的堆栈帧扫描器，识别以下几种格式：
+ * 墓碑/logcat DEBUG:  #00 pc 0005a6c8  /system/lib/libc.so (abort+63) (BuildId: 1a2b...)
+ * ASan:               #1 0x7f12345678 in foo() (/data/libfoo.so+0x1234) (BuildId: 1a2b...)
+ * Breakpad:           3  libfoo.so + 0x1234
+ * Crashlytics导出:    3  libfoo.so  0x1234  foo()
+ * 只在匹配成功时才创建字符串，不匹配的行不分配任何对象
+ */
+final class FrameParser {
+    enum Format {
+        TOMBSTONE, ASAN, BREAKPAD, CRASHLYTICS
+    }
+
+    /**
+     * 解析结果，调用方可以反复复用同一个实例
+     */
+    static final class Frame {
+        Format format;
+        int index;
+        // 模块内的相对地址，十六进制，不带0x
+        String pc;
+        String module;
+        // APK中未解压SO的偏移，"(offset 0x...)"，没有时为-1
+        long moduleOffset;
+        String function;
+        String buildId;
+
+        void reset() {
+            format = null;
+            index = -1;
+            pc = null;
+            module = null;
+            moduleOffset = -1;
+            function = null;
+            buildId = null;
+        }
+    }
+
+    private FrameParser() {
+    }
+
+    static boolean parse(CharSequence line, Frame out) {
+        int length = line.length();
+        // logcat等格式在帧前面有前缀，从每个"#数字"处尝试
+        for (int hash = indexOf(line, '#', 0); hash >= 0; hash = indexOf(line, '#', hash + 1)) {
+            int digitsEnd = digitsEnd(line, hash + 1);
+            if (digitsEnd == hash + 1 || digitsEnd >= length || !isSpace(line.charAt(digitsEnd))) {
+                continue;
+            }
+            int next = skipSpaces(line, digitsEnd);
+            if (parseTombstone(line, hash + 1, digitsEnd, next, out) || parseAsan(line, hash + 1, digitsEnd, next, out)) {
+                return true;
+            }
+        }
+        int start = skipSpaces(line, 0);
+        int digitsEnd = digitsEnd(line, start);
+        if (digitsEnd > start && digitsEnd < length && isSpace(line.charAt(digitsEnd))) {
+            return parseModuleOffset(line, start, digitsEnd, skipSpaces(line, digitsEnd), out);
+        }
+        return false;
+    }
+
+    /**
+     * #NN pc 地址 模块 [(函数+偏移)] [(offset 0x...)] [(BuildId: ...)]
+     */
+    private static boolean parseTombstone(CharSequence line, int indexStart, int indexEnd, int pos, Frame out) {
+        int length = line.length();
+        if (pos + 2 >= length || line.charAt(pos) != 'p' || line.charAt(pos + 1) != 'c' || !isSpace(line.charAt(pos + 2))) {
+            return false;
+        }
+        int pcStart = skipHexPrefix(line, skipSpaces(line, pos + 2));
+        int pcEnd = hexEnd(line, pcStart);
+        if (pcEnd == pcStart || pcEnd >= length || !isSpace(line.charAt(pcEnd))) {
+            return false;
+        }
+        int moduleStart = skipSpaces(line, pcEnd);
+        int moduleEnd = tokenEnd(line, moduleStart);
+        if (moduleEnd == moduleStart) {
+            return false;
+        }
+        out.reset();
+        out.format = Format.TOMBSTONE;
+        out.index = parseIndex(line, indexStart, indexEnd);
+        out.pc = line.subSequence(pcStart, pcEnd).toString();
+        out.module = line.subSequence(moduleStart, moduleEnd).toString();
+        parseGroups(line, moduleEnd, out, false);
+        return true;
+    }
+
+    /**
+     * #N 0x绝对地址 [in 函数] (模块+0x偏移) [(BuildId: ...)]
+     */
+    private static boolean parseAsan(CharSequence line, int indexStart, int indexEnd, int pos, Frame out) {
+        int length = line.length();
+        if (pos + 2 >= length || line.charAt(pos) != '0' || (line.charAt(pos + 1) != 'x' && line.charAt(pos + 1) != 'X')) {
+            return false;
+        }
+        int addressEnd = hexEnd(line, pos + 2);
+        if (addressEnd == pos + 2) {
+            return false;
+        }
+        // 在各个括号中找"模块+0x偏移"
+        int open = indexOf(line, '(', addressEnd);
+        while (open >= 0) {
+            int close = matchingParen(line, open);
+            if (close < 0) {
+                return false;
+            }
+            int plus = lastIndexOf(line, '+', open + 1, close);
+            if (plus > open + 1 && plus + 2 < close && line.charAt(plus + 1) == '0'
+                    && (line.charAt(plus + 2) == 'x' || line.charAt(plus + 2) == 'X')
+                    && hexEnd(line, plus + 3) == close && close > plus + 3) {
+                out.reset();
+                out.format = Format.ASAN;
+                out.index = parseIndex(line, indexStart, indexEnd);
+                out.pc = line.subSequence(plus + 3, close).toString();
+                out.module = line.subSequence(open + 1, plus).toString();
+                int in = skipSpaces(line, addressEnd);
+                if (in + 3 < open && line.charAt(in) == 'i' && line.charAt(in + 1) == 'n' && isSpace(line.charAt(in + 2))) {
+                    out.function = trim(line, in + 3, open);
+                }
+                parseGroups(line, close + 1, out, true);
+                return true;
+            }
+            open = indexOf(line, '(', close + 1);
+        }
+        return false;
+    }
+
+    /**
+     * Breakpad: N  模块 + 0x偏移
+     * Crashlytics: N  模块  0x偏移  [函数]
+     */
+    private static boolean parseModuleOffset(CharSequence line, int indexStart, int indexEnd, int pos, Frame out) {
+        int length = line.length();
+        int moduleEnd = tokenEnd(line, pos);
+        if (moduleEnd == pos || moduleEnd >= length || indexOf(line, '!', pos, moduleEnd) >= 0) {
+            return false;
+        }
+        int next = skipSpaces(line, moduleEnd);
+        Format format = Format.CRASHLYTICS;
+        if (next < length && line.charAt(next) == '+') {
+            format = Format.BREAKPAD;
+            next = skipSpaces(line, next + 1);
+        }
+        if (next + 2 >= length || line.charAt(next) != '0' || (line.charAt(next + 1) != 'x' && line.charAt(next + 1) != 'X')) {
+            return false;
+        }
+        int offsetEnd = hexEnd(line, next + 2);
+        if (offsetEnd == next + 2 || (offsetEnd < length && !isSpace(line.charAt(offsetEnd)))) {
+            return false;
+        }
+        if (format == Format.CRASHLYTICS && !looksLikeLibrary(line, pos, moduleEnd)) {
+            return false;
+        }
+        out.reset();
+        out.format = format;
+        out.index = parseIndex(line, indexStart, indexEnd);
+        out.pc = line.subSequence(next + 2, offsetEnd).toString();
+        out.module = line.subSequence(pos, moduleEnd).toString();
+        int functionStart = skipSpaces(line, offsetEnd);
+        if (functionStart < length) {
+            out.function = trim(line, functionStart, length);
+        }
+        return true;
+    }
+
+    /**
+     * 解析模块之后的括号组：BuildId、APK偏移和函数名提示
+     */
+    private static void parseGroups(CharSequence line, int from, Frame out, boolean hasFunction) {
+        int open = indexOf(line, '(', from);
+        while (open >= 0) {
+            int close = matchingParen(line, open);
+            if (close < 0) {
+                return;
+            }
+            if (startsWith(line, open + 1, "BuildId:")) {
+                out.buildId = trim(line, open + 1 + "BuildId:".length(), close);
+            } else if (startsWith(line, open + 1, "offset 0x")) {
+                int start = open + 1 + "offset 0x".length();
+                int end = hexEnd(line, start);
+                if (end > start && end - start <= 16) {
+                    out.moduleOffset = parseHex(line, start, end);
+                }
+            } else if (!hasFunction && out.function == null && close > open + 1) {
+                out.function = line.subSequence(open + 1, close).toString();
+            }
+            open = indexOf(line, '(', close + 1);
+        }
+    }
+
+    private static boolean looksLikeLibrary(CharSequence line, int start, int end) {
+        for (int i = start; i + 2 < end; i++) {
+            if (line.charAt(i) == '.' && line.charAt(i + 1) == 's' && line.charAt(i + 2) == 'o') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int parseIndex(CharSequence line, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end && i < start + 9; i++) {
+            value = value * 10 + (line.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static long parseHex(CharSequence line, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = (value << 4) | Character.digit(line.charAt(i), 16);
+        }
+        return value;
+    }
+
+    private static int matchingParen(CharSequence line, int open) {
+        int depth = 0;
+        for (int i = open; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence line, int pos, String prefix) {
+        if (pos + prefix.length() > line.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String trim(CharSequence line, int start, int end) {
+        while (start < end && isSpace(line.charAt(start))) {
+            start++;
+        }
+        while (end > start && isSpace(line.charAt(end - 1))) {
+            end--;
+        }
+        return line.subSequence(start, end).toString();
+    }
+
+    private static int skipHexPrefix(CharSequence line, int pos) {
+        if (pos + 1 < line.length() && line.charAt(pos) == '0' && (line.charAt(pos + 1) == 'x' || line.charAt(pos + 1) == 'X')) {
+            return pos + 2;
+        }
+        return pos;
+    }
+
+    private static int skipSpaces(CharSequence line, int pos) {
+        while (pos < line.length() && isSpace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int tokenEnd(CharSequence line, int pos) {
+        while (pos < line.length() && !isSpace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int digitsEnd(CharSequence line, int pos) {
+        while (pos < line.length() && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int hexEnd(CharSequence line, int pos) {
+        while (pos < line.length() && isHex(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int indexOf(CharSequence line, char c, int from) {
+        return indexOf(line, c, from, line.length());
+    }
+
+    private static int indexOf(CharSequence line, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (line.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(CharSequence line, char c, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (line.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    // 按"\n"切分的CRLF文本行尾会留下'\r'
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+}
@@ -0,0 +1,142 @@
+package com.scave.ndktrace;
+
+import javax.swing.table.AbstractTableModel;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 解析结果表格的数据，每帧一行
+ * JTable只为可见的行取值，追加时只通知新增的区间，几十万帧时滚动和追加的开销也不随行数增长
+ */
+final class FrameTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    static final int COLUMN_INDEX = 0;
+    static final int COLUMN_ADDRESS = 1;
+    static final int COLUMN_MODULE = 2;
+    static final int COLUMN_FUNCTION = 3;
+    static final int COLUMN_LOCATION = 4;
+
+    private static final String[] COLUMNS = {"序号", "地址", "模块", "函数", "文件:行"};
+    private static final String INLINED = " (inlined by) ";
+
+    private List<StackFrame> frames = new ArrayList<>();
+
+    @Override
+    public int getRowCount() {
+        return frames.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == COLUMN_INDEX ? Integer.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        StackFrame frame = frames.get(row);
+        switch (column) {
+            case COLUMN_INDEX:
+                return frame.index;
+            case COLUMN_ADDRESS:
+                return frame.address;
+            case COLUMN_MODULE:
+                return new File(frame.libPath).getName();
+            case COLUMN_FUNCTION:
+                return function(frame.result);
+            case COLUMN_LOCATION:
+                return location(frame.result);
+            default:
+                return null;
+        }
+    }
+
+    StackFrame frameAt(int row) {
+        return frames.get(row);
+    }
+
+    /**
+     * 在末尾追加一批已经解析完成的帧
+     */
+    void append(List<StackFrame> chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        int first = frames.size();
+        frames.addAll(chunk);
+        fireTableRowsInserted(first, frames.size() - 1);
+    }
+
+    /**
+     * 替换为完整结果，未完成的帧和null不显示
+     */
+    void setFrames(List<StackFrame> all) {
+        List<StackFrame> resolved = new ArrayList<>(all.size());
+        for (StackFrame frame : all) {
+            if (frame != null && frame.result != null) {
+                resolved.add(frame);
+            }
+        }
+        frames = resolved;
+        fireTableDataChanged();
+    }
+
+    /**
+     * 用新解析的帧替换从first开始的removed行，只通知变化的区间
+     */
+    void replace(int first, int removed, List<StackFrame> inserted) {
+        List<StackFrame> resolved = new ArrayList<>(inserted.size());
+        for (StackFrame frame : inserted) {
+            if (frame != null && frame.result != null) {
+                resolved.add(frame);
+            }
+        }
+        if (removed > 0) {
+            frames.subList(first, first + removed).clear();
+            fireTableRowsDeleted(first, first + removed - 1);
+        }
+        if (!resolved.isEmpty()) {
+            frames.addAll(first, resolved);
+            fireTableRowsInserted(first, first + resolved.size() - 1);
+        }
+    }
+
+    void clear() {
+        frames = new ArrayList<>();
+        fireTableDataChanged();
+    }
+
+    /**
+     * 结果中最内层的函数名，"函数 at 文件:行:列"格式以外的结果整体返回
+     */
+    static String function(String result) {
+        String innermost = innermost(result);
+        int at = innermost.lastIndexOf(" at ");
+        return at >= 0 ? innermost.substring(0, at) : innermost;
+    }
+
+    static String location(String result) {
+        String innermost = innermost(result);
+        int at = innermost.lastIndexOf(" at ");
+        return at >= 0 ? innermost.substring(at + 4) : "";
+    }
+
+    private static String innermost(String result) {
+        if (result == null) {
+            return "";
+        }
+        int inlined = result.indexOf(INLINED);
+        return inlined >= 0 ? result.substring(0, inlined) : result;
+    }
+}
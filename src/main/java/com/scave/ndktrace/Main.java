@@ -1,14 +1,30 @@
 package com.scave.ndktrace;
 
 import javax.swing.*;
+import java.awt.*;
 
 public class Main {
     public static void main(String[] args) {
+        // 带参数启动时进入命令行批量模式，不创建任何窗口
+        if (args.length > 0) {
+            System.exit(Cli.run(args));
+        }
+        StartupTrace.mark("main");
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) {
             e.printStackTrace();
         }
-        SwingUtilities.invokeLater(() -> new NDKTracePanel().setVisible(true));
+        StartupTrace.mark("lookAndFeel");
+        if (StartupTrace.TRAINING && GraphicsEnvironment.isHeadless()) {
+            StartupTrace.trainHeadless();
+            return;
+        }
+        // 窗口先显示，NDK扫描和索引读取在首次绘制后进行，见NDKTracePanel.startBackgroundInit
+        SwingUtilities.invokeLater(() -> {
+            NDKTracePanel panel = new NDKTracePanel();
+            StartupTrace.mark("frame");
+            panel.setVisible(true);
+        });
     }
 }
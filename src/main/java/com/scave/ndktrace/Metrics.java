@@ -0,0 +1,498 @@
+package com.scave.ndktrace;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 符号化流程各阶段的耗时、进程启动次数和退出码、工具输出量
+ * 默认关闭，关闭时埋点只读一次volatile字段；用-Dndktrace.metrics=true或setEnabled(true)打开，
+ * 打开后注册到JMX（com.scave.ndktrace域），-Dndktrace.metrics.interval=秒 可定期把摘要打印到标准错误
+ */
+public final class Metrics {
+    /**
+     * 埋点阶段，label同时用作JMX中的name
+     */
+    public enum Stage {
+        PARSE("parse"),             // 逐行扫描堆栈文本（不含查找SO）
+        LOOKUP("lookup"),           // 按库名/build-id查找SO
+        CACHE("cache"),             // 查询结果缓存
+        BUILTIN("builtin"),         // 内置ELF/DWARF解析一帧
+        SYMBOL_TABLE("symtab"),     // 只查符号表一帧
+        DEMANGLE("demangle"),       // 还原一个不在缓存中的C++符号名
+        SYMBOLIZER("symbolizer"),   // llvm-symbolizer进程池查询一帧
+        ADDR2LINE("addr2line"),     // 一次addr2line调用（含启动进程）
+        PROCESS_WAIT("procWait"),   // 等待外部进程配额
+        SPAWN("spawn"),             // 启动外部进程
+        TOOL_SEARCH("toolSearch"),  // 取得NDK工具链（已解析过时只检查修改时间）
+        NDK_SCAN("ndkScan");        // 扫描本机安装的NDK
+
+        final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final String DOMAIN = "com.scave.ndktrace";
+    private static final Histogram[] HISTOGRAMS = new Histogram[Stage.values().length];
+    private static final LongAdder PROCESSES_SPAWNED = new LongAdder();
+    private static final LongAdder TOOL_OUTPUT_BYTES = new LongAdder();
+    private static final LongAdder SPAWN_FAILURES = new LongAdder();
+    private static final LongAdder PROCESS_TIMEOUTS = new LongAdder();
+    private static final Map<Integer, LongAdder> EXIT_CODES = new ConcurrentHashMap<>();
+
+    private static volatile boolean enabled;
+    private static boolean registered;
+    private static ScheduledExecutorService reporter;
+
+    static {
+        for (Stage stage : Stage.values()) {
+            HISTOGRAMS[stage.ordinal()] = new Histogram();
+        }
+        if (Boolean.getBoolean("ndktrace.metrics")) {
+            setEnabled(true);
+            long interval = Long.getLong("ndktrace.metrics.interval", 0);
+            if (interval > 0) {
+                startReporter(interval, System.err);
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 第一次打开时注册JMX MBean
+     */
+    public static synchronized void setEnabled(boolean value) {
+        enabled = value;
+        if (value && !registered) {
+            registered = true;
+            register();
+        }
+    }
+
+    /**
+     * 开始计时，关闭时返回0，stop()遇到0直接返回
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void stop(Stage stage, long start) {
+        if (start != 0) {
+            HISTOGRAMS[stage.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    static void record(Stage stage, long nanos) {
+        if (enabled) {
+            HISTOGRAMS[stage.ordinal()].record(nanos);
+        }
+    }
+
+    static void processSpawned() {
+        if (enabled) {
+            PROCESSES_SPAWNED.increment();
+        }
+    }
+
+    static void spawnFailed() {
+        if (enabled) {
+            SPAWN_FAILURES.increment();
+        }
+    }
+
+    /**
+     * 等待配额、等待结束或单次请求超时，进程被结束
+     */
+    static void processTimedOut() {
+        if (enabled) {
+            PROCESS_TIMEOUTS.increment();
+        }
+    }
+
+    static void processExited(int exitCode) {
+        if (enabled) {
+            EXIT_CODES.computeIfAbsent(exitCode, k -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * 工具输出按解码后的字符数累计，工具输出基本是ASCII，与字节数一致
+     */
+    static void toolOutput(long bytes) {
+        if (enabled) {
+            TOOL_OUTPUT_BYTES.add(bytes);
+        }
+    }
+
+    public static synchronized void reset() {
+        for (Histogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        PROCESSES_SPAWNED.reset();
+        TOOL_OUTPUT_BYTES.reset();
+        SPAWN_FAILURES.reset();
+        PROCESS_TIMEOUTS.reset();
+        EXIT_CODES.clear();
+    }
+
+    /**
+     * 每隔intervalSeconds秒把摘要打印到out，重复调用时替换之前的定时任务
+     */
+    public static synchronized void startReporter(long intervalSeconds, PrintStream out) {
+        stopReporter();
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> out.print(summary()), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopReporter() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    /**
+     * 文本摘要：每个有样本的阶段一行，最后是进程、输出量和缓存命中率
+     */
+    public static String summary() {
+        StringBuilder text = new StringBuilder("[metrics]\n");
+        text.append(String.format("  %-12s %10s %12s %10s %10s %10s %10s%n",
+                "stage", "count", "total(ms)", "mean(us)", "p50(us)", "p99(us)", "max(us)"));
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = HISTOGRAMS[stage.ordinal()];
+            long count = histogram.count();
+            if (count == 0) {
+                continue;
+            }
+            text.append(String.format("  %-12s %10d %12.1f %10.1f %10.1f %10.1f %10.1f%n", stage.label, count,
+                    histogram.totalNanos() / 1e6, histogram.totalNanos() / 1e3 / count,
+                    histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3, histogram.maxNanos() / 1e3));
+        }
+        text.append("  processes=").append(PROCESSES_SPAWNED.sum())
+                .append(" running=").append(ProcessRunner.runningProcesses()).append('/')
+                .append(ProcessRunner.maxProcesses())
+                .append(" spawnFailures=").append(SPAWN_FAILURES.sum())
+                .append(" timeouts=").append(PROCESS_TIMEOUTS.sum())
+                .append(" exitCodes=").append(exitCodes())
+                .append(" toolOutputBytes=").append(TOOL_OUTPUT_BYTES.sum())
+                .append(String.format(" cacheHitRatio=%.3f", cacheHitRatio()))
+                .append(" (").append(SymbolCache.stats()).append(")\n");
+        return text.toString();
+    }
+
+    /**
+     * JSON对象，键为阶段名，供HTTP服务的/stats使用
+     */
+    static String stagesJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = HISTOGRAMS[stage.ordinal()];
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(Json.quote(stage.label))
+                    .append(":{\"count\":").append(histogram.count())
+                    .append(",\"totalMs\":").append(String.format("%.2f", histogram.totalNanos() / 1e6))
+                    .append(",\"p50Us\":").append(String.format("%.1f", histogram.percentile(50) / 1e3))
+                    .append(",\"p99Us\":").append(String.format("%.1f", histogram.percentile(99) / 1e3))
+                    .append(",\"maxUs\":").append(String.format("%.1f", histogram.maxNanos() / 1e3))
+                    .append('}');
+        }
+        json.append(",\"processes\":").append(PROCESSES_SPAWNED.sum())
+                .append(",\"runningProcesses\":").append(ProcessRunner.runningProcesses())
+                .append(",\"spawnFailures\":").append(SPAWN_FAILURES.sum())
+                .append(",\"processTimeouts\":").append(PROCESS_TIMEOUTS.sum())
+                .append(",\"toolOutputBytes\":").append(TOOL_OUTPUT_BYTES.sum())
+                .append('}');
+        return json.toString();
+    }
+
+    static Map<String, Long> exitCodes() {
+        Map<String, Long> codes = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : EXIT_CODES.entrySet()) {
+            codes.put(String.valueOf(entry.getKey()), entry.getValue().sum());
+        }
+        return codes;
+    }
+
+    static double cacheHitRatio() {
+        long hits = SymbolCache.memoryHits() + SymbolCache.diskHits();
+        long total = hits + SymbolCache.misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (Stage stage : Stage.values()) {
+                server.registerMBean(new StageBean(HISTOGRAMS[stage.ordinal()]),
+                        new ObjectName(DOMAIN + ":type=Stage,name=" + stage.label));
+            }
+            server.registerMBean(new PipelineBean(), new ObjectName(DOMAIN + ":type=Pipeline"));
+        } catch (JMException | SecurityException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 按2的幂分桶的耗时直方图，第i个桶记录[2^i, 2^(i+1))纳秒，分位数精确到桶的上界
+     */
+    private static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long value = Math.max(1, nanos);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(value));
+            count.increment();
+            total.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // 并发更新最大值时重试
+            }
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long totalNanos() {
+            return total.sum();
+        }
+
+        long maxNanos() {
+            return max.get();
+        }
+
+        long percentile(double percent) {
+            long[] snapshot = new long[64];
+            long n = 0;
+            for (int i = 0; i < 64; i++) {
+                snapshot[i] = buckets.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(n * percent / 100.0);
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += snapshot[i];
+                if (seen >= target) {
+                    return Math.min(i >= 62 ? Long.MAX_VALUE : 1L << (i + 1), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < 64; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            total.reset();
+            max.set(0);
+        }
+    }
+
+    public interface StageMXBean {
+        long getCount();
+
+        double getTotalMillis();
+
+        double getMeanMicros();
+
+        double getP50Micros();
+
+        double getP90Micros();
+
+        double getP99Micros();
+
+        double getMaxMicros();
+    }
+
+    public interface PipelineMXBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        long getProcessesSpawned();
+
+        int getRunningProcesses();
+
+        int getMaxProcesses();
+
+        void setMaxProcesses(int max);
+
+        long getSpawnFailures();
+
+        long getProcessTimeouts();
+
+        Map<String, Long> getExitCodes();
+
+        long getToolOutputBytes();
+
+        long getCacheMemoryHits();
+
+        long getCacheDiskHits();
+
+        long getCacheMisses();
+
+        double getCacheHitRatio();
+
+        String summary();
+
+        void reset();
+    }
+
+    private static final class StageBean implements StageMXBean {
+        private final Histogram histogram;
+
+        StageBean(Histogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.count();
+        }
+
+        @Override
+        public double getTotalMillis() {
+            return histogram.totalNanos() / 1e6;
+        }
+
+        @Override
+        public double getMeanMicros() {
+            long count = histogram.count();
+            return count == 0 ? 0 : histogram.totalNanos() / 1e3 / count;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return histogram.percentile(50) / 1e3;
+        }
+
+        @Override
+        public double getP90Micros() {
+            return histogram.percentile(90) / 1e3;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return histogram.percentile(99) / 1e3;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return histogram.maxNanos() / 1e3;
+        }
+    }
+
+    private static final class PipelineBean implements PipelineMXBean {
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        @Override
+        public long getProcessesSpawned() {
+            return PROCESSES_SPAWNED.sum();
+        }
+
+        @Override
+        public int getRunningProcesses() {
+            return ProcessRunner.runningProcesses();
+        }
+
+        @Override
+        public int getMaxProcesses() {
+            return ProcessRunner.maxProcesses();
+        }
+
+        @Override
+        public void setMaxProcesses(int max) {
+            ProcessRunner.setMaxProcesses(max);
+        }
+
+        @Override
+        public long getSpawnFailures() {
+            return SPAWN_FAILURES.sum();
+        }
+
+        @Override
+        public long getProcessTimeouts() {
+            return PROCESS_TIMEOUTS.sum();
+        }
+
+        @Override
+        public Map<String, Long> getExitCodes() {
+            return exitCodes();
+        }
+
+        @Override
+        public long getToolOutputBytes() {
+            return TOOL_OUTPUT_BYTES.sum();
+        }
+
+        @Override
+        public long getCacheMemoryHits() {
+            return SymbolCache.memoryHits();
+        }
+
+        @Override
+        public long getCacheDiskHits() {
+            return SymbolCache.diskHits();
+        }
+
+        @Override
+        public long getCacheMisses() {
+            return SymbolCache.misses();
+        }
+
+        @Override
+        public double getCacheHitRatio() {
+            return Metrics.cacheHitRatio();
+        }
+
+        @Override
+        public String summary() {
+            return Metrics.summary();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
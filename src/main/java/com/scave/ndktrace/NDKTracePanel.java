@@ -2,23 +2,63 @@ package com.scave.ndktrace;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.TableRowSorter;
 import java.awt.*;
+import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseEvent;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 public class NDKTracePanel extends JFrame {
     private JTextField ndkPathField;
     private JTextField soPathField;
     private JTextArea stackInputArea;
-    private JTextArea resultArea;
+    private JTable resultTable;
+    private FrameTableModel resultModel;
+    private TableRowSorter<FrameTableModel> resultSorter;
+    private JTextField filterField;
+    private JComboBox<String> filterColumnBox;
+    // 输入停顿后才重新筛选，连续输入时不反复遍历所有行
+    private Timer filterTimer;
     private JButton scanNdkButton;
     private JButton browseNdkButton;
     private JButton browseSoFileButton;
     private JButton browseSoDirButton;
     private JButton parseButton;
     private JButton clearButton;
+    private JButton cancelButton;
+    private JButton copyButton;
+    private JProgressBar progressBar;
+
+    private SwingWorker<List<StackFrame>, StackFrame> parseWorker;
+    private CancelToken parseToken;
+
+    // 上次解析完成时的输入行和每行对应的帧(不是帧的行为null)，编辑后只重新解析变化的行
+    private List<String> parsedLines;
+    private List<StackFrame> parsedFrames;
+    private String parsedSoPath;
+    private String parsedNdkPath;
+    private StackTraceSymbolizer parsedSymbolizer;
+    private SwingWorker<List<StackFrame>, Void> editWorker;
+    private CancelToken editToken;
+    // 停止输入一段时间后才重新解析
+    private Timer editTimer;
+
+    // 后台扫描NDK的结果，扫描完成前为上次启动缓存的结果或null
+    private List<String> knownNdks;
+    private SwingWorker<List<String>, List<String>> ndkScanWorker;
+    // 点击扫描时还没有任何结果，扫描完成后再弹出选择框
+    private boolean ndkScanRequested;
+    // 窗口第一次绘制后才开始后台初始化，避免和窗口显示争抢CPU和磁盘
+    private boolean backgroundInitStarted;
 
     public NDKTracePanel() {
         initComponents();
@@ -26,6 +66,36 @@ public class NDKTracePanel extends JFrame {
         setupListeners();
     }
 
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!backgroundInitStarted) {
+            backgroundInitStarted = true;
+            StartupTrace.firstPaint();
+            SwingUtilities.invokeLater(this::startBackgroundInit);
+        }
+    }
+
+    /**
+     * 窗口显示后在后台扫描NDK、读入符号缓存和build-id索引
+     */
+    private void startBackgroundInit() {
+        refreshNdkList();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                SymbolCache.preload();
+                SymbolStore.preload();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                StartupTrace.backgroundDone(StartupTrace.INDEXES);
+            }
+        }.execute();
+    }
+
     private void initComponents() {
         setTitle("NDK堆栈还原工具");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -34,8 +104,35 @@ public class NDKTracePanel extends JFrame {
         ndkPathField = new JTextField(30);
         soPathField = new JTextField(30);
         stackInputArea = new JTextArea(10, 60);
-        resultArea = new JTextArea(10, 60);
-        resultArea.setEditable(false);
+        resultModel = new FrameTableModel();
+        resultTable = new JTable(resultModel) {
+            @Override
+            public String getToolTipText(MouseEvent event) {
+                // 函数列的提示显示完整结果，包括内联链
+                int row = rowAtPoint(event.getPoint());
+                if (row < 0 || convertColumnIndexToModel(columnAtPoint(event.getPoint())) != FrameTableModel.COLUMN_FUNCTION) {
+                    return null;
+                }
+                return resultModel.frameAt(convertRowIndexToModel(row)).result;
+            }
+        };
+        resultSorter = new TableRowSorter<>(resultModel);
+        resultTable.setRowSorter(resultSorter);
+        resultTable.setFillsViewportHeight(true);
+        resultTable.setFont(new Font(Font.MONOSPACED, Font.PLAIN, resultTable.getFont().getSize()));
+        // 固定行高，滚动定位不需要逐行计算
+        resultTable.setRowHeight(resultTable.getFontMetrics(resultTable.getFont()).getHeight() + 4);
+        int[] widths = {50, 140, 140, 300, 300};
+        for (int i = 0; i < widths.length; i++) {
+            resultTable.getColumnModel().getColumn(i).setPreferredWidth(widths[i]);
+        }
+        resultTable.setToolTipText("");
+        filterField = new JTextField(20);
+        filterColumnBox = new JComboBox<>(new String[]{"全部列", "模块", "函数", "文件:行"});
+        filterTimer = new Timer(200, null);
+        filterTimer.setRepeats(false);
+        editTimer = new Timer(400, null);
+        editTimer.setRepeats(false);
 
         scanNdkButton = new JButton("扫描NDK");
         browseNdkButton = new JButton("浏览");
@@ -43,6 +140,14 @@ public class NDKTracePanel extends JFrame {
         browseSoDirButton = new JButton("选择SO目录");
         parseButton = new JButton("解析堆栈");
         clearButton = new JButton("清空");
+        cancelButton = new JButton("取消");
+        cancelButton.setEnabled(false);
+        copyButton = new JButton("复制结果");
+
+        progressBar = new JProgressBar();
+        progressBar.setStringPainted(true);
+        progressBar.setString("");
+        progressBar.setPreferredSize(new Dimension(260, progressBar.getPreferredSize().height));
     }
 
     private void setupLayout() {
@@ -119,7 +224,9 @@ public class NDKTracePanel extends JFrame {
     private JPanel createButtonPanel() {
         JPanel panel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         panel.add(parseButton);
+        panel.add(cancelButton);
         panel.add(clearButton);
+        panel.add(progressBar);
         return panel;
     }
 
@@ -129,7 +236,14 @@ public class NDKTracePanel extends JFrame {
                 BorderFactory.createEtchedBorder(), "解析结果",
                 TitledBorder.LEFT, TitledBorder.TOP));
 
-        JScrollPane scrollPane = new JScrollPane(resultArea);
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("筛选:"));
+        filterPanel.add(filterField);
+        filterPanel.add(filterColumnBox);
+        filterPanel.add(copyButton);
+        panel.add(filterPanel, BorderLayout.NORTH);
+
+        JScrollPane scrollPane = new JScrollPane(resultTable);
         scrollPane.setPreferredSize(new Dimension(800, 250));
         panel.add(scrollPane, BorderLayout.CENTER);
 
@@ -147,15 +261,7 @@ public class NDKTracePanel extends JFrame {
         scanNdkButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                List<String> foundNdks = ToolSearcher.findNdkList();
-                if (!foundNdks.isEmpty()) {
-                    showNdkSelectionDialog(foundNdks);
-                } else {
-                    JOptionPane.showMessageDialog(NDKTracePanel.this,
-                            "未找到已安装的NDK，请手动选择路径",
-                            "扫描结果",
-                            JOptionPane.WARNING_MESSAGE);
-                }
+                scanNdk();
             }
         });
 
@@ -180,12 +286,207 @@ public class NDKTracePanel extends JFrame {
             }
         });
 
+        cancelButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancelParse();
+            }
+        });
+
         clearButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
                 clearAll();
             }
         });
+
+        setupResultListeners();
+        setupEditListeners();
+    }
+
+    private void setupEditListeners() {
+        editTimer.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                parseEditedLines();
+            }
+        });
+        stackInputArea.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                inputEdited();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                inputEdited();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // 只是属性变化，文本没有变
+            }
+        });
+    }
+
+    private void inputEdited() {
+        // 还没有手动解析过时不自动解析
+        if (parsedLines != null) {
+            editTimer.restart();
+        }
+    }
+
+    private void setupResultListeners() {
+        filterTimer.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                applyFilter();
+            }
+        });
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+        });
+        filterColumnBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                applyFilter();
+            }
+        });
+        copyButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                copyResults();
+            }
+        });
+    }
+
+    /**
+     * 按输入的文字筛选结果行，不区分大小写
+     */
+    private void applyFilter() {
+        String text = filterField.getText().trim();
+        if (text.isEmpty()) {
+            resultSorter.setRowFilter(null);
+            return;
+        }
+        String regex = "(?i)" + Pattern.quote(text);
+        switch (filterColumnBox.getSelectedIndex()) {
+            case 1:
+                resultSorter.setRowFilter(RowFilter.regexFilter(regex, FrameTableModel.COLUMN_MODULE));
+                break;
+            case 2:
+                resultSorter.setRowFilter(RowFilter.regexFilter(regex, FrameTableModel.COLUMN_FUNCTION));
+                break;
+            case 3:
+                resultSorter.setRowFilter(RowFilter.regexFilter(regex, FrameTableModel.COLUMN_LOCATION));
+                break;
+            default:
+                resultSorter.setRowFilter(RowFilter.regexFilter(regex));
+                break;
+        }
+    }
+
+    /**
+     * 按当前显示的顺序和筛选条件复制为文本，格式和命令行输出一致
+     */
+    private void copyResults() {
+        StringBuilder text = new StringBuilder();
+        for (int row = 0; row < resultTable.getRowCount(); row++) {
+            text.append(StackTraceSymbolizer.formatFrame(resultModel.frameAt(resultTable.convertRowIndexToModel(row))));
+        }
+        StringSelection selection = new StringSelection(text.toString());
+        Toolkit.getDefaultToolkit().getSystemClipboard().setContents(selection, selection);
+    }
+
+    /**
+     * 已有扫描结果时立即显示，同时在后台重新扫描；否则等待后台扫描完成
+     */
+    private void scanNdk() {
+        if (knownNdks != null) {
+            List<String> ndks = knownNdks;
+            refreshNdkList();
+            showNdkScanResult(ndks);
+            return;
+        }
+        ndkScanRequested = true;
+        scanNdkButton.setEnabled(false);
+        scanNdkButton.setText("扫描中...");
+        refreshNdkList();
+    }
+
+    /**
+     * 在后台扫描NDK，先发布磁盘缓存中仍然有效的结果，再发布重新扫描的结果
+     */
+    private void refreshNdkList() {
+        if (ndkScanWorker != null && !ndkScanWorker.isDone()) {
+            return;
+        }
+        ndkScanWorker = new SwingWorker<List<String>, List<String>>() {
+            @Override
+            protected List<String> doInBackground() {
+                List<String> cached = ToolSearcher.cachedNdkList();
+                if (cached != null) {
+                    publish(cached);
+                }
+                return ToolSearcher.findNdkList();
+            }
+
+            @Override
+            protected void process(List<List<String>> chunks) {
+                knownNdks = chunks.get(chunks.size() - 1);
+                if (ndkScanRequested) {
+                    finishNdkScan();
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    knownNdks = get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    if (knownNdks == null) {
+                        knownNdks = new ArrayList<>();
+                    }
+                }
+                if (ndkScanRequested) {
+                    finishNdkScan();
+                }
+                StartupTrace.backgroundDone(StartupTrace.NDK_LIST);
+            }
+        };
+        ndkScanWorker.execute();
+    }
+
+    private void finishNdkScan() {
+        ndkScanRequested = false;
+        scanNdkButton.setEnabled(true);
+        scanNdkButton.setText("扫描NDK");
+        showNdkScanResult(knownNdks);
+    }
+
+    private void showNdkScanResult(List<String> foundNdks) {
+        if (!foundNdks.isEmpty()) {
+            showNdkSelectionDialog(foundNdks);
+        } else {
+            JOptionPane.showMessageDialog(NDKTracePanel.this,
+                    "未找到已安装的NDK，请手动选择路径",
+                    "扫描结果",
+                    JOptionPane.WARNING_MESSAGE);
+        }
     }
 
     private void browseNdkPath() {
@@ -204,7 +505,7 @@ public class NDKTracePanel extends JFrame {
         JFileChooser chooser = new JFileChooser();
         chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
         chooser.setDialogTitle("选择SO文件");
-        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("SO文件", "so"));
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("SO文件或APK/AAB/zip/tar.gz", "so", "apk", "aab", "zip", "gz", "tgz"));
 
         int result = chooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
@@ -270,111 +571,256 @@ public class NDKTracePanel extends JFrame {
     private void parseStack() {
         String ndkPath = ndkPathField.getText().trim();
         String soPath = soPathField.getText().trim();
-        String stackText = stackInputArea.getText().trim();
-
-        if (ndkPath.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "请先选择NDK路径", "错误", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
+        String stackText = stackInputArea.getText();
 
         if (soPath.isEmpty()) {
             JOptionPane.showMessageDialog(this, "请先选择SO文件路径", "错误", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
-        if (stackText.isEmpty()) {
+        if (stackText.trim().isEmpty()) {
             JOptionPane.showMessageDialog(this, "请输入崩溃堆栈信息", "错误", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
-        try {
-            String result = processStackTrace(stackText, new File(soPath), new File(ndkPath));
-            resultArea.setText(result);
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this,
-                    "解析过程中发生错误: " + ex.getMessage(),
-                    "解析错误",
-                    JOptionPane.ERROR_MESSAGE);
-        }
-    }
+        // 解析在后台线程进行，每解析完一帧就追加到结果区域
+        cancelEditParse();
+        parsedLines = null;
+        List<String> lines = splitLines(stackText);
+        StackTraceSymbolizer[] symbolizerHolder = new StackTraceSymbolizer[1];
+        File soFile = new File(soPath);
+        File ndkFile = new File(ndkPath);
+        CancelToken token = new CancelToken();
+        long startTime = System.nanoTime();
+        int[] total = new int[1];
+        int[] done = new int[1];
+        parseToken = token;
+        parseWorker = new SwingWorker<List<StackFrame>, StackFrame>() {
+            @Override
+            protected List<StackFrame> doInBackground() {
+                StackTraceSymbolizer symbolizer = new StackTraceSymbolizer(soFile, ndkFile);
+                symbolizerHolder[0] = symbolizer;
+                return symbolizer.resolveLines(lines, null, token, new StackTraceSymbolizer.Listener() {
+                    @Override
+                    public void onFramesCollected(int count) {
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                total[0] = count;
+                                progressBar.setMaximum(Math.max(1, count));
+                                updateProgress(done[0], total[0], startTime);
+                            }
+                        });
+                    }
 
-    private String processStackTrace(String stackText, File soPath, File ndkPath) {
-        StringBuilder result = new StringBuilder();
-        String[] lines = stackText.split("\n");
+                    @Override
+                    public void onFrameResolved(StackFrame frame) {
+                        publish(frame);
+                    }
+                });
+            }
 
-        for (String line : lines) {
-            //result.append(line).append("\n");
-            String parsedInfo = parseStackLine(line, soPath, ndkPath);
-            if (parsedInfo != null) {
-                result.append(parsedInfo).append("\n\n");
+            @Override
+            protected void process(List<StackFrame> chunks) {
+                // publish的帧会被合并成一批，表格一次只通知新增的行
+                resultModel.append(chunks);
+                done[0] += chunks.size();
+                updateProgress(done[0], total[0], startTime);
             }
-        }
 
-        return result.toString();
+            @Override
+            protected void done() {
+                if (parseWorker != this) {
+                    return;
+                }
+                parseButton.setEnabled(true);
+                cancelButton.setEnabled(false);
+                parseWorker = null;
+                parseToken = null;
+                if (isCancelled() || token.isCancelled()) {
+                    progressBar.setString("已取消，" + progressBar.getString());
+                    return;
+                }
+                try {
+                    // 最终结果按堆栈顺序完整替换一次，保证和增量输出一致
+                    List<StackFrame> byLine = get();
+                    resultModel.setFrames(byLine);
+                    parsedLines = lines;
+                    parsedFrames = byLine;
+                    parsedSoPath = soPath;
+                    parsedNdkPath = ndkPath;
+                    parsedSymbolizer = symbolizerHolder[0];
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(NDKTracePanel.this,
+                            "解析过程中发生错误: " + cause.getMessage(),
+                            "解析错误",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+
+        resultModel.clear();
+        progressBar.setValue(0);
+        progressBar.setString("正在收集堆栈帧...");
+        parseButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+        parseWorker.execute();
     }
 
-    private String parseStackLine(String line, File soPath, File ndkPath) {
-        File symbolizerTool = ToolSearcher.findSymbolizerTool(ndkPath);
-        File addr2lineTool = ToolSearcher.findAddr2lineTool(ndkPath);
-        if (symbolizerTool == null && addr2lineTool == null) {
-            return "未找到llvm-symbolizer或llvm-add2line工具";
+    /**
+     * 和上次解析的输入比较，去掉首尾相同的行，只解析中间变化的部分并替换结果表中对应的行
+     */
+    private void parseEditedLines() {
+        if (parsedLines == null) {
+            return;
         }
-        // 匹配堆栈地址格式，例如: #00 pc 0005a6c8  /system/lib/libc.so
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(".*pc\\s+([0-9a-fA-F]+)\\s+([^\\s]+)");
-        java.util.regex.Matcher matcher = pattern.matcher(line);
-
-        if (matcher.find()) {
-            String address = matcher.group(1);
-            String libPath = matcher.group(2);
-            String libName = new File(libPath).getName();
-
-            File soFile = findSoFile(libName, soPath);
-            if (soFile == null || !soFile.exists()) {
-                return null;
+        if (parseWorker != null || editWorker != null) {
+            // 上一次解析完成后再比较
+            editTimer.restart();
+            return;
+        }
+        String stackText = stackInputArea.getText();
+        if (stackText.trim().isEmpty()) {
+            parsedLines = null;
+            resultModel.clear();
+            return;
+        }
+        // 路径变了之前的结果都不能用，需要重新点击解析
+        if (!soPathField.getText().trim().equals(parsedSoPath) || !ndkPathField.getText().trim().equals(parsedNdkPath)) {
+            return;
+        }
+        List<String> lines = splitLines(stackText);
+        List<String> oldLines = parsedLines;
+        int prefix = 0;
+        int maxPrefix = Math.min(oldLines.size(), lines.size());
+        while (prefix < maxPrefix && oldLines.get(prefix).equals(lines.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && oldLines.get(oldLines.size() - 1 - suffix).equals(lines.get(lines.size() - 1 - suffix))) {
+            suffix++;
+        }
+        if (prefix == oldLines.size() && prefix == lines.size()) {
+            return;
+        }
+        int oldEnd = oldLines.size() - suffix;
+        List<String> changed = new ArrayList<>(lines.subList(prefix, lines.size() - suffix));
+        // ABI行变化会影响后面所有帧选用的SO，整体重新解析，没有变化的帧会命中结果缓存
+        if (containsAbi(changed) || containsAbi(oldLines.subList(prefix, oldEnd))) {
+            parseStack();
+            return;
+        }
+        String abi = null;
+        for (int i = prefix - 1; i >= 0 && abi == null; i--) {
+            abi = StackTraceSymbolizer.abiOf(lines.get(i));
+        }
+        int firstRow = countRows(parsedFrames.subList(0, prefix));
+        int removedRows = countRows(parsedFrames.subList(prefix, oldEnd));
+
+        String lineAbi = abi;
+        int unchangedPrefix = prefix;
+        StackTraceSymbolizer symbolizer = parsedSymbolizer;
+        CancelToken token = new CancelToken();
+        long startTime = System.nanoTime();
+        editToken = token;
+        editWorker = new SwingWorker<List<StackFrame>, Void>() {
+            @Override
+            protected List<StackFrame> doInBackground() {
+                return symbolizer.resolveLines(changed, lineAbi, token, null);
             }
-            if (symbolizerTool != null) {
-                // llvm-symbolizer只识别7位地址(0x后面7位)
-                if (!address.startsWith("0x")) {
-                    if (address.length() > 7) {
-                        address = address.substring(address.length() - 7);
-                    }
-                    address = "0x" + address;
+
+            @Override
+            protected void done() {
+                if (editWorker != this) {
+                    return;
+                }
+                editWorker = null;
+                editToken = null;
+                if (isCancelled() || token.isCancelled()) {
+                    return;
+                }
+                try {
+                    List<StackFrame> resolved = get();
+                    List<StackFrame> frames = new ArrayList<>(lines.size());
+                    frames.addAll(parsedFrames.subList(0, unchangedPrefix));
+                    frames.addAll(resolved);
+                    frames.addAll(parsedFrames.subList(oldEnd, parsedFrames.size()));
+                    resultModel.replace(firstRow, removedRows, resolved);
+                    parsedLines = lines;
+                    parsedFrames = frames;
+                    progressBar.setString(String.format("已更新 %d 行，%d 帧，耗时 %.1f 毫秒",
+                            changed.size(), countRows(resolved), (System.nanoTime() - startTime) / 1_000_000.0));
+                } catch (Exception ex) {
+                    // 增量解析失败时保留原结果，下次点击解析会完整重来
+                    parsedLines = null;
                 }
-                return "#" + address + " => " + ToolExecutor.execSymbolizer(soFile, address, symbolizerTool);
-            } else {
-                return "#" + address + " => " + ToolExecutor.execAddr2line(soFile, address, addr2lineTool);
             }
+        };
+        editWorker.execute();
+    }
+
+    private void cancelEditParse() {
+        editTimer.stop();
+        if (editToken != null) {
+            editToken.cancel();
+        }
+        if (editWorker != null) {
+            editWorker.cancel(true);
         }
+        editWorker = null;
+        editToken = null;
+    }
 
-        return null;
+    private static List<String> splitLines(String text) {
+        return java.util.Arrays.asList(text.split("\n", -1));
     }
 
-    private File findSoFile(String libName, File soPath) {
-        if (soPath.isFile() && soPath.getName().equals(libName)) {
-            return soPath;
-        } else if (soPath.isDirectory()) {
-            return findFileInDirectory(soPath, libName);
+    private static boolean containsAbi(List<String> lines) {
+        for (String line : lines) {
+            if (StackTraceSymbolizer.abiOf(line) != null) {
+                return true;
+            }
         }
-        return null;
-    }
-
-    private File findFileInDirectory(File directory, String fileName) {
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    File found = findFileInDirectory(file, fileName);
-                    if (found != null) return found;
-                } else if (file.getName().equals(fileName)) {
-                    return file;
-                }
+        return false;
+    }
+
+    /**
+     * 结果表中显示的帧数：是堆栈帧且已经解析完成
+     */
+    private static int countRows(List<StackFrame> frames) {
+        int rows = 0;
+        for (StackFrame frame : frames) {
+            if (frame != null && frame.result != null) {
+                rows++;
             }
         }
-        return null;
+        return rows;
+    }
+
+    private void cancelParse() {
+        if (parseToken != null) {
+            // 先结束正在运行的外部进程，后台线程才能尽快返回
+            parseToken.cancel();
+        }
+        if (parseWorker != null) {
+            parseWorker.cancel(true);
+        }
+    }
+
+    private void updateProgress(int done, int total, long startTime) {
+        double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        double rate = seconds > 0 ? done / seconds : 0;
+        progressBar.setValue(done);
+        progressBar.setString(String.format("%d/%d 帧，%.1f 帧/秒", done, total, rate));
     }
 
     private void clearAll() {
+        cancelEditParse();
+        parsedLines = null;
         stackInputArea.setText("");
-        resultArea.setText("");
+        resultModel.clear();
     }
 }
\ No newline at end of file
@@ -0,0 +1,320 @@
+package com.scave.ndktrace;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 启动外部工具进程的统一入口
+ * 所有进程共用一个许可数上限，避免批量处理时同时拉起大量进程；stdout和stderr由后台线程读取，
+ * 工具输出再多也不会因为管道写满而卡住；超时或取消时结束整个进程树，连同工具启动的子进程
+ */
+final class ProcessRunner {
+    // stderr只保留最后这么多字符，用于错误信息
+    private static final int STDERR_TAIL_CHARS = 2048;
+
+    private static final ResizableSemaphore PERMITS = new ResizableSemaphore(defaultLimit());
+    private static final ExecutorService DRAINERS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "process-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "process-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ProcessRunner() {
+    }
+
+    /**
+     * 默认为CPU核数的两倍，可用-Dndktrace.maxProcesses=N指定
+     */
+    private static int defaultLimit() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.getInteger("ndktrace.maxProcesses", Math.max(4, cpus * 2)));
+    }
+
+    /**
+     * 调整同时运行的进程上限，已经在运行的进程不受影响
+     */
+    static void setMaxProcesses(int max) {
+        PERMITS.resize(Math.max(1, max));
+    }
+
+    static int maxProcesses() {
+        return PERMITS.limit();
+    }
+
+    static int runningProcesses() {
+        return PERMITS.limit() - PERMITS.availablePermits();
+    }
+
+    /**
+     * 运行一个一次性的工具进程并等待结束，stdin立即关闭
+     * 从等待许可开始计算timeoutMillis，超时或取消时抛出InterruptedIOException
+     */
+    static Result run(List<String> command, long timeoutMillis, CancelToken token) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Running running = start(command, timeoutMillis);
+        Process process = running.process;
+        String name = running.name;
+        token.register(process);
+        try {
+            process.getOutputStream().close();
+            Future<List<String>> stdout = DRAINERS.submit(() -> readLines(process.getInputStream()));
+            if (!process.waitFor(remainingMillis(deadline), TimeUnit.MILLISECONDS)) {
+                destroyTree(process);
+                Metrics.processTimedOut();
+                throw new InterruptedIOException(name + "超时（" + timeoutMillis + "ms）");
+            }
+            if (token.isCancelled()) {
+                throw new InterruptedIOException("已取消");
+            }
+            int exitCode = process.exitValue();
+            Metrics.processExited(exitCode);
+            // 进程已经退出，输出很快就能读完；子进程仍然占着管道时不再等它
+            List<String> lines = await(stdout, Math.max(remainingMillis(deadline), 1000), process, name);
+            return new Result(exitCode, lines, await(running.stderr, 1000, process, name));
+        } catch (InterruptedException e) {
+            destroyTree(process);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待" + name + "时被中断");
+        } finally {
+            token.unregister(process);
+        }
+    }
+
+    /**
+     * 启动一个常驻的工具进程，调用方负责读写stdin/stdout；stderr在后台读取，只保留末尾用于错误信息
+     * 许可在进程退出时归还，permitTimeoutMillis内拿不到许可时抛出InterruptedIOException
+     */
+    static Running start(List<String> command, long permitTimeoutMillis) throws IOException {
+        String name = new File(command.get(0)).getName();
+        long waitStart = Metrics.start();
+        try {
+            boolean acquired = PERMITS.tryAcquire();
+            if (!acquired) {
+                // 配额被空闲的常驻进程占着时先把它们结束
+                SymbolizerPool.releaseIdle();
+                acquired = PERMITS.tryAcquire(permitTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (!acquired) {
+                Metrics.processTimedOut();
+                throw new InterruptedIOException("同时运行的外部进程已达上限" + PERMITS.limit() + "，等待" + name + "超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待启动" + name + "时被中断");
+        } finally {
+            Metrics.stop(Metrics.Stage.PROCESS_WAIT, waitStart);
+        }
+        Process process;
+        long spawnStart = Metrics.start();
+        try {
+            process = new ProcessBuilder(command).start();
+        } catch (IOException | RuntimeException e) {
+            PERMITS.release();
+            Metrics.spawnFailed();
+            throw e;
+        } finally {
+            Metrics.stop(Metrics.Stage.SPAWN, spawnStart);
+        }
+        Metrics.processSpawned();
+        process.onExit().thenRun(PERMITS::release);
+        return new Running(name, process, DRAINERS.submit(() -> readTail(process.getErrorStream())));
+    }
+
+    /**
+     * delayMillis后进程仍在运行就结束整个进程树，用于常驻进程上的单次请求
+     */
+    static Deadline killAfter(Process process, long delayMillis) {
+        return new Deadline(process, delayMillis);
+    }
+
+    /**
+     * 先结束子进程再结束进程本身，工具通过脚本启动时真正干活的是子进程
+     */
+    static void destroyTree(Process process) {
+        try {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+        } catch (UnsupportedOperationException | SecurityException ignored) {
+        }
+        process.destroyForcibly();
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    private static <T> T await(Future<T> future, long timeoutMillis, Process process, String name)
+            throws IOException, InterruptedException {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            destroyTree(process);
+            future.cancel(true);
+            Metrics.processTimedOut();
+            throw new InterruptedIOException(name + "的子进程未关闭输出");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private static List<String> readLines(InputStream input) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+                Metrics.toolOutput(line.length() + 1);
+            }
+        }
+        return lines;
+    }
+
+    private static String readTail(InputStream input) {
+        StringBuilder tail = new StringBuilder();
+        char[] buffer = new char[1024];
+        try (InputStreamReader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                tail.append(buffer, 0, n);
+                if (tail.length() > STDERR_TAIL_CHARS * 2) {
+                    tail.delete(0, tail.length() - STDERR_TAIL_CHARS);
+                }
+            }
+        } catch (IOException ignored) {
+            // 进程被结束时管道关闭
+        }
+        if (tail.length() > STDERR_TAIL_CHARS) {
+            tail.delete(0, tail.length() - STDERR_TAIL_CHARS);
+        }
+        return tail.toString().trim();
+    }
+
+    /**
+     * 已启动的进程和它的stderr读取任务
+     */
+    static final class Running {
+        final String name;
+        final Process process;
+        final Future<String> stderr;
+
+        Running(String name, Process process, Future<String> stderr) {
+            this.name = name;
+            this.process = process;
+            this.stderr = stderr;
+        }
+
+        /**
+         * stderr的末尾，进程退出后读取任务很快结束，最多等待200毫秒
+         */
+        String stderrTail() {
+            try {
+                return stderr.get(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "";
+            } catch (ExecutionException | TimeoutException e) {
+                return "";
+            }
+        }
+    }
+
+    /**
+     * 一次性进程的退出码和输出
+     */
+    static final class Result {
+        final int exitCode;
+        final List<String> lines;
+        final String stderr;
+
+        Result(int exitCode, List<String> lines, String stderr) {
+            this.exitCode = exitCode;
+            this.lines = lines;
+            this.stderr = stderr;
+        }
+
+        /**
+         * 退出码和stderr最后一行，用于失败时的提示
+         */
+        String describeFailure() {
+            String message = "退出码: " + exitCode;
+            if (!stderr.isEmpty()) {
+                int newline = stderr.lastIndexOf('\n');
+                message += "，" + stderr.substring(newline + 1).trim();
+            }
+            return message;
+        }
+    }
+
+    /**
+     * 单次请求的期限，到期时结束进程树
+     */
+    static final class Deadline {
+        private final ScheduledFuture<?> task;
+        private volatile boolean expired;
+
+        Deadline(Process process, long delayMillis) {
+            task = WATCHDOG.schedule(() -> {
+                if (process.isAlive()) {
+                    expired = true;
+                    Metrics.processTimedOut();
+                    destroyTree(process);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        boolean expired() {
+            return expired;
+        }
+
+        void cancel() {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * 可以调整总数的信号量，缩小时多出的许可在归还时被吸收
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+        private int limit;
+
+        ResizableSemaphore(int limit) {
+            super(limit, true);
+            this.limit = limit;
+        }
+
+        synchronized int limit() {
+            return limit;
+        }
+
+        synchronized void resize(int newLimit) {
+            if (newLimit > limit) {
+                release(newLimit - limit);
+            } else if (newLimit < limit) {
+                reducePermits(limit - newLimit);
+            }
+            limit = newLimit;
+        }
+    }
+}
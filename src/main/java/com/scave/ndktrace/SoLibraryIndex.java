@@ -0,0 +1,420 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * SO目录的文件名索引，每个目录只完整遍历一次
+ * 之后通过WatchService增量更新，目录没有变化时所有解析都复用同一份索引；
+ * 没有WatchService或监听数量超过系统限制时，按遍历时记下的各目录修改时间判断索引是否仍然有效
+ */
+public final class SoLibraryIndex {
+    // 同时保持索引的目录数量
+    private static final int MAX_INDEXES = 4;
+    // 不能监听的索引最多每隔这么久检查一次目录修改时间
+    private static final long VALIDATE_INTERVAL_MS = 1000;
+
+    /**
+     * 把目录注册到WatchService，测试中替换以模拟超过监听数量限制
+     */
+    interface Registrar {
+        WatchKey register(Path dir, WatchService service) throws IOException;
+    }
+
+    static volatile Registrar registrar = (dir, service) -> dir.register(service,
+            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+
+    private static final Map<Path, SoLibraryIndex> INDEXES = new LinkedHashMap<Path, SoLibraryIndex>(4, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, SoLibraryIndex> eldest) {
+            if (size() > MAX_INDEXES) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final Path root;
+    private final Map<String, List<Entry>> byName = new ConcurrentHashMap<>();
+    // 目录中的APK/AAB/zip，库名找不到时在其中查找
+    private final Set<Path> archives = ConcurrentHashMap.newKeySet();
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    // 遍历时各目录的修改时间，目录中增删文件或子目录时会变化
+    private final Map<Path, Long> dirTimes = new ConcurrentHashMap<>();
+    // 并行遍历的线程在注册失败时会关闭监听，而建立索引的线程此时持有索引的锁，所以只用原子替换，不加锁
+    private final AtomicReference<WatchService> watcher = new AtomicReference<>();
+    // 索引内容每次增删都加一，调用方据此判断基于索引算出的结果是否还有效
+    private final AtomicLong generation = new AtomicLong();
+    private volatile boolean stale;
+    private boolean built;
+    private volatile long lastValidated;
+
+    private SoLibraryIndex(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * 获取目录的索引，已有索引且目录未发生无法增量处理的变化时直接复用
+     * 遍历在索引自己的锁中进行，建立一个目录的索引时不妨碍其他目录的查询
+     */
+    public static SoLibraryIndex forDirectory(File directory) {
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        while (true) {
+            SoLibraryIndex index;
+            synchronized (INDEXES) {
+                index = INDEXES.get(root);
+                if (index == null) {
+                    index = new SoLibraryIndex(root);
+                    INDEXES.put(root, index);
+                }
+            }
+            // 刚由本线程建立的索引直接使用，即使期间已被淘汰
+            if (index.ensureBuilt() || index.isCurrent()) {
+                return index;
+            }
+            synchronized (INDEXES) {
+                if (INDEXES.get(root) == index) {
+                    INDEXES.remove(root);
+                }
+            }
+            index.close();
+        }
+    }
+
+    /**
+     * 第一次使用时遍历目录，返回是否由本次调用完成遍历
+     */
+    private synchronized boolean ensureBuilt() {
+        if (built) {
+            return false;
+        }
+        build();
+        built = true;
+        return true;
+    }
+
+    /**
+     * 索引是否仍然反映目录内容：有监听时由事件维护，否则比较各目录的修改时间
+     */
+    private boolean isCurrent() {
+        if (stale) {
+            return false;
+        }
+        if (watcher.get() != null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastValidated < VALIDATE_INTERVAL_MS) {
+            return true;
+        }
+        for (Map.Entry<Path, Long> entry : dirTimes.entrySet()) {
+            if (entry.getKey().toFile().lastModified() != entry.getValue()) {
+                stale = true;
+                return false;
+            }
+        }
+        lastValidated = now;
+        return true;
+    }
+
+    /**
+     * 按文件名查找，abi不为空时优先返回对应ABI目录下的文件
+     */
+    public File find(String fileName, String abi) {
+        List<Entry> candidates = byName.get(fileName);
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        if (abi != null) {
+            String normalized = normalizeAbi(abi);
+            for (Entry entry : candidates) {
+                if (normalized.equals(entry.abi)) {
+                    return entry.path.toFile();
+                }
+            }
+        }
+        return candidates.get(0).path.toFile();
+    }
+
+    /**
+     * 索引内容的版本，文件增删后变大；重新遍历的目录是新的索引对象，要同时比较对象本身
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    public List<File> archives() {
+        List<File> files = new ArrayList<>(archives.size());
+        for (Path path : archives) {
+            files.add(path.toFile());
+        }
+        files.sort(null);
+        return files;
+    }
+
+    public List<File> candidates(String fileName) {
+        List<Entry> entries = byName.get(fileName);
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        List<File> files = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            files.add(entry.path.toFile());
+        }
+        return files;
+    }
+
+    /**
+     * 将目录名或墓碑文件中的ABI统一成墓碑文件中的写法
+     */
+    static String normalizeAbi(String abi) {
+        switch (abi) {
+            case "arm64-v8a":
+            case "aarch64":
+                return "arm64";
+            case "armeabi-v7a":
+            case "armeabi":
+                return "arm";
+            default:
+                return abi;
+        }
+    }
+
+    private void build() {
+        try {
+            watcher.set(root.getFileSystem().newWatchService());
+        } catch (IOException | UnsupportedOperationException e) {
+            watcher.set(null);
+        }
+        // 修改时间在列目录之前记下，遍历期间的变化会在下次检查时发现
+        dirTimes.put(root, root.toFile().lastModified());
+        lastValidated = System.currentTimeMillis();
+        File[] children = root.toFile().listFiles();
+        if (children == null) {
+            return;
+        }
+        // 顶层子目录并行遍历，大目录树的建立时间随核数缩短
+        List<Path> subDirs = new ArrayList<>();
+        for (File child : children) {
+            if (child.isDirectory()) {
+                subDirs.add(child.toPath());
+            } else if (child.isFile()) {
+                add(child.toPath());
+            }
+        }
+        watch(root);
+        subDirs.parallelStream().forEach(this::walk);
+        sortCandidates();
+        // 遍历中注册失败时监听已经关闭，只按目录修改时间检查
+        if (watcher.get() != null) {
+            Thread thread = new Thread(this::processEvents, "so-index-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void walk(Path dir) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+                    dirTimes.put(path, attrs.lastModifiedTime().toMillis());
+                    watch(path);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        add(path);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void watch(Path dir) {
+        WatchService service = watcher.get();
+        if (service == null) {
+            return;
+        }
+        try {
+            WatchKey key = registrar.register(dir, service);
+            watchedDirs.put(key, dir);
+        } catch (IOException e) {
+            // 监听数量超过系统限制时放弃增量更新，改为按目录修改时间检查
+            closeWatcher();
+        }
+    }
+
+    private void add(Path path) {
+        if (ArchiveLibrary.isArchiveName(path.getFileName().toString())) {
+            archives.add(path);
+        }
+        Entry entry = new Entry(path, abiOf(path));
+        byName.compute(path.getFileName().toString(), (name, list) -> {
+            if (list != null) {
+                for (Entry existing : list) {
+                    if (existing.path.equals(path)) {
+                        return list;
+                    }
+                }
+            }
+            List<Entry> updated = list == null ? new ArrayList<>(1) : new ArrayList<>(list);
+            updated.add(entry);
+            return updated;
+        });
+        // 先改内容再加版本，读到旧版本的调用方一定会在下次发现变化
+        generation.incrementAndGet();
+    }
+
+    private void removeUnder(Path path) {
+        removeEntries(path);
+        generation.incrementAndGet();
+    }
+
+    private void removeEntries(Path path) {
+        archives.removeIf(archive -> archive.startsWith(path));
+        // 删除的是已索引的文件时只需处理同名的列表，否则按目录整体清理
+        List<Entry> sameName = byName.get(path.getFileName().toString());
+        if (sameName != null) {
+            for (Entry entry : sameName) {
+                if (entry.path.equals(path)) {
+                    removeFrom(path.getFileName().toString(), path);
+                    return;
+                }
+            }
+        }
+        for (String name : byName.keySet()) {
+            removeFrom(name, path);
+        }
+    }
+
+    private void removeFrom(String fileName, Path path) {
+        byName.computeIfPresent(fileName, (name, list) -> {
+            List<Entry> updated = new ArrayList<>(list.size());
+            for (Entry entry : list) {
+                if (!entry.path.startsWith(path)) {
+                    updated.add(entry);
+                }
+            }
+            return updated.isEmpty() ? null : updated;
+        });
+    }
+
+    private void sortCandidates() {
+        for (String name : byName.keySet()) {
+            byName.computeIfPresent(name, (key, list) -> {
+                List<Entry> sorted = new ArrayList<>(list);
+                sorted.sort((a, b) -> a.path.compareTo(b.path));
+                return sorted;
+            });
+        }
+    }
+
+    private void processEvents() {
+        WatchService service = watcher.get();
+        while (service != null) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = watchedDirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    // 事件丢失，下次使用时重新遍历
+                    stale = true;
+                    continue;
+                }
+                Path path = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    if (Files.isDirectory(path)) {
+                        walk(path);
+                    } else if (Files.isRegularFile(path)) {
+                        add(path);
+                    }
+                } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    removeUnder(path);
+                }
+            }
+            if (!key.reset()) {
+                watchedDirs.remove(key);
+                if (root.equals(dir)) {
+                    stale = true;
+                }
+            }
+            service = watcher.get();
+        }
+    }
+
+    /**
+     * 只有取到监听的那个线程负责关闭，可以在任何线程中调用，不会等待索引的锁
+     */
+    private void closeWatcher() {
+        WatchService service = watcher.getAndSet(null);
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void close() {
+        stale = true;
+        closeWatcher();
+    }
+
+    private String abiOf(Path path) {
+        Path relative = root.relativize(path);
+        for (int i = relative.getNameCount() - 2; i >= 0; i--) {
+            String segment = relative.getName(i).toString();
+            switch (segment) {
+                case "arm64-v8a":
+                case "armeabi-v7a":
+                case "armeabi":
+                case "x86":
+                case "x86_64":
+                case "riscv64":
+                case "arm64":
+                case "arm":
+                    return normalizeAbi(segment);
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    private static final class Entry {
+        final Path path;
+        final String abi;
+
+        Entry(Path path, String abi) {
+            this.path = path;
+            this.abi = abi;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+
+/**
+ * 堆栈中的一帧，解析时先收集所有帧，再按SO文件分组调用工具
+ */
+final class StackFrame {
+    final int index;
+    final String address;
+    final String libPath;
+    final String buildId;
+    // 堆栈中自带的函数名提示，没有时为null
+    final String functionHint;
+    final File soFile;
+    String result;
+
+    StackFrame(int index, String address, String libPath, String buildId, String functionHint, File soFile) {
+        this.index = index;
+        this.address = address;
+        this.libPath = libPath;
+        this.buildId = buildId;
+        this.functionHint = functionHint;
+        this.soFile = soFile;
+    }
+}
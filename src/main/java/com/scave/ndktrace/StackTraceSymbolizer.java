@@ -0,0 +1,338 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 堆栈符号化的核心流程，不依赖界面，图形界面和命令行共用
+ * 同一个实例可以被多个线程同时使用
+ */
+public final class StackTraceSymbolizer {
+    private static final java.util.regex.Pattern ABI_PATTERN = java.util.regex.Pattern.compile("^\\s*ABI:\\s*'([^']+)'");
+
+    private final File soPath;
+    private final Toolchain toolchain;
+    private final File symbolizerTool;
+    private final File addr2lineTool;
+
+    public StackTraceSymbolizer(File soPath, File ndkPath) {
+        this.soPath = soPath;
+        long start = Metrics.start();
+        this.toolchain = Toolchain.forNdk(ndkPath);
+        Metrics.stop(Metrics.Stage.TOOL_SEARCH, start);
+        this.symbolizerTool = toolchain.symbolizer();
+        this.addr2lineTool = toolchain.addr2line();
+    }
+
+    public Toolchain toolchain() {
+        return toolchain;
+    }
+
+    /**
+     * 当前使用的解析后端名称
+     */
+    public String backend() {
+        return symbolizerTool != null ? "llvm-symbolizer" : addr2lineTool != null ? "addr2line" : "builtin";
+    }
+
+    /**
+     * 解析进度回调，帧按堆栈中的顺序依次回调
+     */
+    interface Listener {
+        void onFramesCollected(int total);
+
+        void onFrameResolved(StackFrame frame);
+    }
+
+    /**
+     * 解析一段堆栈文本，返回按堆栈顺序格式化的结果
+     */
+    public String symbolize(String stackText) {
+        return symbolize(stackText, CancelToken.NONE, null);
+    }
+
+    String symbolize(String stackText, CancelToken token, Listener listener) {
+        return formatFrames(resolve(stackText, token, listener));
+    }
+
+    /**
+     * 解析一段堆栈文本，返回按堆栈顺序排列的帧，取消时未完成的帧结果为null
+     */
+    List<StackFrame> resolve(String stackText, CancelToken token, Listener listener) {
+        List<StackFrame> frames = new ArrayList<>();
+        for (StackFrame frame : resolveLines(Arrays.asList(stackText.split("\n")), null, token, listener)) {
+            if (frame != null) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * 逐行解析，返回和lines一一对应的列表，不是堆栈帧的行为null
+     * abi是这些行之前最近的ABI，用于只重新解析一段编辑过的行
+     */
+    List<StackFrame> resolveLines(List<String> lines, String abi, CancelToken token, Listener listener) {
+        // 先收集所有帧，再统一调用工具
+        List<StackFrame> byLine = new ArrayList<>(lines.size());
+        List<StackFrame> frames = new ArrayList<>();
+        FrameParser.Frame parsed = new FrameParser.Frame();
+        long parseStart = Metrics.start();
+        // 查找SO的耗时单独统计，从解析耗时中扣除
+        long[] lookupNanos = new long[1];
+        for (String line : lines) {
+            if (token.isCancelled()) {
+                while (byLine.size() < lines.size()) {
+                    byLine.add(null);
+                }
+                return byLine;
+            }
+            // 墓碑文件头中的ABI用于在多ABI的SO目录中选择正确的文件
+            String lineAbi = abiOf(line);
+            if (lineAbi != null) {
+                abi = lineAbi;
+                byLine.add(null);
+                continue;
+            }
+            StackFrame frame = parseStackLine(line, abi, parsed, lookupNanos);
+            byLine.add(frame);
+            if (frame != null) {
+                frames.add(frame);
+            }
+        }
+        if (parseStart != 0) {
+            Metrics.record(Metrics.Stage.PARSE, System.nanoTime() - parseStart - lookupNanos[0]);
+        }
+        resolveFrames(frames, token, listener);
+        return byLine;
+    }
+
+    /**
+     * 墓碑文件头"ABI: 'arm64'"中的ABI，不是这种行时返回null
+     */
+    static String abiOf(String line) {
+        if (line.indexOf("ABI:") < 0) {
+            return null;
+        }
+        java.util.regex.Matcher abiMatcher = ABI_PATTERN.matcher(line);
+        return abiMatcher.find() ? abiMatcher.group(1) : null;
+    }
+
+    private void resolveFrames(List<StackFrame> frames, CancelToken token, Listener listener) {
+        if (listener != null) {
+            listener.onFramesCollected(frames.size());
+        }
+        FrameEmitter emitter = new FrameEmitter(frames, listener);
+
+        String backend = backend();
+        // 之前解析过的帧直接使用缓存结果
+        List<StackFrame> pending = new ArrayList<>(frames.size());
+        long cacheStart = Metrics.start();
+        for (StackFrame frame : frames) {
+            frame.result = SymbolCache.get(frame.soFile, backend, frame.address);
+            if (frame.result == null) {
+                pending.add(frame);
+            }
+        }
+        Metrics.stop(Metrics.Stage.CACHE, cacheStart);
+        emitter.flush();
+
+        // 未配置NDK或NDK中没有工具时使用内置解析器
+        if (symbolizerTool == null && addr2lineTool == null) {
+            for (StackFrame frame : pending) {
+                if (token.isCancelled()) {
+                    break;
+                }
+                frame.result = ToolExecutor.execBuiltin(frame.soFile, frame.address);
+                SymbolCache.put(frame.soFile, backend, frame.address, frame.result);
+                emitter.flush();
+            }
+            return;
+        }
+
+        // 没有调试信息的SO直接查符号表，不必启动外部工具；每个SO只判断一次
+        List<StackFrame> toolFrames = new ArrayList<>(pending.size());
+        Map<File, Boolean> symbolTableOnly = new HashMap<>();
+        for (StackFrame frame : pending) {
+            if (symbolTableOnly.computeIfAbsent(frame.soFile, ElfSymbolizer::isSymbolTableOnly)) {
+                frame.result = ToolExecutor.execSymbolTable(frame.soFile, frame.address);
+            } else {
+                toolFrames.add(frame);
+            }
+        }
+        emitter.flush();
+
+        if (symbolizerTool != null) {
+            for (StackFrame frame : toolFrames) {
+                if (token.isCancelled()) {
+                    break;
+                }
+                String result = ToolExecutor.execSymbolizer(frame.soFile, toSymbolizerAddress(frame.address),
+                        symbolizerTool, token);
+                complete(frame, backend, result, token);
+                emitter.flush();
+            }
+        } else {
+            // 同一个SO的所有地址只调用一次addr2line
+            Map<File, List<StackFrame>> framesBySo = new LinkedHashMap<>();
+            for (StackFrame frame : toolFrames) {
+                framesBySo.computeIfAbsent(frame.soFile, k -> new ArrayList<>()).add(frame);
+            }
+            for (Map.Entry<File, List<StackFrame>> entry : framesBySo.entrySet()) {
+                if (token.isCancelled()) {
+                    break;
+                }
+                List<StackFrame> group = entry.getValue();
+                List<String> addresses = new ArrayList<>(group.size());
+                for (StackFrame frame : group) {
+                    addresses.add(frame.address);
+                }
+                List<String> results = ToolExecutor.execAddr2line(entry.getKey(), addresses, addr2lineTool, token);
+                for (int i = 0; i < group.size(); i++) {
+                    complete(group.get(i), backend, results.get(i), token);
+                }
+                emitter.flush();
+            }
+        }
+    }
+
+    /**
+     * 记录外部工具的结果，工具失败时用符号表兜底
+     * 兜底结果不写入缓存，工具恢复后可以得到完整结果
+     */
+    private static void complete(StackFrame frame, String backend, String result, CancelToken token) {
+        frame.result = result;
+        if (token.isCancelled()) {
+            return;
+        }
+        SymbolCache.put(frame.soFile, backend, frame.address, result);
+        if (ToolExecutor.isFailure(result)) {
+            String fallback = ToolExecutor.execSymbolTable(frame.soFile, frame.address);
+            if (!ToolExecutor.isFailure(fallback)) {
+                frame.result = fallback;
+            }
+        }
+    }
+
+    /**
+     * 按堆栈顺序回调已经解析完成的帧，前面的帧还没完成时后面的先等待
+     */
+    private static final class FrameEmitter {
+        private final List<StackFrame> frames;
+        private final Listener listener;
+        private int next;
+
+        FrameEmitter(List<StackFrame> frames, Listener listener) {
+            this.frames = frames;
+            this.listener = listener;
+        }
+
+        void flush() {
+            if (listener == null) {
+                return;
+            }
+            while (next < frames.size() && frames.get(next).result != null) {
+                listener.onFrameResolved(frames.get(next++));
+            }
+        }
+    }
+
+    static String formatFrames(List<StackFrame> frames) {
+        StringBuilder result = new StringBuilder();
+        for (StackFrame frame : frames) {
+            if (frame.result != null) {
+                result.append(formatFrame(frame));
+            }
+        }
+        return result.toString();
+    }
+
+    static String formatFrame(StackFrame frame) {
+        return "#" + frame.address + " => " + frame.result + "\n\n";
+    }
+
+    private StackFrame parseStackLine(String line, String abi, FrameParser.Frame parsed, long[] lookupNanos) {
+        if (!FrameParser.parse(line, parsed)) {
+            return null;
+        }
+        String libName = new File(parsed.module).getName();
+        long lookupStart = Metrics.start();
+        File soFile = findSoFile(parsed, libName, abi);
+        if (lookupStart != 0) {
+            long nanos = System.nanoTime() - lookupStart;
+            lookupNanos[0] += nanos;
+            Metrics.record(Metrics.Stage.LOOKUP, nanos);
+        }
+        if (soFile == null || !ArchiveLibrary.exists(soFile)) {
+            return null;
+        }
+        return new StackFrame(parsed.index, parsed.pc, parsed.module, parsed.buildId, parsed.function, soFile);
+    }
+
+    private static String toSymbolizerAddress(String address) {
+        // llvm-symbolizer只识别7位地址(0x后面7位)
+        if (!address.startsWith("0x")) {
+            if (address.length() > 7) {
+                address = address.substring(address.length() - 7);
+            }
+            address = "0x" + address;
+        }
+        return address;
+    }
+
+    /**
+     * 符号路径可以是单个SO、SO目录，或者APK/AAB/zip/tar.gz；目录中没有同名SO时再到目录里的压缩包中查找
+     */
+    private File findSoFile(FrameParser.Frame parsed, String libName, String abi) {
+        if (ArchiveLibrary.isArchive(soPath)) {
+            return ArchiveLibrary.find(soPath, parsed.module, parsed.moduleOffset, libName, abi, parsed.buildId);
+        } else if (soPath.isFile() && soPath.getName().equals(libName)) {
+            return soPath;
+        } else if (soPath.isDirectory()) {
+            SoLibraryIndex index = SoLibraryIndex.forDirectory(soPath);
+            if (!ArchiveLibrary.isArchiveName(libName)) {
+                File found = SymbolStore.resolve(soPath, libName, parsed.buildId, abi);
+                if (found != null) {
+                    return found;
+                }
+            }
+            return findInArchives(index, parsed, libName, abi);
+        }
+        return null;
+    }
+
+    /**
+     * 模块本身是APK时只查同名的压缩包，否则查目录中所有压缩包，有build-id时要求一致
+     */
+    private static File findInArchives(SoLibraryIndex index, FrameParser.Frame parsed, String libName, String abi) {
+        String archiveName = archiveNameOf(parsed.module);
+        File fallback = null;
+        for (File archive : archiveName != null ? index.candidates(archiveName) : index.archives()) {
+            File found = ArchiveLibrary.find(archive, parsed.module, parsed.moduleOffset, libName, abi, parsed.buildId);
+            if (found == null) {
+                continue;
+            }
+            if (parsed.buildId == null || parsed.buildId.equalsIgnoreCase(SymbolStore.buildIdOf(found))) {
+                return found;
+            }
+            if (fallback == null) {
+                fallback = found;
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * "/data/app/.../base.apk!lib/arm64-v8a/libx.so"和"/data/app/.../base.apk"中的压缩包文件名
+     */
+    private static String archiveNameOf(String module) {
+        int bang = module.indexOf('!');
+        String name = new File(bang >= 0 ? module.substring(0, bang) : module).getName();
+        return ArchiveLibrary.isArchiveName(name) ? name : null;
+    }
+}
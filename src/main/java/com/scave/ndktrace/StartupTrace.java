@@ -0,0 +1,122 @@
+package com.scave.ndktrace;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 图形界面的启动打点：进入main、外观加载、窗口构建、首次绘制、后台初始化完成
+ * -Dndktrace.startupTrace=true时把各阶段距进入main的时间打印到标准错误，格式固定，启动基准按此解析；
+ * -Dndktrace.training=true时后台初始化完成后退出，用于生成CDS归档的训练运行和启动基准
+ */
+final class StartupTrace {
+    static final boolean ENABLED = Boolean.getBoolean("ndktrace.startupTrace");
+    static final boolean TRAINING = Boolean.getBoolean("ndktrace.training");
+
+    // 窗口显示后在后台进行的初始化：NDK列表、符号索引
+    static final String NDK_LIST = "ndkList";
+    static final String INDEXES = "indexes";
+    private static final String[] BACKGROUND_TASKS = {NDK_LIST, INDEXES};
+
+    private static final long MAIN_NANOS = System.nanoTime();
+    private static final Map<String, Long> MARKS = new LinkedHashMap<>();
+    private static final Set<String> finishedTasks = new LinkedHashSet<>();
+    private static boolean painted;
+
+    private StartupTrace() {
+    }
+
+    static synchronized void mark(String label) {
+        if (!MARKS.containsKey(label)) {
+            MARKS.put(label, System.nanoTime() - MAIN_NANOS);
+        }
+    }
+
+    /**
+     * 窗口第一次绘制，只记录第一次
+     */
+    static synchronized boolean firstPaint() {
+        if (painted) {
+            return false;
+        }
+        painted = true;
+        mark("firstPaint");
+        if (ENABLED) {
+            System.err.println(report());
+        }
+        return true;
+    }
+
+    /**
+     * 一项后台初始化完成，全部完成后打印完整记录；训练运行到此结束
+     */
+    static void backgroundDone(String task) {
+        boolean allDone;
+        synchronized (StartupTrace.class) {
+            if (!finishedTasks.add(task)) {
+                return;
+            }
+            mark(task);
+            allDone = finishedTasks.size() == BACKGROUND_TASKS.length;
+            if (allDone) {
+                mark("ready");
+            }
+        }
+        if (!allDone) {
+            return;
+        }
+        if (ENABLED) {
+            System.err.println(report());
+        }
+        if (TRAINING) {
+            System.exit(0);
+        }
+    }
+
+    /**
+     * 没有显示器时的训练运行（构建机上生成CDS归档）：创建不依赖显示器的界面组件，
+     * 再在当前线程完成后台初始化，尽量覆盖图形界面启动时加载的类
+     */
+    static void trainHeadless() {
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                JPanel panel = new JPanel(new BorderLayout());
+                panel.add(new JTextField(30), BorderLayout.NORTH);
+                panel.add(new JScrollPane(new JTextArea(10, 60)), BorderLayout.CENTER);
+                JTable table = new JTable(new FrameTableModel());
+                table.setAutoCreateRowSorter(true);
+                panel.add(new JScrollPane(table), BorderLayout.SOUTH);
+                panel.add(new JComboBox<>(new String[]{"全部列"}), BorderLayout.WEST);
+                panel.add(new JProgressBar(), BorderLayout.EAST);
+                panel.setSize(800, 600);
+                panel.validate();
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        firstPaint();
+        ToolSearcher.cachedNdkList();
+        ToolSearcher.findNdkList();
+        backgroundDone(NDK_LIST);
+        SymbolCache.preload();
+        SymbolStore.preload();
+        Demangler.demangle("_ZNSt6vectorIiSaIiEE9push_backERKi");
+        backgroundDone(INDEXES);
+    }
+
+    /**
+     * 一行记录，例如"[startup] mainEpochMs=1700000000000 main=0ms lookAndFeel=160ms frame=230ms firstPaint=310ms"
+     * mainEpochMs是进入main时的系统时间，启动基准用它和自己记录的进程启动时间相减，得到JVM自身的启动耗时
+     */
+    static synchronized String report() {
+        long mainEpochMillis = System.currentTimeMillis() - (System.nanoTime() - MAIN_NANOS) / 1_000_000;
+        StringBuilder text = new StringBuilder("[startup] mainEpochMs=").append(mainEpochMillis);
+        for (Map.Entry<String, Long> entry : MARKS.entrySet()) {
+            text.append(' ').append(entry.getKey()).append('=').append(entry.getValue() / 1_000_000).append("ms");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,356 @@
+package com.scave.ndktrace;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 符号化结果缓存，内存中是有上限的LRU，磁盘上是追加写入的记录文件，重启后仍然有效
+ * 键由SO的身份（build-id，没有时用路径+大小+修改时间）、解析后端和地址组成，只缓存解析成功的结果
+ * 磁盘文件由GUI、命令行和监视进程共用，追加和压缩持有进程间文件锁；查询只按偏移读取，互不阻塞
+ */
+public final class SymbolCache {
+    private static final String CACHE_FILE = "symbol-cache.txt";
+    // 内存中保留的结果数量
+    private static final int MAX_MEMORY_ENTRIES = 8192;
+    // 磁盘文件超过该大小时压缩，只保留较新的一半
+    private static final long MAX_DISK_BYTES = 32L * 1024 * 1024;
+    // 结果格式的版本，名字还原方式等变化时递增，旧记录不再命中
+    private static final String FORMAT = "v2";
+
+    private static final Map<String, String> MEMORY = new LinkedHashMap<String, String>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+    // 磁盘记录在内存中只保存键到文件偏移的映射，命中时再读取结果
+    private static final Map<String, Long> DISK_OFFSETS = new ConcurrentHashMap<>();
+    // 读锁用于按偏移读取，写锁只在重新打开文件时持有
+    private static final ReadWriteLock DISK_LOCK = new ReentrantReadWriteLock();
+    // 进程内的写入串行，FileLock不能在同一JVM中重复获取
+    private static final Object WRITE_LOCK = new Object();
+    private static final DataFileLock FILE_LOCK = new DataFileLock(CACHE_FILE);
+
+    private static final AtomicLong MEMORY_HITS = new AtomicLong();
+    private static final AtomicLong DISK_HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private static volatile FileChannel disk;
+    // 打开时文件的身份，其他进程压缩替换文件后会变化
+    private static Object diskKey;
+    private static volatile boolean loaded;
+    private static volatile boolean enabled = !"false".equals(System.getProperty("ndktrace.symbolCache"));
+
+    private SymbolCache() {
+    }
+
+    /**
+     * 关闭后不再查询和写入缓存，用于基准测试等需要真实解析开销的场景
+     */
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    public static String get(File soFile, String backend, String address) {
+        if (!enabled) {
+            return null;
+        }
+        String key = key(soFile, backend, address);
+        if (key == null) {
+            MISSES.incrementAndGet();
+            return null;
+        }
+        synchronized (MEMORY) {
+            String result = MEMORY.get(key);
+            if (result != null) {
+                MEMORY_HITS.incrementAndGet();
+                return result;
+            }
+        }
+        String result = readDisk(key);
+        if (result != null) {
+            DISK_HITS.incrementAndGet();
+            synchronized (MEMORY) {
+                MEMORY.put(key, result);
+            }
+            return result;
+        }
+        MISSES.incrementAndGet();
+        return null;
+    }
+
+    public static void put(File soFile, String backend, String address, String result) {
+        if (!enabled || ToolExecutor.isFailure(result) || result.indexOf('\n') >= 0) {
+            return;
+        }
+        String key = key(soFile, backend, address);
+        if (key == null) {
+            return;
+        }
+        synchronized (MEMORY) {
+            MEMORY.put(key, result);
+        }
+        writeDisk(key, result);
+    }
+
+    public static long memoryHits() {
+        return MEMORY_HITS.get();
+    }
+
+    public static long diskHits() {
+        return DISK_HITS.get();
+    }
+
+    public static long misses() {
+        return MISSES.get();
+    }
+
+    public static String stats() {
+        return "memoryHits=" + MEMORY_HITS.get() + ", diskHits=" + DISK_HITS.get() + ", misses=" + MISSES.get();
+    }
+
+    private static String key(File soFile, String backend, String address) {
+        long value;
+        try {
+            value = ToolExecutor.parseAddress(address);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        String buildId = SymbolStore.buildIdOf(soFile);
+        String module = buildId != null && !buildId.isEmpty()
+                ? buildId
+                : ArchiveLibrary.identity(soFile);
+        if (module.indexOf('\t') >= 0 || module.indexOf('\n') >= 0) {
+            return null;
+        }
+        return module + "|" + backend + "|" + FORMAT + "|" + Long.toHexString(value);
+    }
+
+    /**
+     * 提前建立磁盘记录的偏移表，窗口显示后在后台调用，第一次解析时不再等待
+     */
+    static void preload() {
+        try {
+            ensureLoaded();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 按偏移读取记录，只持有读锁，多个线程的查询互不等待
+     */
+    private static String readDisk(String key) {
+        try {
+            ensureLoaded();
+            DISK_LOCK.readLock().lock();
+            try {
+                Long offset = DISK_OFFSETS.get(key);
+                if (offset == null || disk == null) {
+                    return null;
+                }
+                String line = readLine(disk, offset);
+                int tab = line == null ? -1 : line.indexOf('\t');
+                if (tab < 0 || !line.regionMatches(0, key, 0, tab) || tab != key.length()) {
+                    DISK_OFFSETS.remove(key, offset);
+                    return null;
+                }
+                return line.substring(tab + 1);
+            } finally {
+                DISK_LOCK.readLock().unlock();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 追加一条记录，进程内的写入串行，进程间由文件锁互斥
+     * 文件被其他进程压缩替换过时先重新打开，超过上限时压缩
+     */
+    @SuppressWarnings("try")
+    private static void writeDisk(String key, String result) {
+        try {
+            ensureLoaded();
+            if (DISK_OFFSETS.containsKey(key)) {
+                return;
+            }
+            byte[] line = (key + "\t" + result + "\n").getBytes(StandardCharsets.UTF_8);
+            synchronized (WRITE_LOCK) {
+                try (FileLock lock = FILE_LOCK.acquire()) {
+                    File cacheFile = AppDirs.dataFile(CACHE_FILE);
+                    Object fileKey = DataFileLock.fileKey(cacheFile);
+                    if (disk == null || fileKey == null || !fileKey.equals(diskKey)) {
+                        reopen();
+                    }
+                    if (disk == null || DISK_OFFSETS.containsKey(key)) {
+                        return;
+                    }
+                    long offset = disk.size();
+                    ByteBuffer data = ByteBuffer.wrap(line);
+                    while (data.hasRemaining()) {
+                        disk.write(data, offset + data.position());
+                    }
+                    DISK_OFFSETS.put(key, offset);
+                    if (offset + line.length > MAX_DISK_BYTES) {
+                        compact();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @SuppressWarnings("try")
+    private static void ensureLoaded() throws IOException {
+        if (loaded) {
+            return;
+        }
+        synchronized (WRITE_LOCK) {
+            if (loaded) {
+                return;
+            }
+            try (FileLock lock = FILE_LOCK.acquire()) {
+                reopen();
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * 重新打开缓存文件并建立偏移表，调用方持有WRITE_LOCK和文件锁
+     */
+    private static void reopen() throws IOException {
+        DISK_LOCK.writeLock().lock();
+        try {
+            if (disk != null) {
+                disk.close();
+                disk = null;
+            }
+            DISK_OFFSETS.clear();
+            File cacheFile = AppDirs.dataFile(CACHE_FILE);
+            FileChannel channel = FileChannel.open(cacheFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long end = scan(cacheFile, DISK_OFFSETS);
+            // 上次写入中断留下的半行直接截掉
+            if (end < channel.size()) {
+                channel.truncate(end);
+            }
+            disk = channel;
+            diskKey = DataFileLock.fileKey(cacheFile);
+        } finally {
+            DISK_LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 扫描一遍记录建立键到偏移的映射，结果本身留在磁盘上；返回最后一个完整行的结尾
+     */
+    private static long scan(File cacheFile, Map<String, Long> offsets) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(cacheFile), 64 * 1024)) {
+            ByteArrayOutputStream key = new ByteArrayOutputStream(128);
+            long offset = 0;
+            long lineStart = 0;
+            boolean inKey = true;
+            int b;
+            while ((b = in.read()) != -1) {
+                offset++;
+                if (b == '\n') {
+                    if (!inKey) {
+                        offsets.put(new String(key.toByteArray(), StandardCharsets.UTF_8), lineStart);
+                    }
+                    key.reset();
+                    inKey = true;
+                    lineStart = offset;
+                } else if (inKey) {
+                    if (b == '\t') {
+                        inKey = false;
+                    } else {
+                        key.write(b);
+                    }
+                }
+            }
+            return lineStart;
+        }
+    }
+
+    /**
+     * 按位置读取一行（不含换行），位置读不改变通道状态，多个线程可以同时读
+     */
+    private static String readLine(FileChannel channel, long offset) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        long position = offset;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return null;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    line.write(bytes, 0, i);
+                    return new String(line.toByteArray(), StandardCharsets.UTF_8);
+                }
+            }
+            line.write(bytes, 0, read);
+            position += read;
+        }
+    }
+
+    /**
+     * 按写入顺序保留最新的记录，直到总字节数降到上限的一半
+     * 调用方持有WRITE_LOCK和文件锁；重新扫描文件，其他进程追加的记录一并参与，最后原子替换
+     */
+    private static void compact() throws IOException {
+        File cacheFile = AppDirs.dataFile(CACHE_FILE);
+        Map<String, Long> offsets = new HashMap<>();
+        scan(cacheFile, offsets);
+        List<Long> positions = new ArrayList<>(offsets.values());
+        positions.sort(Collections.reverseOrder());
+        List<String> kept = new ArrayList<>();
+        long size = 0;
+        for (long position : positions) {
+            String line = readLine(disk, position);
+            if (line == null) {
+                continue;
+            }
+            size += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (size > MAX_DISK_BYTES / 2) {
+                break;
+            }
+            kept.add(line);
+        }
+
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+            for (int i = kept.size() - 1; i >= 0; i--) {
+                out.write((kept.get(i) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        try {
+            DataFileLock.replace(temp, cacheFile);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        reopen();
+    }
+}
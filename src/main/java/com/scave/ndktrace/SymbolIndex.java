@@ -0,0 +1,117 @@
+package com.scave.ndktrace;
+
+import java.util.Arrays;
+
+/**
+ * ELF函数符号的紧凑地址索引
+ * 起始地址、大小和名字引用分别存放在并列的基本类型数组中，名字直接引用映射中的字符串表，查询时才解码
+ */
+final class SymbolIndex {
+    private final ElfFile elf;
+    private final long[] starts;
+    private final int[] sizes;
+    private final long[] nameOffsets;
+    private final int count;
+
+    SymbolIndex(ElfFile elf, long[] starts, int[] sizes, long[] nameOffsets, int count) {
+        this.elf = elf;
+        sort(starts, sizes, nameOffsets, 0, count - 1);
+        // .symtab和.dynsym里经常有同一个函数，只保留一份
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique > 0 && starts[unique - 1] == starts[i]) {
+                if (sizes[i] > sizes[unique - 1]) {
+                    sizes[unique - 1] = sizes[i];
+                    nameOffsets[unique - 1] = nameOffsets[i];
+                }
+                continue;
+            }
+            starts[unique] = starts[i];
+            sizes[unique] = sizes[i];
+            nameOffsets[unique] = nameOffsets[i];
+            unique++;
+        }
+        this.starts = Arrays.copyOf(starts, unique);
+        this.sizes = Arrays.copyOf(sizes, unique);
+        this.nameOffsets = Arrays.copyOf(nameOffsets, unique);
+        this.count = unique;
+    }
+
+    /**
+     * 返回包含该地址的符号下标，找不到返回-1
+     */
+    int find(long address) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(starts[mid], address) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int index = low - 1;
+        if (index < 0) {
+            return -1;
+        }
+        // 大小为0的符号（常见于手写汇编）视为一直延伸到下一个符号
+        if (sizes[index] != 0 && address - starts[index] >= (sizes[index] & 0xffffffffL)) {
+            return -1;
+        }
+        return index;
+    }
+
+    long start(int index) {
+        return starts[index];
+    }
+
+    String name(int index) {
+        return elf.symbolName(nameOffsets[index]);
+    }
+
+    int size() {
+        return count;
+    }
+
+    private static void sort(long[] starts, int[] sizes, long[] names, int low, int high) {
+        while (low < high) {
+            long pivot = starts[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (Long.compareUnsigned(starts[i], pivot) < 0) {
+                    i++;
+                }
+                while (Long.compareUnsigned(starts[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(starts, sizes, names, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // 先递归较短的一半，控制栈深度
+            if (j - low < high - i) {
+                sort(starts, sizes, names, low, j);
+                low = i;
+            } else {
+                sort(starts, sizes, names, i, high);
+                high = j;
+            }
+        }
+    }
+
+    private static void swap(long[] starts, int[] sizes, long[] names, int i, int j) {
+        long start = starts[i];
+        starts[i] = starts[j];
+        starts[j] = start;
+        int size = sizes[i];
+        sizes[i] = sizes[j];
+        sizes[j] = size;
+        long name = names[i];
+        names[i] = names[j];
+        names[j] = name;
+    }
+}
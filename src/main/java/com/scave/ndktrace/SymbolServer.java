@@ -0,0 +1,422 @@
+package com.scave.ndktrace;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地HTTP符号化服务，所有请求共享SO索引、结果缓存和symbolizer进程池
+ * POST /symbolize  请求体为墓碑文本，或JSON: {"symbols": "...", "abi": "...", "text": "..."}
+ *                  或 {"symbols": "...", "frames": [{"pc": "...", "module": "...", "buildId": "..."}]}
+ *                  符号根目录也可以通过?symbols=参数指定，未指定时使用启动时的--symbols；
+ *                  客户端指定的路径必须位于--symbols或--allow-symbols目录之下，否则返回400
+ * GET  /stats      请求数、并发、延迟分位数和缓存命中情况，开启统计时包含各阶段耗时
+ * 准入在HttpServer把请求交给线程池之前进行，处理中和排队中的请求达到上限时由单独的小线程池立即返回503
+ */
+final class SymbolServer {
+    // 请求体上限，超过时返回413
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+    // 同时保持的符号根目录数量
+    private static final int MAX_SYMBOLIZERS = 16;
+    private static final int LATENCY_SAMPLES = 1024;
+    // 返回503的线程和队列，这里也满时由HttpServer直接断开连接
+    private static final int REJECT_THREADS = 2;
+    private static final int REJECT_QUEUE = 256;
+    // 在拒绝线程中运行的请求只返回503
+    private static final ThreadLocal<Boolean> REJECTING = new ThreadLocal<>();
+
+    private final File defaultSymbols;
+    // 客户端可以指定的符号根目录范围，规范化后的绝对路径
+    private final List<Path> allowedRoots = new ArrayList<>();
+    private final File ndkPath;
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor rejecter;
+    // 处理中和排队中的请求总数上限，超出直接返回503，内存占用因此有界
+    private final Semaphore admission;
+
+    private final Map<String, StackTraceSymbolizer> symbolizers = new LinkedHashMap<String, StackTraceSymbolizer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, StackTraceSymbolizer> eldest) {
+            return size() > MAX_SYMBOLIZERS;
+        }
+    };
+
+    private final long startTime = System.nanoTime();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long latencyCount;
+
+    SymbolServer(String host, int port, File defaultSymbols, List<File> allowedSymbols, File ndkPath, int threads)
+            throws IOException {
+        this.defaultSymbols = defaultSymbols;
+        this.ndkPath = ndkPath;
+        if (defaultSymbols != null) {
+            allowedRoots.add(normalize(defaultSymbols));
+        }
+        for (File root : allowedSymbols) {
+            allowedRoots.add(normalize(root));
+        }
+        int queueSize = threads * 8;
+        // 许可数等于线程数加队列长度，拿到许可的请求入队一定成功
+        this.admission = new Semaphore(threads + queueSize);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, "symbol-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.rejecter = new ThreadPoolExecutor(REJECT_THREADS, REJECT_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(REJECT_QUEUE), r -> {
+            Thread thread = new Thread(r, "symbol-server-reject");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 128);
+        server.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable exchange) {
+                admit(exchange);
+            }
+        });
+        server.createContext("/symbolize", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleSymbolize(exchange);
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (!rejectIfOverloaded(exchange)) {
+                    send(exchange, 200, "application/json", statsJson());
+                }
+            }
+        });
+        SymbolizerPool.setMaxWorkersPerTool(threads);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(1);
+        executor.shutdownNow();
+        rejecter.shutdownNow();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * 在HttpServer的分发线程中调用，不能阻塞：有许可时交给工作线程池，
+     * 否则交给拒绝线程池返回503；两者都满时抛出RejectedExecutionException，HttpServer会关闭连接
+     */
+    private void admit(Runnable exchange) {
+        if (admission.tryAcquire()) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        exchange.run();
+                    } finally {
+                        admission.release();
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                admission.release();
+            }
+        }
+        rejected.incrementAndGet();
+        rejecter.execute(() -> {
+            REJECTING.set(Boolean.TRUE);
+            try {
+                exchange.run();
+            } finally {
+                REJECTING.remove();
+            }
+        });
+    }
+
+    /**
+     * 不读请求体，直接返回503并关闭连接
+     */
+    private static boolean rejectIfOverloaded(HttpExchange exchange) throws IOException {
+        if (REJECTING.get() == null) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        exchange.getResponseHeaders().set("Connection", "close");
+        send(exchange, 503, "text/plain", "服务繁忙，请稍后重试");
+        exchange.close();
+        return true;
+    }
+
+    private void handleSymbolize(HttpExchange exchange) throws IOException {
+        if (rejectIfOverloaded(exchange)) {
+            return;
+        }
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            send(exchange, 405, "text/plain", "只支持POST");
+            return;
+        }
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        requests.incrementAndGet();
+        try {
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                errors.incrementAndGet();
+                send(exchange, 413, "text/plain", "请求体超过" + MAX_BODY_BYTES + "字节");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String symbols = query.get("symbols");
+            String text = new String(body, StandardCharsets.UTF_8);
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if ((contentType != null && contentType.contains("json")) || text.trim().startsWith("{")) {
+                Map<?, ?> request = (Map<?, ?>) Json.parse(text);
+                if (request.get("symbols") instanceof String) {
+                    symbols = (String) request.get("symbols");
+                }
+                text = toStackText(request);
+            }
+            File symbolsRoot = symbols != null ? new File(symbols) : defaultSymbols;
+            if (symbolsRoot == null) {
+                errors.incrementAndGet();
+                send(exchange, 400, "text/plain", "未指定符号路径");
+                return;
+            }
+            // 先检查范围再检查是否存在，范围外的路径不暴露是否存在
+            if (!isAllowed(symbolsRoot)) {
+                errors.incrementAndGet();
+                send(exchange, 400, "text/plain", "符号路径不在允许的范围内: " + symbols);
+                return;
+            }
+            if (!symbolsRoot.exists()) {
+                errors.incrementAndGet();
+                send(exchange, 400, "text/plain", "符号路径不存在: " + symbolsRoot);
+                return;
+            }
+
+            StackTraceSymbolizer symbolizer = symbolizerFor(symbolsRoot);
+            List<StackFrame> resolved = symbolizer.resolve(text, CancelToken.NONE, null);
+            frames.addAndGet(resolved.size());
+            if ("text".equals(query.get("format"))) {
+                send(exchange, 200, "text/plain", StackTraceSymbolizer.formatFrames(resolved));
+            } else {
+                send(exchange, 200, "application/json", framesJson(resolved, symbolizer.backend(), start));
+            }
+        } catch (IllegalArgumentException | ClassCastException e) {
+            errors.incrementAndGet();
+            send(exchange, 400, "text/plain", "请求格式错误: " + e.getMessage());
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            send(exchange, 500, "text/plain", "内部错误: " + e);
+        } finally {
+            inFlight.decrementAndGet();
+            recordLatency(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 路径规范化后位于某个允许的根目录之下（或就是它）
+     */
+    private boolean isAllowed(File symbolsRoot) {
+        Path path;
+        try {
+            path = normalize(symbolsRoot);
+        } catch (IOException e) {
+            return false;
+        }
+        for (Path root : allowedRoots) {
+            if (path.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 绝对路径去掉"."和".."；已存在的部分再解析符号链接，链接不能用来跳出允许的目录
+     */
+    private static Path normalize(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        Path existing = path;
+        while (existing != null && !existing.toFile().exists()) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return path;
+        }
+        return existing.toRealPath().resolve(existing.relativize(path));
+    }
+
+    /**
+     * JSON中的帧列表转换成墓碑格式的文本，复用同一套解析流程
+     */
+    private static String toStackText(Map<?, ?> request) {
+        StringBuilder text = new StringBuilder();
+        if (request.get("abi") instanceof String) {
+            text.append("ABI: '").append(request.get("abi")).append("'\n");
+        }
+        if (request.get("text") instanceof String) {
+            text.append(request.get("text"));
+            return text.toString();
+        }
+        Object list = request.get("frames");
+        if (!(list instanceof List)) {
+            throw new IllegalArgumentException("需要text或frames字段");
+        }
+        int index = 0;
+        for (Object item : (List<?>) list) {
+            Map<?, ?> frame = (Map<?, ?>) item;
+            String pc = String.valueOf(frame.get("pc"));
+            if (pc.startsWith("0x") || pc.startsWith("0X")) {
+                pc = pc.substring(2);
+            }
+            text.append(String.format("#%02d pc %s  %s", index++, pc, frame.get("module")));
+            if (frame.get("buildId") instanceof String) {
+                text.append(" (BuildId: ").append(frame.get("buildId")).append(')');
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    private StackTraceSymbolizer symbolizerFor(File symbolsRoot) {
+        String key = symbolsRoot.getAbsolutePath();
+        synchronized (symbolizers) {
+            StackTraceSymbolizer symbolizer = symbolizers.get(key);
+            if (symbolizer == null) {
+                symbolizer = new StackTraceSymbolizer(symbolsRoot, ndkPath);
+                symbolizers.put(key, symbolizer);
+            }
+            return symbolizer;
+        }
+    }
+
+    private static String framesJson(List<StackFrame> resolved, String backend, long start) {
+        StringBuilder json = new StringBuilder(resolved.size() * 128);
+        json.append("{\"backend\":").append(Json.quote(backend)).append(",\"frames\":[");
+        for (int i = 0; i < resolved.size(); i++) {
+            StackFrame frame = resolved.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"address\":").append(Json.quote(frame.address))
+                    .append(",\"module\":").append(Json.quote(frame.libPath))
+                    .append(",\"buildId\":").append(Json.quote(frame.buildId))
+                    .append(",\"symbolFile\":").append(Json.quote(frame.soFile.getPath()))
+                    .append(",\"result\":").append(Json.quote(frame.result))
+                    .append(",\"resolved\":").append(!ToolExecutor.isFailure(frame.result))
+                    .append('}');
+        }
+        json.append("],\"elapsedMs\":").append((System.nanoTime() - start) / 1_000_000).append('}');
+        return json.toString();
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = nanos;
+    }
+
+    private String statsJson() {
+        long[] samples;
+        synchronized (this) {
+            samples = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        Arrays.sort(samples);
+        double uptime = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        return "{\"requests\":" + requests.get()
+                + ",\"errors\":" + errors.get()
+                + ",\"rejected\":" + rejected.get()
+                + ",\"inFlight\":" + inFlight.get()
+                + ",\"queued\":" + executor.getQueue().size()
+                + ",\"frames\":" + frames.get()
+                + ",\"requestsPerSecond\":" + String.format("%.2f", requests.get() / uptime)
+                + ",\"framesPerSecond\":" + String.format("%.2f", frames.get() / uptime)
+                + ",\"latencyMs\":{\"p50\":" + percentile(samples, 50)
+                + ",\"p90\":" + percentile(samples, 90)
+                + ",\"p99\":" + percentile(samples, 99)
+                + ",\"max\":" + percentile(samples, 100) + "}"
+                + ",\"cache\":{\"memoryHits\":" + SymbolCache.memoryHits()
+                + ",\"diskHits\":" + SymbolCache.diskHits()
+                + ",\"misses\":" + SymbolCache.misses() + "}"
+                + (Metrics.isEnabled() ? ",\"stages\":" + Metrics.stagesJson() : "")
+                + ",\"uptimeSeconds\":" + (long) uptime + "}";
+    }
+
+    private static String percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return "0";
+        }
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percent / 100.0) - 1);
+        return String.format("%.2f", sorted[Math.max(0, index)] / 1_000_000.0);
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (out.size() + read > MAX_BODY_BYTES) {
+                return null;
+            }
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new LinkedHashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
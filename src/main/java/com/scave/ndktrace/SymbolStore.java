@@ -0,0 +1,351 @@
+package com.scave.ndktrace;
+
+import java.io.*;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 以GNU build-id为键的符号文件仓库
+ * build-id到文件的映射持久化在数据目录中，同一个库的不同构建可以放在一起而不会匹配错
+ * 索引文件由多个进程追加写入，追加和压缩都持有进程间锁
+ */
+public final class SymbolStore {
+    private static final String INDEX_FILE = "buildid-index.tsv";
+    private static final int MAX_RESOLVED = 4096;
+
+    private static final Map<String, Entry> BY_BUILD_ID = new ConcurrentHashMap<>();
+    private static final Map<String, Entry> BY_PATH = new ConcurrentHashMap<>();
+    private static final DataFileLock INDEX_LOCK = new DataFileLock(INDEX_FILE);
+    private static volatile boolean loaded;
+    // 一直打开的追加流，索引文件被其他进程压缩替换后重新打开
+    private static OutputStream appender;
+    private static Object appenderKey;
+    // SO目录+build-id解析出的文件，每帧都查同一批库，命中时只需检查一次文件是否变化
+    private static final Map<String, Resolution> RESOLVED = new LinkedHashMap<String, Resolution>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+            return size() > MAX_RESOLVED;
+        }
+    };
+    // 文件标识（路径、大小、修改时间）到符号详细程度，避免对同一文件反复读节区头
+    private static final Map<String, Integer> DETAILS = new LinkedHashMap<String, Integer>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_RESOLVED;
+        }
+    };
+
+    private SymbolStore() {
+    }
+
+    /**
+     * 解析帧对应的符号文件：先按build-id查找，找不到时回退到文件名匹配
+     */
+    public static File resolve(File soDir, String libName, String buildId, String abi) {
+        SoLibraryIndex index = SoLibraryIndex.forDirectory(soDir);
+        if (buildId != null && !buildId.isEmpty()) {
+            File found = findByBuildId(soDir, index, libName, buildId.toLowerCase(Locale.ROOT));
+            if (found != null) {
+                return found;
+            }
+        }
+        return index.find(libName, abi);
+    }
+
+    /**
+     * 读取文件的build-id，文件未变化时直接使用持久化的结果
+     */
+    public static String buildIdOf(File file) {
+        if (ArchiveLibrary.isEntry(file)) {
+            // 压缩包中的条目不写入持久化索引，压缩包更新后路径不变
+            return ArchiveLibrary.buildIdOf(file);
+        }
+        ensureLoaded();
+        String path = file.getAbsolutePath();
+        Entry cached = BY_PATH.get(path);
+        if (cached != null && cached.matches(file)) {
+            return cached.buildId;
+        }
+        String buildId;
+        try {
+            buildId = ElfFile.readBuildId(file);
+        } catch (IOException | RuntimeException e) {
+            // 损坏的文件只是没有build-id，不影响其他帧
+            buildId = null;
+        }
+        // 没有build-id的文件也记录下来，避免下次重复读取
+        Entry entry = new Entry(buildId == null ? "" : buildId, path, file.length(), file.lastModified());
+        record(entry);
+        return buildId;
+    }
+
+    /**
+     * 按SO目录和build-id记住解析结果，索引内容和选中的文件都没变时直接返回
+     */
+    private static File findByBuildId(File soDir, SoLibraryIndex index, String libName, String buildId) {
+        Path root = soDir.toPath().toAbsolutePath().normalize();
+        String key = root + "|" + libName + "|" + buildId;
+        Resolution cached;
+        synchronized (RESOLVED) {
+            cached = RESOLVED.get(key);
+        }
+        if (cached != null && cached.isValid(index)) {
+            return cached.file;
+        }
+        // 版本在解析之前读取，解析期间索引有变化时这次的结果下次不会被使用
+        long generation = index.generation();
+        File found = resolveByBuildId(root, index, libName, buildId);
+        Resolution resolution = new Resolution(index, generation, found);
+        synchronized (RESOLVED) {
+            RESOLVED.put(key, resolution);
+        }
+        return found;
+    }
+
+    /**
+     * 同一build-id常有剥离前后的多个副本，返回符号信息最全的一个，遇到带调试信息的立即返回
+     * 持久化的记录只在它位于当前SO目录下时使用
+     */
+    private static File resolveByBuildId(Path root, SoLibraryIndex index, String libName, String buildId) {
+        ensureLoaded();
+        File soDir = root.toFile();
+        Set<File> candidates = new LinkedHashSet<>();
+        // 兼容.build-id/xx/yyyy.debug的目录布局
+        if (buildId.length() > 2) {
+            candidates.add(new File(soDir, ".build-id" + File.separator + buildId.substring(0, 2)
+                    + File.separator + buildId.substring(2) + ".debug"));
+        }
+        Entry entry = BY_BUILD_ID.get(buildId);
+        if (entry != null) {
+            File file = new File(entry.path);
+            if (file.toPath().toAbsolutePath().normalize().startsWith(root) && entry.matches(file)) {
+                candidates.add(file);
+            }
+        }
+        candidates.addAll(index.candidates(libName));
+
+        File best = null;
+        int bestDetail = -1;
+        for (File candidate : candidates) {
+            if (!candidate.isFile() || !buildId.equals(buildIdOf(candidate))) {
+                continue;
+            }
+            int detail = symbolDetail(candidate);
+            if (detail > bestDetail) {
+                best = candidate;
+                bestDetail = detail;
+                if (detail == 2) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int symbolDetail(File file) {
+        String identity = ArchiveLibrary.identity(file);
+        Integer cached;
+        synchronized (DETAILS) {
+            cached = DETAILS.get(identity);
+        }
+        if (cached != null) {
+            return cached;
+        }
+        int detail;
+        try {
+            detail = ElfFile.symbolDetail(file);
+        } catch (IOException e) {
+            detail = 0;
+        }
+        synchronized (DETAILS) {
+            DETAILS.put(identity, detail);
+        }
+        return detail;
+    }
+
+    @SuppressWarnings("try")
+    private static void record(Entry entry) {
+        Entry previous = BY_PATH.put(entry.path, entry);
+        if (!entry.buildId.isEmpty()) {
+            BY_BUILD_ID.put(entry.buildId, entry);
+        }
+        if (previous != null && previous.equals(entry)) {
+            return;
+        }
+        byte[] line = format(entry).getBytes(StandardCharsets.UTF_8);
+        synchronized (SymbolStore.class) {
+            File indexFile = AppDirs.dataFile(INDEX_FILE);
+            try (FileLock lock = INDEX_LOCK.acquire()) {
+                Object key = DataFileLock.fileKey(indexFile);
+                if (appender == null || key == null || !key.equals(appenderKey)) {
+                    closeAppender();
+                    appender = new FileOutputStream(indexFile, true);
+                    appenderKey = DataFileLock.fileKey(indexFile);
+                }
+                appender.write(line);
+                appender.flush();
+            } catch (IOException e) {
+                closeAppender();
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void closeAppender() {
+        if (appender != null) {
+            try {
+                appender.close();
+            } catch (IOException ignored) {
+            }
+            appender = null;
+            appenderKey = null;
+        }
+    }
+
+    private static String format(Entry entry) {
+        return entry.buildId + "\t" + entry.size + "\t" + entry.lastModified + "\t" + entry.path + "\n";
+    }
+
+    /**
+     * 提前读入build-id索引，窗口显示后在后台调用
+     */
+    static void preload() {
+        ensureLoaded();
+    }
+
+    private static void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (SymbolStore.class) {
+            if (loaded) {
+                return;
+            }
+            File indexFile = AppDirs.dataFile(INDEX_FILE);
+            int lines = load(indexFile);
+            if (lines > BY_PATH.size() * 2 + 1024) {
+                compact(indexFile);
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * 读入索引文件，返回行数；追加写入，后面的记录覆盖前面的
+     */
+    private static int load(File indexFile) {
+        int lines = 0;
+        if (!indexFile.exists()) {
+            return 0;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                String[] parts = line.split("\t", 4);
+                if (parts.length < 4) {
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(parts[0], parts[3], Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                    BY_PATH.put(entry.path, entry);
+                    if (!entry.buildId.isEmpty()) {
+                        BY_BUILD_ID.put(entry.buildId, entry);
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return lines;
+    }
+
+    /**
+     * 重复记录过多时重写索引文件，只保留每个文件的最新记录
+     * 持有进程间锁后重新读一遍文件，其他进程在此之前追加的记录不会丢失；替换是原子的
+     */
+    @SuppressWarnings("try")
+    private static void compact(File indexFile) {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (FileLock lock = INDEX_LOCK.acquire()) {
+            load(indexFile);
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                for (Entry entry : BY_PATH.values()) {
+                    writer.write(format(entry));
+                }
+            }
+            closeAppender();
+            DataFileLock.replace(temp, indexFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+        }
+    }
+
+    /**
+     * 一次build-id解析的结果，没找到时file为null
+     * 候选文件的增删由索引版本反映，选中的文件被原地覆盖时由它的标识发现
+     */
+    private static final class Resolution {
+        final SoLibraryIndex index;
+        final long generation;
+        final File file;
+        final String identity;
+
+        Resolution(SoLibraryIndex index, long generation, File file) {
+            this.index = index;
+            this.generation = generation;
+            this.file = file;
+            this.identity = file == null ? null : ArchiveLibrary.identity(file);
+        }
+
+        boolean isValid(SoLibraryIndex current) {
+            if (current != index || current.generation() != generation) {
+                return false;
+            }
+            return file == null || identity.equals(ArchiveLibrary.identity(file));
+        }
+    }
+
+    private static final class Entry {
+        final String buildId;
+        final String path;
+        final long size;
+        final long lastModified;
+
+        Entry(String buildId, String path, long size, long lastModified) {
+            this.buildId = buildId;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean matches(File file) {
+            return file.isFile() && file.length() == size && file.lastModified() == lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return buildId.equals(other.buildId) && path.equals(other.path)
+                    && size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+    }
+}
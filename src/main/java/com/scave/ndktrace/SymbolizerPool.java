@@ -0,0 +1,280 @@
+package com.scave.ndktrace;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常驻的llvm-symbolizer进程池
+ * 每个进程以交互模式运行，从stdin读取"模块 地址"请求，避免每一帧都重新加载一次DWARF
+ */
+public final class SymbolizerPool {
+    // 空闲超过该时间的进程会被回收
+    private static final long IDLE_TIMEOUT_MS = 60_000;
+    private static final long EVICT_INTERVAL_MS = 15_000;
+    // 单个请求的期限，超时后结束该进程，首次加载很大的DWARF也应在此之内
+    private static final long QUERY_TIMEOUT_MS = 30_000;
+    // 启动新进程时等待全局进程配额的时间
+    private static final long PERMIT_TIMEOUT_MS = 30_000;
+
+    private static final Map<String, ToolWorkers> POOLS = new HashMap<>();
+    private static volatile int maxWorkersPerTool = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static ScheduledExecutorService evictor;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(SymbolizerPool::shutdown, "symbolizer-pool-shutdown"));
+    }
+
+    private SymbolizerPool() {
+    }
+
+    public static void setMaxWorkersPerTool(int max) {
+        maxWorkersPerTool = Math.max(1, max);
+    }
+
+    /**
+     * 解析一个地址，返回llvm-symbolizer输出的原始行（不含结尾空行）
+     * 进程崩溃时会自动重启一次再重试
+     */
+    public static List<String> symbolize(File toolFile, File soFile, String address) throws IOException {
+        return symbolize(toolFile, soFile, address, CancelToken.NONE);
+    }
+
+    /**
+     * 取消任务时正在查询的进程会被结束，该进程不再放回池中
+     */
+    public static List<String> symbolize(File toolFile, File soFile, String address, CancelToken token) throws IOException {
+        ToolWorkers workers = workersFor(toolFile);
+        String request = "\"" + soFile.getAbsolutePath() + "\" " + address;
+        Worker worker = workers.borrow();
+        boolean healthy = false;
+        try {
+            List<String> lines;
+            try {
+                lines = worker.query(request, token);
+            } catch (IOException e) {
+                if (token.isCancelled()) {
+                    throw new InterruptedIOException("已取消");
+                }
+                if (e instanceof InterruptedIOException) {
+                    // 请求超时，换进程重试也一样慢
+                    throw e;
+                }
+                // 进程已经退出或管道损坏，换一个新进程重试
+                worker.close();
+                worker = workers.restart();
+                lines = worker.query(request, token);
+            }
+            healthy = true;
+            return lines;
+        } finally {
+            if (healthy && worker.isAlive()) {
+                workers.giveBack(worker);
+            } else {
+                worker.close();
+                workers.discard();
+            }
+        }
+    }
+
+    public static synchronized void shutdown() {
+        for (ToolWorkers workers : POOLS.values()) {
+            workers.closeAll();
+        }
+        POOLS.clear();
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+    }
+
+    private static synchronized ToolWorkers workersFor(File toolFile) {
+        String key = toolFile.getAbsolutePath();
+        ToolWorkers workers = POOLS.get(key);
+        if (workers == null) {
+            workers = new ToolWorkers(toolFile);
+            POOLS.put(key, workers);
+        }
+        if (evictor == null) {
+            evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "symbolizer-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            evictor.scheduleWithFixedDelay(SymbolizerPool::evictIdle,
+                    EVICT_INTERVAL_MS, EVICT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        return workers;
+    }
+
+    /**
+     * 立即结束所有空闲进程，全局进程配额用完时由ProcessRunner调用
+     */
+    static synchronized void releaseIdle() {
+        for (ToolWorkers workers : POOLS.values()) {
+            workers.evictIdle(Long.MAX_VALUE);
+        }
+    }
+
+    private static synchronized void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (ToolWorkers workers : POOLS.values()) {
+            workers.evictIdle(now);
+        }
+    }
+
+    private static final class ToolWorkers {
+        private final File toolFile;
+        private final Deque<Worker> idle = new ArrayDeque<>();
+        private int total;
+
+        ToolWorkers(File toolFile) {
+            this.toolFile = toolFile;
+        }
+
+        /**
+         * 先占住名额再在锁外启动进程，等待进程配额时不妨碍其他线程归还进程
+         */
+        Worker borrow() throws IOException {
+            synchronized (this) {
+                while (true) {
+                    Worker worker = idle.pollFirst();
+                    if (worker != null) {
+                        if (worker.isAlive()) {
+                            return worker;
+                        }
+                        total--;
+                        continue;
+                    }
+                    if (total < maxWorkersPerTool) {
+                        total++;
+                        break;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("等待symbolizer进程时被中断");
+                    }
+                }
+            }
+            try {
+                return new Worker(toolFile);
+            } catch (IOException | RuntimeException e) {
+                discard();
+                throw e;
+            }
+        }
+
+        Worker restart() throws IOException {
+            return new Worker(toolFile);
+        }
+
+        synchronized void giveBack(Worker worker) {
+            worker.lastUsed = System.currentTimeMillis();
+            idle.addFirst(worker);
+            notifyAll();
+        }
+
+        synchronized void discard() {
+            total--;
+            notifyAll();
+        }
+
+        synchronized void evictIdle(long now) {
+            Iterator<Worker> it = idle.iterator();
+            while (it.hasNext()) {
+                Worker worker = it.next();
+                if (!worker.isAlive() || now - worker.lastUsed > IDLE_TIMEOUT_MS) {
+                    worker.close();
+                    it.remove();
+                    total--;
+                }
+            }
+        }
+
+        synchronized void closeAll() {
+            for (Worker worker : idle) {
+                worker.close();
+            }
+            idle.clear();
+            total = 0;
+        }
+    }
+
+    private static final class Worker {
+        private final ProcessRunner.Running running;
+        private final Process process;
+        private final BufferedWriter writer;
+        private final BufferedReader reader;
+        private long lastUsed = System.currentTimeMillis();
+
+        Worker(File toolFile) throws IOException {
+            running = ProcessRunner.start(Collections.singletonList(toolFile.getAbsolutePath()), PERMIT_TIMEOUT_MS);
+            process = running.process;
+            writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        List<String> query(String request, CancelToken token) throws IOException {
+            token.register(process);
+            ProcessRunner.Deadline deadline = ProcessRunner.killAfter(process, QUERY_TIMEOUT_MS);
+            try {
+                return query(request);
+            } catch (IOException e) {
+                if (deadline.expired()) {
+                    throw new InterruptedIOException("llvm-symbolizer超时（" + QUERY_TIMEOUT_MS + "ms）");
+                }
+                throw e;
+            } finally {
+                deadline.cancel();
+                token.unregister(process);
+            }
+        }
+
+        private List<String> query(String request) throws IOException {
+            writer.write(request);
+            writer.write('\n');
+            writer.flush();
+
+            // 每个请求的结果以空行结束
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Metrics.toolOutput(line.length() + 1);
+                if (line.isEmpty()) {
+                    return lines;
+                }
+                lines.add(line);
+            }
+            String stderr = running.stderrTail();
+            throw new EOFException("llvm-symbolizer进程意外退出" + (stderr.isEmpty() ? "" : "：" + stderr));
+        }
+
+        boolean isAlive() {
+            return process.isAlive();
+        }
+
+        void close() {
+            // 只统计进程自己退出的退出码，被回收的进程由这里结束，不计入
+            if (!process.isAlive()) {
+                Metrics.processExited(process.exitValue());
+            }
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+            ProcessRunner.destroyTree(process);
+        }
+    }
+}
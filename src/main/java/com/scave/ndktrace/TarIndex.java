@@ -0,0 +1,461 @@
+package com.scave.ndktrace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * tar.gz/tgz符号包的索引：条目名、大小、解压后数据偏移和SO的build-id
+ * gzip不能随机访问，建索引时顺序读一遍，只保留每个SO开头一段用于读build-id，不落盘任何条目；
+ * 索引按压缩包路径、大小和修改时间保存在数据目录中，重启后不用再读一遍；
+ * 读一遍可能要很久，只在各压缩包自己的锁中进行，不阻塞其他压缩包
+ */
+final class TarIndex {
+    private static final int MAX_INDEXES = 8;
+    private static final int BLOCK = 512;
+    private static final String INDEX_DIR = "archive-index";
+    private static final String INDEX_VERSION = "v1";
+
+    private static final Map<String, TarIndex> INDEXES = new LinkedHashMap<String, TarIndex>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TarIndex> eldest) {
+            return size() > MAX_INDEXES;
+        }
+    };
+
+    private final File archive;
+    private final long length;
+    private final long lastModified;
+    private final Map<String, Entry> byName = new HashMap<>();
+    private final Map<String, List<Entry>> byBaseName = new HashMap<>();
+    private boolean loaded;
+    private IOException failure;
+
+    private TarIndex(File archive) {
+        this.archive = archive;
+        this.length = archive.length();
+        this.lastModified = archive.lastModified();
+    }
+
+    static boolean isTarName(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".tar.gz") || lower.endsWith(".tgz");
+    }
+
+    static TarIndex forArchive(File archive) throws IOException {
+        String key = archive.getAbsolutePath();
+        TarIndex index;
+        synchronized (INDEXES) {
+            index = INDEXES.get(key);
+            if (index == null || index.length != archive.length() || index.lastModified != archive.lastModified()) {
+                index = new TarIndex(archive.getAbsoluteFile());
+                INDEXES.put(key, index);
+            }
+        }
+        try {
+            index.ensureLoaded();
+        } catch (IOException e) {
+            synchronized (INDEXES) {
+                if (INDEXES.get(key) == index) {
+                    INDEXES.remove(key);
+                }
+            }
+            throw e;
+        }
+        return index;
+    }
+
+    /**
+     * 第一次使用时读取保存的索引或扫描压缩包，同一压缩包的其他线程等待同一次扫描
+     */
+    private synchronized void ensureLoaded() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (loaded) {
+            return;
+        }
+        try {
+            if (!loadSaved()) {
+                scan();
+                save();
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e instanceof IOException ? (IOException) e : new IOException("tar文件损坏: " + archive, e);
+            throw failure;
+        }
+        loaded = true;
+    }
+
+    File archive() {
+        return archive;
+    }
+
+    Entry entry(String name) {
+        return byName.get(name);
+    }
+
+    Entry findLibrary(String libName, String abi) {
+        List<Entry> candidates = byBaseName.get(libName);
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        if (abi != null) {
+            String normalized = SoLibraryIndex.normalizeAbi(abi);
+            for (Entry entry : candidates) {
+                if (normalized.equals(entry.abi())) {
+                    return entry;
+                }
+            }
+        }
+        return candidates.get(0);
+    }
+
+    List<Entry> libraries(String libName) {
+        List<Entry> candidates = byBaseName.get(libName);
+        return candidates == null ? Collections.emptyList() : candidates;
+    }
+
+    /**
+     * 条目的数据流，需要从头解压并跳过前面的内容
+     */
+    InputStream open(Entry entry) throws IOException {
+        InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(archive), 65536), 65536);
+        try {
+            skipFully(in, entry.dataOffset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new FilterInputStream(in) {
+            private long remaining = entry.size;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = super.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) {
+                    remaining -= n;
+                }
+                return n;
+            }
+        };
+    }
+
+    File extract(Entry entry) throws IOException {
+        return ExtractionCache.extract(archive, entry.name, entry.size, () -> open(entry));
+    }
+
+    /**
+     * 顺序读一遍压缩包，支持ustar前缀、GNU长文件名和pax扩展头中的path/size
+     */
+    private void scan() throws IOException {
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(archive), 65536), 65536)) {
+            byte[] header = new byte[BLOCK];
+            long position = 0;
+            String longName = null;
+            long paxSize = -1;
+            while (true) {
+                if (!readBlock(in, header)) {
+                    break;
+                }
+                position += BLOCK;
+                if (isZeroBlock(header)) {
+                    break;
+                }
+                long size = paxSize >= 0 ? paxSize : parseSize(header);
+                char type = (char) header[156];
+                long padded = (size + BLOCK - 1) / BLOCK * BLOCK;
+
+                if (type == 'L' || type == 'x') {
+                    byte[] data = readBytes(in, size);
+                    skipFully(in, padded - size);
+                    position += padded;
+                    if (type == 'L') {
+                        longName = cString(data, 0, data.length);
+                    } else {
+                        Map<String, String> pax = parsePax(data);
+                        if (pax.containsKey("path")) {
+                            longName = pax.get("path");
+                        }
+                        if (pax.containsKey("size")) {
+                            paxSize = Long.parseLong(pax.get("size"));
+                        }
+                    }
+                    continue;
+                }
+
+                String name = longName != null ? longName : headerName(header);
+                longName = null;
+                paxSize = -1;
+                if (type != '0' && type != '\0') {
+                    skipFully(in, padded);
+                    position += padded;
+                    continue;
+                }
+                if (name.startsWith("./")) {
+                    name = name.substring(2);
+                }
+                // 只有以ELF魔数开头的条目才读build-id
+                byte[] prefix = readBytes(in, Math.min(size, ArchiveLibrary.PREFIX_BYTES));
+                skipFully(in, padded - prefix.length);
+                String buildId = null;
+                if (prefix.length > 4 && prefix[0] == 0x7f && prefix[1] == 'E' && prefix[2] == 'L' && prefix[3] == 'F') {
+                    buildId = ElfFile.buildIdOfHeader(ByteBuffer.wrap(prefix));
+                }
+                add(new Entry(name, size, position, buildId));
+                position += padded;
+            }
+        }
+    }
+
+    private void add(Entry entry) {
+        if (entry.name.isEmpty() || entry.name.endsWith("/")) {
+            return;
+        }
+        byName.put(entry.name, entry);
+        byBaseName.computeIfAbsent(entry.baseName(), k -> new ArrayList<>(1)).add(entry);
+    }
+
+    /**
+     * 保存的索引第一行是版本、压缩包大小和修改时间，之后每行一个条目：名称、大小、数据偏移、build-id
+     */
+    private File savedFile() {
+        return new File(AppDirs.dataFile(INDEX_DIR), ExtractionCache.digest(archive.getPath()) + ".tsv");
+    }
+
+    private boolean loadSaved() {
+        File file = savedFile();
+        if (!file.isFile()) {
+            return false;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String first = reader.readLine();
+            if (!(INDEX_VERSION + "\t" + length + "\t" + lastModified).equals(first)) {
+                return false;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 4) {
+                    continue;
+                }
+                add(new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        fields[3].isEmpty() ? null : fields[3]));
+            }
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            byName.clear();
+            byBaseName.clear();
+            return false;
+        }
+    }
+
+    private void save() {
+        File file = savedFile();
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File temp = new File(dir, file.getName() + ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                out.write(INDEX_VERSION + "\t" + length + "\t" + lastModified + "\n");
+                for (Entry entry : byName.values()) {
+                    if (entry.name.indexOf('\t') >= 0 || entry.name.indexOf('\n') >= 0) {
+                        continue;
+                    }
+                    out.write(entry.name + "\t" + entry.size + "\t" + entry.dataOffset + "\t"
+                            + (entry.buildId == null ? "" : entry.buildId) + "\n");
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 保存失败只影响下次启动的速度
+            temp.delete();
+        }
+    }
+
+    private static String headerName(byte[] header) {
+        String name = cString(header, 0, 100);
+        if (header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r') {
+            String prefix = cString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * 大小字段通常是八进制文本，超过8GB时GNU tar改用最高位为1的二进制大端数
+     */
+    private static long parseSize(byte[] header) throws IOException {
+        if ((header[124] & 0x80) != 0) {
+            long size = 0;
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (header[i] & 0xff);
+            }
+            return size;
+        }
+        long size = 0;
+        for (int i = 124; i < 136; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (size > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("tar头损坏");
+            }
+            size = (size << 3) | (b - '0');
+        }
+        return size;
+    }
+
+    /**
+     * pax记录格式为"长度 键=值\n"
+     */
+    private static Map<String, String> parsePax(byte[] data) {
+        Map<String, String> records = new HashMap<>();
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                break;
+            }
+            if (length <= 0 || pos + length > data.length) {
+                break;
+            }
+            String record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            int eq = record.indexOf('=');
+            if (eq > 0) {
+                records.put(record.substring(0, eq), record.substring(eq + 1));
+            }
+            pos += length;
+        }
+        return records;
+    }
+
+    private static String cString(byte[] bytes, int offset, int max) {
+        int end = offset;
+        while (end < offset + max && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int n = in.read(block, read, block.length - read);
+            if (n < 0) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("tar文件被截断");
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private static byte[] readBytes(InputStream in, long count) throws IOException {
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("tar扩展头过大");
+        }
+        byte[] data = new byte[(int) count];
+        if (count > 0 && !readBlock(in, data)) {
+            throw new EOFException("tar文件被截断");
+        }
+        return data;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("tar文件被截断");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    static final class Entry {
+        final String name;
+        final long size;
+        // 解压后的tar流中数据开始的位置
+        final long dataOffset;
+        final String buildId;
+
+        Entry(String name, long size, long dataOffset, String buildId) {
+            this.name = name;
+            this.size = size;
+            this.dataOffset = dataOffset;
+            this.buildId = buildId;
+        }
+
+        String baseName() {
+            return name.substring(name.lastIndexOf('/') + 1);
+        }
+
+        String abi() {
+            int end = name.lastIndexOf('/');
+            int start = name.lastIndexOf('/', end - 1) + 1;
+            return end > 0 ? SoLibraryIndex.normalizeAbi(name.substring(start, end)) : null;
+        }
+    }
+}
@@ -1,64 +1,167 @@
 package com.scave.ndktrace;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public final class ToolExecutor {
-    public static String execSymbolizer(File soFile, String address, File toolFile) {
-        try {
-            ProcessBuilder pb = new ProcessBuilder(
-                    toolFile.getAbsolutePath(),
-                    "-e", soFile.getAbsolutePath(),
-                    address
-            );
+    // 单次addr2line调用最多携带的地址数，避免命令行过长
+    private static final int MAX_ADDRESSES_PER_CALL = 256;
+    // addr2line -i -p输出的内联调用者行的前缀，和llvm-symbolizer结果整理后的格式相同
+    private static final String INLINED_BY = " (inlined by) ";
+    // 一次addr2line调用（含等待进程配额）的期限，超时后结束进程
+    private static final long ADDR2LINE_TIMEOUT_MS = 60_000;
 
-            Process process = pb.start();
-            java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(process.getInputStream()));
+    public static String execSymbolizer(File soFile, String address, File toolFile) {
+        return execSymbolizer(soFile, address, toolFile, CancelToken.NONE);
+    }
 
-            StringBuilder output = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line);
+    public static String execSymbolizer(File soFile, String address, File toolFile, CancelToken token) {
+        long start = Metrics.start();
+        try {
+            List<String> lines = SymbolizerPool.symbolize(toolFile, ArchiveLibrary.materialize(soFile), address, token);
+            if (lines.isEmpty()) {
+                return "解析失败，无输出";
             }
+            return formatSymbolizerOutput(lines);
+        } catch (Exception e) {
+            return "执行错误: " + e.getMessage();
+        } finally {
+            Metrics.stop(Metrics.Stage.SYMBOLIZER, start);
+        }
+    }
 
-            int exitCode = process.waitFor();
-            if (exitCode == 0) {
-                return output.toString();
-            } else {
-                return "解析失败，退出码: " + exitCode;
+    /**
+     * 将llvm-symbolizer的"函数名/文件:行:列"成对输出整理成和addr2line -p相同的单行格式
+     */
+    static String formatSymbolizerOutput(List<String> lines) {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < lines.size(); i += 2) {
+            if (i > 0) {
+                output.append(" (inlined by) ");
+            }
+            output.append(lines.get(i));
+            if (i + 1 < lines.size()) {
+                output.append(" at ").append(lines.get(i + 1));
             }
+        }
+        return output.toString();
+    }
+
+    /**
+     * 使用内置的ELF/DWARF解析器符号化，不需要启动任何进程
+     */
+    public static String execBuiltin(File soFile, String address) {
+        long start = Metrics.start();
+        try {
+            return ElfSymbolizer.symbolize(soFile, parseAddress(address));
         } catch (Exception e) {
             return "执行错误: " + e.getMessage();
+        } finally {
+            Metrics.stop(Metrics.Stage.BUILTIN, start);
         }
     }
 
-    public static String execAddr2line(File soFile, String address, File toolFile) {
+    /**
+     * 只查符号表得到"函数名+偏移"，用于没有调试信息的SO或外部工具失败时兜底
+     */
+    public static String execSymbolTable(File soFile, String address) {
+        long start = Metrics.start();
         try {
-            ProcessBuilder pb = new ProcessBuilder(
-                    toolFile.getAbsolutePath(),
-                    "-e", soFile.getAbsolutePath(),
-                    "-f", "-C", "-p",
-                    address
-            );
+            return ElfSymbolizer.symbolizeFunction(soFile, parseAddress(address));
+        } catch (Exception e) {
+            return "执行错误: " + e.getMessage();
+        } finally {
+            Metrics.stop(Metrics.Stage.SYMBOL_TABLE, start);
+        }
+    }
 
-            Process process = pb.start();
-            java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(process.getInputStream()));
+    /**
+     * 工具没有给出函数名时认为解析失败
+     */
+    public static boolean isFailure(String result) {
+        return result == null || result.startsWith("解析失败") || result.startsWith("执行错误") || result.startsWith("??");
+    }
 
-            StringBuilder output = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line);
+    static long parseAddress(String address) {
+        String hex = address.startsWith("0x") || address.startsWith("0X") ? address.substring(2) : address;
+        return Long.parseUnsignedLong(hex, 16);
+    }
+
+    public static String execAddr2line(File soFile, String address, File toolFile) {
+        return execAddr2line(soFile, Collections.singletonList(address), toolFile).get(0);
+    }
+
+    /**
+     * 一次addr2line调用解析同一个SO中的多个地址，返回结果与地址一一对应
+     */
+    public static List<String> execAddr2line(File soFile, List<String> addresses, File toolFile) {
+        return execAddr2line(soFile, addresses, toolFile, CancelToken.NONE);
+    }
+
+    public static List<String> execAddr2line(File soFile, List<String> addresses, File toolFile, CancelToken token) {
+        try {
+            soFile = ArchiveLibrary.materialize(soFile);
+        } catch (Exception e) {
+            return fill(addresses.size(), "执行错误: " + e.getMessage());
+        }
+        List<String> results = new ArrayList<>(addresses.size());
+        for (int from = 0; from < addresses.size(); from += MAX_ADDRESSES_PER_CALL) {
+            int to = Math.min(from + MAX_ADDRESSES_PER_CALL, addresses.size());
+            if (token.isCancelled()) {
+                results.addAll(fill(to - from, "执行错误: 已取消"));
+                continue;
             }
+            results.addAll(execAddr2lineBatch(soFile, addresses.subList(from, to), toolFile, token));
+        }
+        return results;
+    }
 
-            int exitCode = process.waitFor();
-            if (exitCode == 0) {
-                return output.toString();
-            } else {
-                return "解析失败，退出码: " + exitCode;
+    private static List<String> execAddr2lineBatch(File soFile, List<String> addresses, File toolFile, CancelToken token) {
+        long start = Metrics.start();
+        try {
+            List<String> command = new ArrayList<>();
+            command.add(toolFile.getAbsolutePath());
+            command.add("-e");
+            command.add(soFile.getAbsolutePath());
+            command.add("-f");
+            command.add("-i");
+            command.add("-p");
+            command.addAll(addresses);
+            ProcessRunner.Result result = ProcessRunner.run(command, ADDR2LINE_TIMEOUT_MS, token);
+            if (result.exitCode != 0) {
+                return fill(addresses.size(), "解析失败，" + result.describeFailure());
+            }
+            // 每个地址输出一行，内联时后面跟着若干" (inlined by) "行，合并成一条结果；
+            // 不让addr2line还原名字，统一用进程内的还原和缓存，输出和其他后端一致
+            List<String> results = new ArrayList<>(addresses.size());
+            StringBuilder current = null;
+            for (String line : result.lines) {
+                if (current != null && line.startsWith(INLINED_BY)) {
+                    current.append(line);
+                    continue;
+                }
+                if (current != null) {
+                    results.add(Demangler.demangleResult(current.toString()));
+                }
+                current = new StringBuilder(line);
+            }
+            if (current != null) {
+                results.add(Demangler.demangleResult(current.toString()));
             }
+            while (results.size() < addresses.size()) {
+                results.add("解析失败，无输出");
+            }
+            return results.subList(0, addresses.size());
         } catch (Exception e) {
-            return "执行错误: " + e.getMessage();
+            return fill(addresses.size(), "执行错误: " + e.getMessage());
+        } finally {
+            Metrics.stop(Metrics.Stage.ADDR2LINE, start);
         }
     }
+
+    private static List<String> fill(int count, String message) {
+        return new ArrayList<>(Collections.nCopies(count, message));
+    }
 }
@@ -1,23 +1,88 @@
 package com.scave.ndktrace;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public final class ToolSearcher {
+    // 所有扫描来源共用的截止时间，超时的来源直接放弃，不拖慢整体结果
+    private static final long DISCOVERY_TIMEOUT_MS = 3000;
+    private static final long REGISTRY_TIMEOUT_MS = 2000;
+    private static final String CACHE_FILE = "ndk-discovery.tsv";
+
+    // 卡在慢速网络盘上的扫描线程无法中断，用守护线程避免阻止进程退出
+    private static final ExecutorService DISCOVERY = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ndk-discovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 并发扫描本机安装的NDK，每个来源（环境变量、常见路径、IDE配置、注册表）都受同一个截止时间约束
+     * 结果写入发现缓存，供cachedNdkList()在下次启动时直接使用
+     */
     public static List<String> findNdkList() {
-        if (System.getProperty("os.name").toLowerCase().contains("windows")) {
-            return scanNdkOnWindows();
-        } else {
-            return scanNdkOnUnix();
+        long start = Metrics.start();
+        try {
+            List<Callable<List<String>>> sources;
+            if (System.getProperty("os.name").toLowerCase().contains("windows")) {
+                sources = windowsSources();
+            } else {
+                sources = unixSources();
+            }
+            List<String> found = probeAll(sources);
+            saveCache(found);
+            return found;
+        } finally {
+            Metrics.stop(Metrics.Stage.NDK_SCAN, start);
         }
     }
 
+    /**
+     * 上次扫描的结果，NDK目录及其上级目录的修改时间都没有变化时才有效，否则返回null
+     */
+    public static List<String> cachedNdkList() {
+        File cacheFile = AppDirs.dataFile(CACHE_FILE);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        List<String> ndks = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(cacheFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 3) {
+                    continue;
+                }
+                if (new File(fields[1]).lastModified() != Long.parseLong(fields[2])) {
+                    return null;
+                }
+                if ("ndk".equals(fields[0])) {
+                    ndks.add(fields[1]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+        return ndks.isEmpty() ? null : ndks;
+    }
+
     public static File findSymbolizerTool(File ndkPath) {
         File toolchainsDir = new File(ndkPath, "toolchains");
         File llvmDir = new File(toolchainsDir, "llvm");
@@ -73,21 +138,24 @@ public final class ToolSearcher {
         return null;
     }
 
-    private static List<String> scanNdkOnWindows() {
-        List<String> foundNdks = new ArrayList<>();
+    private static List<Callable<List<String>>> windowsSources() {
+        List<Callable<List<String>>> sources = new ArrayList<>();
         // 检查环境变量
-        foundNdks.addAll(scanEnvironmentVariables());
-        // 检查常见安装路径
-        foundNdks.addAll(scanCommonInstallPaths());
+        sources.add(ToolSearcher::scanEnvironmentVariables);
+        // 检查常见安装路径，每个路径单独探测，某个网络盘无响应时不影响其他路径
+        for (String path : commonInstallPaths()) {
+            sources.add(() -> probeRoot(path));
+        }
         // 检查Android Studio配置
-        foundNdks.addAll(scanAndroidStudioConfig());
+        sources.add(ToolSearcher::scanAndroidStudioConfig);
         // 检查注册表
-        foundNdks.addAll(scanWindowsRegistry());
-        // 去重并验证路径有效性
-        return correctPaths(foundNdks);
+        sources.add(() -> scanRegistryKey("HKEY_LOCAL_MACHINE\\SOFTWARE\\Android Studio"));
+        // 查询WOW64节点（32位应用在64位系统上）
+        sources.add(() -> scanRegistryKey("HKEY_LOCAL_MACHINE\\SOFTWARE\\WOW6432Node\\Android Studio"));
+        return sources;
     }
 
-    private static List<String> scanNdkOnUnix() {
+    private static List<Callable<List<String>>> unixSources() {
         // 可能的NDK安装路径
         String[] possiblePaths = {
                 System.getProperty("user.home") + File.separator + "AppData" + File.separator + "Local" + File.separator + "Android" + File.separator + "Sdk" + File.separator + "ndk",
@@ -98,31 +166,52 @@ public final class ToolSearcher {
                 "/usr/local/android-ndk",
                 "/opt/android-ndk"
         };
-
-        java.util.List<String> foundNdks = new java.util.ArrayList<>();
-
+        List<Callable<List<String>>> sources = new ArrayList<>();
         for (String path : possiblePaths) {
             if (path != null && !path.isEmpty()) {
-                File ndkDir = new File(path);
-                if (ndkDir.exists() && ndkDir.isDirectory()) {
-                    // 检查是否是NDK目录
-                    if (isNdkDirectory(ndkDir)) {
-                        foundNdks.add(path);
-                    } else {
-                        // 在目录中查找NDK版本
-                        File[] subDirs = ndkDir.listFiles();
-                        if (subDirs != null) {
-                            for (File subDir : subDirs) {
-                                if (subDir.isDirectory() && isNdkDirectory(subDir)) {
-                                    foundNdks.add(subDir.getAbsolutePath());
-                                }
-                            }
-                        }
-                    }
-                }
+                sources.add(() -> probeRoot(path));
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * 并发执行所有来源，截止时间到了还没完成的来源被取消，结果按来源顺序合并去重
+     */
+    private static List<String> probeAll(List<Callable<List<String>>> sources) {
+        List<Future<List<String>>> futures = new ArrayList<>(sources.size());
+        for (Callable<List<String>> source : sources) {
+            futures.add(DISCOVERY.submit(source));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DISCOVERY_TIMEOUT_MS);
+        List<String> found = new ArrayList<>();
+        for (Future<List<String>> future : futures) {
+            try {
+                found.addAll(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
             }
         }
-        return foundNdks;
+        return correctPaths(found);
+    }
+
+    /**
+     * 路径本身是NDK时直接返回，否则在其子目录中查找各个版本
+     */
+    private static List<String> probeRoot(String path) {
+        List<String> paths = new ArrayList<>();
+        File dir = new File(path);
+        if (isNdkDirectory(dir)) {
+            paths.add(path);
+        } else {
+            paths.addAll(findNdkInDirectory(dir));
+        }
+        return paths;
     }
 
     private static List<String> scanEnvironmentVariables() {
@@ -142,7 +231,7 @@ public final class ToolSearcher {
         return paths;
     }
 
-    private static List<String> scanCommonInstallPaths() {
+    private static List<String> commonInstallPaths() {
         List<String> paths = new ArrayList<>();
         // 获取用户主目录
         String userHome = System.getProperty("user.home");
@@ -165,16 +254,9 @@ public final class ToolSearcher {
         };
         for (String path : commonPaths) {
             if (path != null) {
-                File dir = new File(path);
-                if (isNdkDirectory(dir)) {
-                    paths.add(path);
-                } else {
-                    // 检查目录下的子目录
-                    paths.addAll(findNdkInDirectory(dir));
-                }
+                paths.add(path);
             }
         }
-
         return paths;
     }
 
@@ -206,38 +288,18 @@ public final class ToolSearcher {
         return paths;
     }
 
-    private static List<String> scanWindowsRegistry() {
+    private static List<String> scanRegistryKey(String key) {
         List<String> paths = new ArrayList<>();
-        try {
-            // 查询Android Studio安装路径
-            String studioPath = queryRegistry(
-                    "HKEY_LOCAL_MACHINE\\SOFTWARE\\Android Studio",
-                    "Path"
-            );
-            if (studioPath != null) {
-                // 从Android Studio路径推断SDK路径
-                File studioDir = new File(studioPath);
-                File sdkDir = new File(studioDir.getParent(), "Sdk");
-                if (sdkDir.exists()) {
-                    File ndkDir = new File(sdkDir, "ndk");
-                    paths.addAll(findNdkInDirectory(ndkDir));
-                }
+        // 查询Android Studio安装路径
+        String studioPath = queryRegistry(key, "Path");
+        if (studioPath != null) {
+            // 从Android Studio路径推断SDK路径
+            File studioDir = new File(studioPath);
+            File sdkDir = new File(studioDir.getParent(), "Sdk");
+            if (sdkDir.exists()) {
+                File ndkDir = new File(sdkDir, "ndk");
+                paths.addAll(findNdkInDirectory(ndkDir));
             }
-            // 查询WOW64节点（32位应用在64位系统上）
-            String studioPath32 = queryRegistry(
-                    "HKEY_LOCAL_MACHINE\\SOFTWARE\\WOW6432Node\\Android Studio",
-                    "Path"
-            );
-            if (studioPath32 != null) {
-                File studioDir = new File(studioPath32);
-                File sdkDir = new File(studioDir.getParent(), "Sdk");
-                if (sdkDir.exists()) {
-                    File ndkDir = new File(sdkDir, "ndk");
-                    paths.addAll(findNdkInDirectory(ndkDir));
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
         return paths;
     }
@@ -258,9 +320,8 @@ public final class ToolSearcher {
 
     private static List<String> scanConfigFiles(File configDir) {
         List<String> paths = new ArrayList<>();
-        try {
-            Files.walk(configDir.toPath(), 1)
-                    .filter(path -> path.toString().endsWith(".xml"))
+        try (Stream<java.nio.file.Path> stream = Files.walk(configDir.toPath(), 1)) {
+            stream.filter(path -> path.toString().endsWith(".xml"))
                     .forEach(path -> {
                         String sdkPath = parseSdkPathFromXml(path.toFile());
                         if (sdkPath != null) {
@@ -288,16 +349,14 @@ public final class ToolSearcher {
         return null;
     }
 
+    /**
+     * reg query最多等待REGISTRY_TIMEOUT_MS，超时时结束进程，当作没有查到
+     */
     private static String queryRegistry(String key, String valueName) {
         try {
-            Process process = Runtime.getRuntime().exec(
-                    "reg query \"" + key + "\" /v \"" + valueName + "\""
-            );
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream())
-            );
-            String line;
-            while ((line = reader.readLine()) != null) {
+            ProcessRunner.Result result = ProcessRunner.run(
+                    Arrays.asList("reg", "query", key, "/v", valueName), REGISTRY_TIMEOUT_MS, CancelToken.NONE);
+            for (String line : result.lines) {
                 if (line.contains(valueName)) {
                     String[] parts = line.split("\\s+");
                     if (parts.length >= 3) {
@@ -305,21 +364,48 @@ public final class ToolSearcher {
                     }
                 }
             }
-            process.waitFor();
+        } catch (InterruptedIOException e) {
+            // 超时或被中断
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * 记录每个NDK目录和它的上级目录的修改时间，安装或删除NDK后缓存自动失效
+     */
+    private static void saveCache(List<String> ndks) {
+        Set<String> dirs = new LinkedHashSet<>();
+        StringBuilder text = new StringBuilder();
+        for (String ndk : ndks) {
+            File dir = new File(ndk);
+            text.append("ndk\t").append(dir.getAbsolutePath()).append('\t').append(dir.lastModified()).append('\n');
+            File parent = dir.getAbsoluteFile().getParentFile();
+            if (parent != null && dirs.add(parent.getPath())) {
+                text.append("dir\t").append(parent.getPath()).append('\t').append(parent.lastModified()).append('\n');
+            }
+        }
+        File cacheFile = AppDirs.dataFile(CACHE_FILE);
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        try {
+            Files.write(temp.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), cacheFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                    java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+        }
+    }
+
+    /**
+     * 各来源返回前已经验证过是NDK目录，这里只去重，不再访问文件系统
+     */
     private static List<String> correctPaths(List<String> paths) {
         Set<String> uniquePaths = new LinkedHashSet<>();
         for (String path : paths) {
             if (path != null && !path.trim().isEmpty()) {
-                File file = new File(path);
-                if (file.exists() && isNdkDirectory(file)) {
-                    uniquePaths.add(file.getAbsolutePath());
-                }
+                uniquePaths.add(new File(path).getAbsolutePath());
             }
         }
         return new ArrayList<>(uniquePaths);
@@ -0,0 +1,110 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个NDK中解析出来的工具链：工具路径和NDK版本
+ * 每个NDK根目录只解析一次，NDK目录、source.properties或工具所在目录被修改后重新解析
+ */
+public final class Toolchain {
+    private static final Map<String, Toolchain> CACHE = new ConcurrentHashMap<>();
+
+    private final File ndkRoot;
+    private final File symbolizer;
+    private final File addr2line;
+    private final String version;
+    // 解析时各目录的修改时间，任何一个变化都说明工具链可能已经变了
+    private final long rootModified;
+    private final long propertiesModified;
+    private final long binModified;
+
+    private Toolchain(File ndkRoot) {
+        this.ndkRoot = ndkRoot;
+        this.symbolizer = ToolSearcher.findSymbolizerTool(ndkRoot);
+        this.addr2line = ToolSearcher.findAddr2lineTool(ndkRoot);
+        this.version = readVersion(new File(ndkRoot, "source.properties"));
+        this.rootModified = ndkRoot.lastModified();
+        this.propertiesModified = new File(ndkRoot, "source.properties").lastModified();
+        this.binModified = binDir().lastModified();
+    }
+
+    /**
+     * 取得NDK根目录对应的工具链，目录没有变化时直接返回之前解析的结果
+     */
+    public static Toolchain forNdk(File ndkPath) {
+        File root = ndkPath.getAbsoluteFile();
+        String key = root.getPath();
+        Toolchain cached = CACHE.get(key);
+        if (cached != null && cached.isCurrent()) {
+            return cached;
+        }
+        Toolchain toolchain = new Toolchain(root);
+        CACHE.put(key, toolchain);
+        return toolchain;
+    }
+
+    public File ndkRoot() {
+        return ndkRoot;
+    }
+
+    /**
+     * llvm-symbolizer，没有时为null
+     */
+    public File symbolizer() {
+        return symbolizer;
+    }
+
+    /**
+     * llvm-addr2line，没有时为null
+     */
+    public File addr2line() {
+        return addr2line;
+    }
+
+    /**
+     * source.properties中的Pkg.Revision，例如25.1.8937393，读不到时为null
+     */
+    public String version() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "NDK " + (version != null ? version : "未知版本")
+                + " (" + (symbolizer != null ? "llvm-symbolizer" : addr2line != null ? "addr2line" : "无工具") + ")";
+    }
+
+    private boolean isCurrent() {
+        return ndkRoot.lastModified() == rootModified
+                && new File(ndkRoot, "source.properties").lastModified() == propertiesModified
+                && binDir().lastModified() == binModified;
+    }
+
+    /**
+     * 工具所在的bin目录，还没有找到工具时用prebuilt目录，新装的主机工具会改变它的修改时间
+     */
+    private File binDir() {
+        File tool = symbolizer != null ? symbolizer : addr2line;
+        return tool != null ? tool.getParentFile() : new File(ndkRoot, "toolchains/llvm/prebuilt");
+    }
+
+    private static String readVersion(File properties) {
+        if (!properties.isFile()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(properties)) {
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        String revision = props.getProperty("Pkg.Revision");
+        return revision == null ? null : revision.trim();
+    }
+}
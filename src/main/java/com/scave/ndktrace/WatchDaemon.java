@@ -0,0 +1,383 @@
+package com.scave.ndktrace;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 监视收件目录，新出现的墓碑文件经有界队列交给工作线程还原，结果写到发件目录
+ * 队列满时监视线程阻塞，文件事件积压到溢出后改为重新扫描目录，内存占用不随突发量增长；
+ * 发件目录中已有不旧于输入的结果或失败记录时视为处理过，重启后只处理剩下的文件
+ */
+final class WatchDaemon {
+    static final String FAILED_SUFFIX = ".failed.txt";
+    // 文件最后一次变化后等待多久才认为已经写完
+    private static final long SETTLE_MILLIS = 500;
+    private static final long STATUS_INTERVAL_MILLIS = 10_000;
+
+    private final StackTraceSymbolizer symbolizer;
+    private final Path inbox;
+    private final Path outbox;
+    private final int jobs;
+    private final ArrayBlockingQueue<Path> queue;
+    // 已入队或正在处理的文件，避免同一个文件重复入队
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+    // 只在监视线程中使用：文件到最后一次事件时间
+    private final Map<Path, Long> settling = new HashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder backpressureWaits = new LongAdder();
+    // 最近开始处理的文件从写入收件目录到开始处理经过的时间
+    private final AtomicLong lagMillis = new AtomicLong();
+
+    private volatile boolean running = true;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private WatchService watcher;
+    private ExecutorService workers;
+
+    WatchDaemon(StackTraceSymbolizer symbolizer, Path inbox, Path outbox, int jobs, int queueCapacity) {
+        this.symbolizer = symbolizer;
+        this.inbox = inbox.toAbsolutePath();
+        this.outbox = outbox.toAbsolutePath();
+        this.jobs = jobs;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * 在当前线程中监视收件目录，直到stop()被调用
+     */
+    void run(PrintStream log) throws IOException {
+        Files.createDirectories(outbox);
+        SymbolizerPool.setMaxWorkersPerTool(jobs);
+        // 先注册监视再扫描，扫描期间新到的文件不会漏掉
+        watcher = inbox.getFileSystem().newWatchService();
+        inbox.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        registerMBean();
+
+        workers = Executors.newFixedThreadPool(jobs, r -> {
+            Thread thread = new Thread(r, "watch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < jobs; i++) {
+            workers.execute(this::workLoop);
+        }
+
+        try {
+            scanInbox();
+            long lastStatus = System.currentTimeMillis();
+            String lastLine = null;
+            while (running) {
+                WatchKey key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    boolean overflow = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            settling.put(inbox.resolve((Path) event.context()), System.currentTimeMillis());
+                        }
+                    }
+                    key.reset();
+                    if (overflow) {
+                        settling.clear();
+                        scanInbox();
+                    }
+                }
+                enqueueSettled();
+                if (System.currentTimeMillis() - lastStatus >= STATUS_INTERVAL_MILLIS) {
+                    lastStatus = System.currentTimeMillis();
+                    String line = status();
+                    if (!line.equals(lastLine)) {
+                        log.println(line);
+                        lastLine = line;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // stop()关闭了监视
+        } finally {
+            shutdownWorkers();
+            unregisterMBean();
+            finished.countDown();
+        }
+    }
+
+    /**
+     * 停止监视并等待正在处理的文件处理完，队列中剩下的文件留到下次启动
+     */
+    void stop() {
+        running = false;
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                finished.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    String status() {
+        return String.format("[watch] 队列 %d/%d，处理中 %d，完成 %d，失败 %d，共 %d 帧，延迟 %.1f 秒，最久排队 %.1f 秒",
+                queue.size(), queue.size() + queue.remainingCapacity(), inFlight.get(), processed.sum(),
+                failed.sum(), frames.sum(), lagMillis.get() / 1000.0, oldestQueuedMillis() / 1000.0);
+    }
+
+    private void workLoop() {
+        while (running) {
+            Path input;
+            try {
+                input = queue.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (input == null) {
+                continue;
+            }
+            inFlight.incrementAndGet();
+            try {
+                process(input);
+            } finally {
+                inFlight.decrementAndGet();
+                pending.remove(input);
+            }
+        }
+    }
+
+    private void process(Path input) {
+        Path target = outputOf(input);
+        Path failedMarker = failedMarkerOf(input);
+        try {
+            lagMillis.set(Math.max(0, System.currentTimeMillis() - Files.getLastModifiedTime(input).toMillis()));
+            frames.add(Cli.symbolizeFile(symbolizer, input, target, null));
+            Files.deleteIfExists(failedMarker);
+            processed.increment();
+        } catch (NoSuchFileException e) {
+            // 处理前已被删除
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+            System.err.println("处理失败: " + input + ": " + e.getMessage());
+            try {
+                // 记录失败原因，输入不变时重启后不再重试
+                Files.write(failedMarker, String.valueOf(e).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 扫描收件目录中所有还没处理过的文件，按修改时间从早到晚入队
+     */
+    private void scanInbox() throws InterruptedException, IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(inbox)) {
+            for (Path path : stream) {
+                files.add(path);
+            }
+        }
+        files.sort(Comparator.comparingLong(path -> path.toFile().lastModified()));
+        for (Path path : files) {
+            enqueue(path);
+        }
+    }
+
+    private void enqueueSettled() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Long>> iterator = settling.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            if (now - entry.getValue() >= SETTLE_MILLIS) {
+                iterator.remove();
+                enqueue(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 队列满时阻塞监视线程，直到有工作线程取走文件
+     */
+    private void enqueue(Path path) throws InterruptedException {
+        if (!isInput(path) || isDone(path) || !pending.add(path)) {
+            return;
+        }
+        if (!queue.offer(path)) {
+            backpressureWaits.increment();
+            while (running && !queue.offer(path, SETTLE_MILLIS, TimeUnit.MILLISECONDS)) {
+                // 等待期间仍然响应stop()
+            }
+            if (!running) {
+                pending.remove(path);
+            }
+        }
+    }
+
+    /**
+     * 忽略目录、隐藏文件、结果文件和生产者写到一半的临时文件
+     */
+    private static boolean isInput(Path path) {
+        String name = path.getFileName().toString();
+        return Files.isRegularFile(path) && !name.startsWith(".") && !name.endsWith(".tmp") && !name.endsWith(".part")
+                && !name.endsWith(Cli.OUTPUT_SUFFIX) && !name.endsWith(FAILED_SUFFIX);
+    }
+
+    private boolean isDone(Path input) {
+        long modified = input.toFile().lastModified();
+        return outputOf(input).toFile().lastModified() >= modified
+                || failedMarkerOf(input).toFile().lastModified() >= modified;
+    }
+
+    private Path outputOf(Path input) {
+        return outbox.resolve(input.getFileName().toString() + Cli.OUTPUT_SUFFIX);
+    }
+
+    private Path failedMarkerOf(Path input) {
+        return outbox.resolve(input.getFileName().toString() + FAILED_SUFFIX);
+    }
+
+    private long oldestQueuedMillis() {
+        Path oldest = queue.peek();
+        return oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.toFile().lastModified());
+    }
+
+    private void shutdownWorkers() {
+        running = false;
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        SymbolizerPool.shutdown();
+    }
+
+    private ObjectName objectName() throws JMException {
+        return new ObjectName("com.scave.ndktrace:type=WatchFolder");
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName())) {
+                server.registerMBean(new Bean(), objectName());
+            }
+        } catch (JMException | SecurityException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName())) {
+                server.unregisterMBean(objectName());
+            }
+        } catch (JMException | SecurityException ignored) {
+        }
+    }
+
+    public interface WatchFolderMXBean {
+        int getQueueDepth();
+
+        int getQueueCapacity();
+
+        int getInFlight();
+
+        long getProcessed();
+
+        long getFailed();
+
+        long getFrames();
+
+        long getBackpressureWaits();
+
+        long getLagMillis();
+
+        long getOldestQueuedMillis();
+    }
+
+    private final class Bean implements WatchFolderMXBean {
+        @Override
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        @Override
+        public int getQueueCapacity() {
+            return queue.size() + queue.remainingCapacity();
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public long getProcessed() {
+            return processed.sum();
+        }
+
+        @Override
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        @Override
+        public long getFrames() {
+            return frames.sum();
+        }
+
+        @Override
+        public long getBackpressureWaits() {
+            return backpressureWaits.sum();
+        }
+
+        @Override
+        public long getLagMillis() {
+            return lagMillis.get();
+        }
+
+        @Override
+        public long getOldestQueuedMillis() {
+            return oldestQueuedMillis();
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.scave.ndktrace;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * APK/AAB/zip的中央目录索引，只读取文件末尾的中央目录，不解压任何内容
+ * 每个压缩包只解析一次，文件大小或修改时间变化后重新解析；解析在各压缩包自己的锁中进行，不阻塞其他压缩包
+ */
+final class ZipIndex {
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+
+    // 同时保持索引的压缩包数量
+    private static final int MAX_INDEXES = 8;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    // EOCD最小22字节，后面最多跟64KB注释
+    private static final int MAX_EOCD_SEARCH = 22 + 0xffff;
+
+    private static final Map<String, ZipIndex> INDEXES = new LinkedHashMap<String, ZipIndex>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ZipIndex> eldest) {
+            return size() > MAX_INDEXES;
+        }
+    };
+
+    private final File archive;
+    private final long length;
+    private final long lastModified;
+    private final Map<String, Entry> byName = new HashMap<>();
+    // 文件名（不含目录）到条目的映射，用于按库名查找
+    private final Map<String, List<Entry>> byBaseName = new HashMap<>();
+    // 按数据偏移排序的条目，用于"(offset 0x...)"查找
+    private final List<Entry> byOffset = new ArrayList<>();
+    private boolean loaded;
+    private IOException failure;
+
+    private ZipIndex(File archive) {
+        this.archive = archive;
+        this.length = archive.length();
+        this.lastModified = archive.lastModified();
+    }
+
+    static ZipIndex forArchive(File archive) throws IOException {
+        String key = archive.getAbsolutePath();
+        ZipIndex index;
+        synchronized (INDEXES) {
+            index = INDEXES.get(key);
+            if (index == null || index.length != archive.length() || index.lastModified != archive.lastModified()) {
+                index = new ZipIndex(archive.getAbsoluteFile());
+                INDEXES.put(key, index);
+            }
+        }
+        try {
+            index.ensureLoaded();
+        } catch (IOException e) {
+            synchronized (INDEXES) {
+                if (INDEXES.get(key) == index) {
+                    INDEXES.remove(key);
+                }
+            }
+            throw e;
+        }
+        return index;
+    }
+
+    /**
+     * 第一次使用时读取中央目录，同一压缩包的其他线程等待同一次解析
+     */
+    private synchronized void ensureLoaded() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (loaded) {
+            return;
+        }
+        try {
+            load();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+        loaded = true;
+    }
+
+    File archive() {
+        return archive;
+    }
+
+    Entry entry(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * 按库名查找，abi不为空时优先返回lib/<abi>/下的条目，AAB中的base/lib/<abi>/同样识别
+     */
+    Entry findLibrary(String libName, String abi) {
+        List<Entry> candidates = byBaseName.get(libName);
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        if (abi != null) {
+            String normalized = SoLibraryIndex.normalizeAbi(abi);
+            for (Entry entry : candidates) {
+                if (normalized.equals(entry.abi())) {
+                    return entry;
+                }
+            }
+        }
+        return candidates.get(0);
+    }
+
+    List<Entry> libraries(String libName) {
+        List<Entry> candidates = byBaseName.get(libName);
+        return candidates == null ? Collections.emptyList() : candidates;
+    }
+
+    /**
+     * 找到数据区间包含offset的未压缩条目，即系统直接从APK中映射的SO
+     */
+    Entry entryAt(long offset) throws IOException {
+        Entry found = null;
+        for (Entry entry : byOffset) {
+            if (entry.localHeaderOffset > offset) {
+                break;
+            }
+            found = entry;
+        }
+        if (found == null || found.method != METHOD_STORED) {
+            return null;
+        }
+        long dataOffset = dataOffset(found);
+        return offset >= dataOffset && offset < dataOffset + found.size ? found : null;
+    }
+
+    /**
+     * 条目数据在压缩包中的偏移，需要读取本地文件头中的文件名和扩展字段长度
+     */
+    long dataOffset(Entry entry) throws IOException {
+        if (entry.dataOffset >= 0) {
+            return entry.dataOffset;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "r")) {
+            ByteBuffer header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+            raf.getChannel().read(header, entry.localHeaderOffset);
+            if (header.position() < 30 || header.getInt(0) != LOCAL_SIGNATURE) {
+                throw new IOException("本地文件头损坏: " + entry.name);
+            }
+            int nameLength = header.getShort(26) & 0xffff;
+            int extraLength = header.getShort(28) & 0xffff;
+            entry.dataOffset = entry.localHeaderOffset + 30 + nameLength + extraLength;
+            return entry.dataOffset;
+        }
+    }
+
+    /**
+     * 直接映射未压缩条目的数据，不复制
+     */
+    MappedByteBuffer mapStored(Entry entry) throws IOException {
+        if (entry.method != METHOD_STORED) {
+            throw new IOException("条目是压缩存储的: " + entry.name);
+        }
+        long offset = dataOffset(entry);
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, entry.size);
+        }
+    }
+
+    /**
+     * 条目的解压数据流
+     */
+    InputStream open(Entry entry) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        ZipEntry zipEntry = zip.getEntry(entry.name);
+        if (zipEntry == null) {
+            zip.close();
+            throw new IOException("压缩包中没有: " + entry.name);
+        }
+        return new FilterInputStream(zip.getInputStream(zipEntry)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    zip.close();
+                }
+            }
+        };
+    }
+
+    File extract(Entry entry) throws IOException {
+        return ExtractionCache.extract(archive, entry.name, entry.size, () -> open(entry));
+    }
+
+    /**
+     * 条目的build-id，未压缩的条目直接映射，压缩的条目只解压开头一段
+     */
+    String buildId(Entry entry) throws IOException {
+        if (entry.method == METHOD_STORED) {
+            return ElfFile.buildIdOfHeader(mapStored(entry));
+        }
+        try (InputStream in = open(entry)) {
+            return ElfFile.buildIdOfHeader(ArchiveLibrary.readPrefix(in));
+        }
+    }
+
+    private void load() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            int tailSize = (int) Math.min(size, MAX_EOCD_SEARCH);
+            ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, size - tailSize, tailSize)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int eocd = -1;
+            for (int i = tailSize - 22; i >= 0; i--) {
+                if (tail.getInt(i) == EOCD_SIGNATURE) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd < 0) {
+                throw new IOException("不是zip文件: " + archive);
+            }
+            long count = tail.getShort(eocd + 10) & 0xffff;
+            long cdSize = tail.getInt(eocd + 12) & 0xffffffffL;
+            long cdOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+            if (count == 0xffff || cdSize == 0xffffffffL || cdOffset == 0xffffffffL) {
+                // zip64：EOCD前面的定位记录指向zip64 EOCD
+                long[] zip64 = readZip64End(channel, size - tailSize + eocd);
+                count = zip64[0];
+                cdSize = zip64[1];
+                cdOffset = zip64[2];
+            }
+            if (cdOffset + cdSize > size) {
+                throw new IOException("中央目录越界: " + archive);
+            }
+            ByteBuffer cd = channel.map(FileChannel.MapMode.READ_ONLY, cdOffset, cdSize).order(ByteOrder.LITTLE_ENDIAN);
+            readCentralDirectory(cd, count);
+        }
+        byOffset.sort((a, b) -> Long.compare(a.localHeaderOffset, b.localHeaderOffset));
+    }
+
+    private long[] readZip64End(FileChannel channel, long eocdPosition) throws IOException {
+        if (eocdPosition < 20) {
+            throw new IOException("缺少zip64定位记录: " + archive);
+        }
+        ByteBuffer locator = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(locator, eocdPosition - 20);
+        if (locator.getInt(0) != ZIP64_LOCATOR_SIGNATURE) {
+            throw new IOException("缺少zip64定位记录: " + archive);
+        }
+        ByteBuffer end = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(end, locator.getLong(8));
+        if (end.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+            throw new IOException("zip64目录记录损坏: " + archive);
+        }
+        return new long[]{end.getLong(32), end.getLong(40), end.getLong(48)};
+    }
+
+    private void readCentralDirectory(ByteBuffer cd, long count) throws IOException {
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (pos + 46 > cd.limit() || cd.getInt(pos) != CENTRAL_SIGNATURE) {
+                throw new IOException("中央目录损坏: " + archive);
+            }
+            int method = cd.getShort(pos + 10) & 0xffff;
+            long compressedSize = cd.getInt(pos + 20) & 0xffffffffL;
+            long size = cd.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = cd.getShort(pos + 28) & 0xffff;
+            int extraLength = cd.getShort(pos + 30) & 0xffff;
+            int commentLength = cd.getShort(pos + 32) & 0xffff;
+            long localHeaderOffset = cd.getInt(pos + 42) & 0xffffffffL;
+            byte[] nameBytes = new byte[nameLength];
+            cd.position(pos + 46);
+            cd.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            // zip64扩展字段按顺序只包含值为0xffffffff的那几项
+            int extra = pos + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = cd.getShort(extra) & 0xffff;
+                int dataSize = cd.getShort(extra + 2) & 0xffff;
+                if (id == 0x0001) {
+                    int field = extra + 4;
+                    if (size == 0xffffffffL && field + 8 <= extraEnd) {
+                        size = cd.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xffffffffL && field + 8 <= extraEnd) {
+                        compressedSize = cd.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == 0xffffffffL && field + 8 <= extraEnd) {
+                        localHeaderOffset = cd.getLong(field);
+                    }
+                }
+                extra += 4 + dataSize;
+            }
+            pos = extraEnd + commentLength;
+
+            if (name.endsWith("/")) {
+                continue;
+            }
+            Entry entry = new Entry(name, method, compressedSize, size, localHeaderOffset);
+            byName.put(name, entry);
+            byOffset.add(entry);
+            byBaseName.computeIfAbsent(entry.baseName(), k -> new ArrayList<>(1)).add(entry);
+        }
+    }
+
+    static final class Entry {
+        final String name;
+        final int method;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+        // 第一次读取本地文件头后才知道
+        private volatile long dataOffset = -1;
+
+        Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        String baseName() {
+            return name.substring(name.lastIndexOf('/') + 1);
+        }
+
+        /**
+         * lib/<abi>/libx.so中的ABI，统一成墓碑文件中的写法
+         */
+        String abi() {
+            int end = name.lastIndexOf('/');
+            int start = name.lastIndexOf('/', end - 1) + 1;
+            return end > 0 ? SoLibraryIndex.normalizeAbi(name.substring(start, end)) : null;
+        }
+    }
+}
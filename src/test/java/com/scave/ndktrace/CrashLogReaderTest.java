@@ -0,0 +1,122 @@
+package com.scave.ndktrace;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CrashLogReaderTest {
+
+    private static List<String> blocks(String text) throws IOException {
+        List<String> blocks = new ArrayList<>();
+        long count = CrashLogReader.read(Channels.newChannel(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))), blocks::add);
+        assertEquals(blocks.size(), count);
+        return blocks;
+    }
+
+    private static int frameCount(String block) {
+        FrameParser.Frame frame = new FrameParser.Frame();
+        int count = 0;
+        for (String line : block.split("\n")) {
+            if (FrameParser.parse(line, frame)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void tombstone() throws IOException {
+        List<String> blocks = blocks("unrelated log line\n"
+                + "*** *** *** *** *** *** *** *** *** *** *** *** *** *** *** ***\n"
+                + "pid: 1234, tid: 1234, name: example  >>> com.example <<<\n"
+                + "signal 6 (SIGABRT), code -6 (SI_TKILL), fault addr --------\n"
+                + "backtrace:\n"
+                + "      #00 pc 000000000005a6c8  /system/lib64/libc.so (abort+164)\n"
+                + "      #01 pc 0000000000001234  /data/app/com.example/lib/arm64/libfoo.so (foo+8)\n"
+                + "\n"
+                + "stack:\n");
+        assertEquals(1, blocks.size());
+        assertTrue(blocks.get(0).startsWith("*** ***"));
+        assertEquals(2, frameCount(blocks.get(0)));
+        assertFalse(blocks.get(0).contains("unrelated"));
+    }
+
+    @Test
+    void asan() throws IOException {
+        List<String> blocks = blocks("==1234==ERROR: AddressSanitizer: heap-use-after-free on address 0x0060\n"
+                + "READ of size 4 at 0x0060 thread T0\n"
+                + "    #0 0x7f00001234 in foo() (/data/local/tmp/libfoo.so+0x1234)\n"
+                + "    #1 0x7f00005678 in main (/data/local/tmp/app+0x5678) (BuildId: abcdef)\n"
+                + "\n"
+                + "0x0060 is located 0 bytes inside of 4-byte region\n");
+        assertEquals(1, blocks.size());
+        assertEquals(2, frameCount(blocks.get(0)));
+    }
+
+    @Test
+    void breakpadKeepsRegisterLinesBetweenFrames() throws IOException {
+        List<String> blocks = blocks("Crash reason:  SIGSEGV\n"
+                + "\n"
+                + "Thread 0 (crashed)\n"
+                + " 0  libfoo.so + 0x1234\n"
+                + "     x0 = 0x0000000000000000    x1 = 0x0000007fe1c9a530\n"
+                + "    Found by: given as instruction pointer in context\n"
+                + " 1  libfoo.so + 0x5678\n"
+                + "    Found by: call frame info\n"
+                + "\n"
+                + "Thread 1\n"
+                + " 0  libc.so + 0x9abc\n"
+                + "    Found by: given as instruction pointer in context\n");
+        assertEquals(2, blocks.size());
+        assertEquals(2, frameCount(blocks.get(0)));
+        assertEquals(1, frameCount(blocks.get(1)));
+    }
+
+    @Test
+    void crashlytics() throws IOException {
+        List<String> blocks = blocks("Fatal Exception: SIGSEGV\n"
+                + "0  libfoo.so  0x1234  Foo::bar()\n"
+                + "1  libfoo.so  0x5678\n"
+                + "2  libc.so  0x9abc  abort\n");
+        assertEquals(1, blocks.size());
+        assertEquals(3, frameCount(blocks.get(0)));
+    }
+
+    @Test
+    void crlfTombstone() throws IOException {
+        List<String> blocks = blocks("*** *** *** *** *** *** *** *** *** *** *** *** *** *** *** ***\r\n"
+                + "backtrace:\r\n"
+                + "      #00 pc 000000000005a6c8  /system/lib64/libc.so\r\n"
+                + "      #01 pc 0000000000001234  /data/app/com.example/lib/arm64/libfoo.so\r\n"
+                + "\r\n");
+        assertEquals(1, blocks.size());
+        assertFalse(blocks.get(0).contains("\r"));
+        assertEquals(2, frameCount(blocks.get(0)));
+    }
+
+    @Test
+    void separatesConsecutiveCrashes() throws IOException {
+        String crash = "*** *** *** *** *** *** *** *** *** *** *** *** *** *** *** ***\n"
+                + "backtrace:\n"
+                + "      #00 pc 000000000005a6c8  /system/lib64/libc.so (abort+164)\n";
+        assertEquals(2, blocks(crash + crash).size());
+    }
+
+    @Test
+    void ignoresLogsWithoutFrames() throws IOException {
+        assertTrue(blocks("I/ActivityManager: Start proc 1234\n"
+                + "    x0  0000000000000000  x1  0000007fe1c9a530\n"
+                + "*** *** *** *** *** *** *** *** *** *** *** *** *** *** *** ***\n"
+                + "pid: 1234\n").isEmpty());
+    }
+}
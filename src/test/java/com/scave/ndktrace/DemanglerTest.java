@@ -0,0 +1,82 @@
+package com.scave.ndktrace;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DemanglerTest {
+    // 期望值与c++filt一致，只是模板结尾的"> >"写成llvm-cxxfilt的">>"
+    private static final String[][] KNOWN = {
+                {"_Z3foov", "foo()"},
+                {"_ZN3foo3barEv", "foo::bar()"},
+                {"_ZNK3foo3barEi", "foo::bar(int) const"},
+                {"_ZNSt6__ndk16vectorIiNS_9allocatorIiEEE9push_backERKi", "std::__ndk1::vector<int, std::__ndk1::allocator<int>>::push_back(int const&)"},
+                {"_ZNSt6__ndk112basic_stringIcNS_11char_traitsIcEENS_9allocatorIcEEE6appendEPKcm", "std::__ndk1::basic_string<char, std::__ndk1::char_traits<char>, std::__ndk1::allocator<char>>::append(char const*, unsigned long)"},
+                {"_ZNSt6__ndk110shared_ptrI3FooED2Ev", "std::__ndk1::shared_ptr<Foo>::~shared_ptr()"},
+                {"_ZN7android6Parcel10writeInt32Ei", "android::Parcel::writeInt32(int)"},
+                {"_ZN2ns12_GLOBAL__N_14anonEPFiiERA3_iMNS_1KEFviEMS5_i", "ns::(anonymous namespace)::anon(int (*)(int), int (&) [3], void (ns::K::*)(int), int ns::K::*)"},
+                {"_ZN2ns1K2vaIJicdEEEiDpT_", "int ns::K::va<int, char, double>(int, char, double)"},
+                {"_Z5fixedILi7EEiv", "int fixed<7>()"},
+                {"_Z5fixedILin3EEiv", "int fixed<-3>()"},
+                {"_ZN2ns6__ndk13TagB5cxx111mEv", "ns::__ndk1::Tag[abi:cxx11]::m()"},
+                {"_ZTVSt8bad_cast", "vtable for std::bad_cast"},
+                {"_ZTIPKc", "typeinfo for char const*"},
+                {"_ZTSi", "typeinfo name for int"},
+                {"_ZSt13set_terminatePFvvE", "std::set_terminate(void (*)())"},
+                {"_ZN3FooC1Ev", "Foo::Foo()"},
+                {"_ZN3FooD0Ev", "Foo::~Foo()"},
+                {"_ZN3FooplERKS_", "Foo::operator+(Foo const&)"},
+                {"_ZN3FooixEi", "Foo::operator[](int)"},
+                {"_ZN3FoocvbEv", "Foo::operator bool()"},
+                {"_Z1fIiEvT_", "void f<int>(int)"},
+                {"_Z4funcOi", "func(int&&)"},
+                {"_ZZ4mainE1x", "main::x"},
+                {"_ZL10staticFuncv", "staticFunc()"},
+                {"_ZN9__gnu_cxx13new_allocatorIcE8allocateEmPKv", "__gnu_cxx::new_allocator<char>::allocate(unsigned long, void const*)"},
+                {"_Z1fPVKi", "f(int const volatile*)"},
+                {"_Z1fA10_i", "f(int [10])"},
+                {"_Z1fPA10_i", "f(int (*) [10])"},
+                {"_Z1fM1AKFivE", "f(int (A::*)() const)"},
+                {"_ZThn8_N3Foo3barEv", "non-virtual thunk to Foo::bar()"},
+                {"_ZGVZ4mainE1x", "guard variable for main::x"},
+                {"_Z1fIJEEvDpT_", "void f<>()"},
+                {"_Z3maxIiET_S0_S0_", "int max<int>(int, int)"},
+    };
+
+    @Test
+    void matchesKnownManglings() {
+        for (String[] known : KNOWN) {
+            assertEquals(known[1], Demangler.parse(known[0]), known[0]);
+        }
+    }
+
+    @Test
+    void usesLlvmAbbreviations() {
+        // c++filt在这里展开成完整的模板名，llvm-cxxfilt保留缩写
+        assertEquals("foo(int, char, char const*, std::string const&)", Demangler.parse("_Z3fooicPKcRKSs"));
+        assertEquals("std::ostream::operator<<(long)", Demangler.parse("_ZNSolsEl"));
+        assertEquals("f(std::nullptr_t)", Demangler.parse("_Z1fDn"));
+    }
+
+    @Test
+    void keepsCloneSuffix() {
+        assertEquals("foo() (.cold)", Demangler.parse("_Z3foov.cold"));
+    }
+
+    @Test
+    void rejectsInvalidNames() {
+        for (String invalid : new String[]{"_Z", "_Zfoo", "_Z3fo", "_ZN3foo", "notmangled"}) {
+            assertNull(Demangler.parse(invalid), invalid);
+        }
+        assertEquals("_ZN3foo", Demangler.demangle("_ZN3foo"));
+        assertEquals("main", Demangler.demangle("main"));
+    }
+
+    @Test
+    void demanglesToolResults() {
+        assertEquals("foo::bar() at a.cpp:3:1 (inlined by) std::set_terminate(void (*)()) at b.cpp:7",
+                Demangler.demangleResult("_ZN3foo3barEv at a.cpp:3:1 (inlined by) _ZSt13set_terminatePFvvE at b.cpp:7"));
+        assertEquals("?? ??:0", Demangler.demangleResult("?? ??:0"));
+    }
+}
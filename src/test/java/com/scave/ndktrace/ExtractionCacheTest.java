@@ -0,0 +1,90 @@
+package com.scave.ndktrace;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExtractionCacheTest {
+    @TempDir
+    Path dir;
+
+    private File archive(String name) throws IOException {
+        File archive = dir.resolve(name).toFile();
+        Files.write(archive.toPath(), name.getBytes());
+        return archive;
+    }
+
+    @Test
+    void differentEntriesExtractConcurrently() throws Exception {
+        File archive = archive("a.zip");
+        byte[] data = {1, 2, 3, 4};
+        CountDownLatch otherDone = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            // 第一个条目的解压要等第二个条目解压完成，解压串行时会一直等下去
+            Future<File> slow = pool.submit(() -> ExtractionCache.extract(archive, "lib/arm64/libslow.so", data.length, () -> {
+                try {
+                    assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new ByteArrayInputStream(data);
+            }));
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                ExtractionCache.extract(archive, "lib/arm64/libfast.so", data.length, () -> new ByteArrayInputStream(data));
+                otherDone.countDown();
+                assertArrayEquals(data, Files.readAllBytes(slow.get().toPath()));
+            });
+        } finally {
+            otherDone.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void sameEntryExtractedOnce() throws Exception {
+        File archive = archive("b.zip");
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        AtomicInteger opens = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<File>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> ExtractionCache.extract(archive, "lib/arm64/libsame.so", data.length, () -> {
+                    opens.incrementAndGet();
+                    return new ByteArrayInputStream(data);
+                })));
+            }
+            File first = results.get(0).get();
+            for (Future<File> result : results) {
+                assertEquals(first, result.get());
+            }
+            assertArrayEquals(data, Files.readAllBytes(first.toPath()));
+            assertEquals(1, opens.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.scave.ndktrace;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameParserTest {
+    private final FrameParser.Frame frame = new FrameParser.Frame();
+
+    @Test
+    void tombstone() {
+        assertTrue(FrameParser.parse(
+                "    #00 pc 000000000005a6c8  /system/lib64/libc.so (abort+164) (BuildId: 1a2b3c4d)", frame));
+        assertEquals(FrameParser.Format.TOMBSTONE, frame.format);
+        assertEquals(0, frame.index);
+        assertEquals("000000000005a6c8", frame.pc);
+        assertEquals("/system/lib64/libc.so", frame.module);
+        assertEquals("abort+164", frame.function);
+        assertEquals("1a2b3c4d", frame.buildId);
+        assertEquals(-1, frame.moduleOffset);
+    }
+
+    @Test
+    void tombstoneInLogcatWithApkOffset() {
+        assertTrue(FrameParser.parse("10-18 12:00:00.123  1234  1234 F DEBUG   :       #12 pc 0001a2b4"
+                + "  /data/app/com.example/base.apk (offset 0x1000)", frame));
+        assertEquals(FrameParser.Format.TOMBSTONE, frame.format);
+        assertEquals(12, frame.index);
+        assertEquals("0001a2b4", frame.pc);
+        assertEquals("/data/app/com.example/base.apk", frame.module);
+        assertEquals(0x1000, frame.moduleOffset);
+        assertNull(frame.function);
+    }
+
+    @Test
+    void asan() {
+        assertTrue(FrameParser.parse(
+                "    #1 0x7f12345678 in foo(int) (/data/local/tmp/libfoo.so+0x1234) (BuildId: abcdef)", frame));
+        assertEquals(FrameParser.Format.ASAN, frame.format);
+        assertEquals(1, frame.index);
+        assertEquals("1234", frame.pc);
+        assertEquals("/data/local/tmp/libfoo.so", frame.module);
+        assertEquals("foo(int)", frame.function);
+        assertEquals("abcdef", frame.buildId);
+    }
+
+    @Test
+    void breakpad() {
+        assertTrue(FrameParser.parse(" 3  libfoo.so + 0x1234", frame));
+        assertEquals(FrameParser.Format.BREAKPAD, frame.format);
+        assertEquals(3, frame.index);
+        assertEquals("1234", frame.pc);
+        assertEquals("libfoo.so", frame.module);
+    }
+
+    @Test
+    void crashlytics() {
+        assertTrue(FrameParser.parse("3  libfoo.so  0x1234  Foo::bar()", frame));
+        assertEquals(FrameParser.Format.CRASHLYTICS, frame.format);
+        assertEquals("1234", frame.pc);
+        assertEquals("libfoo.so", frame.module);
+        assertEquals("Foo::bar()", frame.function);
+    }
+
+    @Test
+    void crlfLineEndings() {
+        assertTrue(FrameParser.parse("#00 pc 0005a6c8  /system/lib/libc.so\r", frame));
+        assertEquals("/system/lib/libc.so", frame.module);
+
+        assertTrue(FrameParser.parse("#01 pc 0005a6c8  /system/lib/libc.so (abort+63)\r", frame));
+        assertEquals("abort+63", frame.function);
+
+        assertTrue(FrameParser.parse(" 3  libfoo.so + 0x1234\r", frame));
+        assertEquals(FrameParser.Format.BREAKPAD, frame.format);
+        assertEquals("1234", frame.pc);
+
+        assertTrue(FrameParser.parse("3  libfoo.so  0x1234\r", frame));
+        assertEquals(FrameParser.Format.CRASHLYTICS, frame.format);
+        assertEquals("1234", frame.pc);
+        assertNull(frame.function);
+    }
+
+    @Test
+    void tabsSeparateFields() {
+        assertTrue(FrameParser.parse("#00\tpc\t0005a6c8\t/system/lib/libc.so", frame));
+        assertEquals("0005a6c8", frame.pc);
+        assertEquals("/system/lib/libc.so", frame.module);
+    }
+
+    @Test
+    void rejectsNonFrames() {
+        assertFalse(FrameParser.parse("", frame));
+        assertFalse(FrameParser.parse("backtrace:", frame));
+        assertFalse(FrameParser.parse("    x0  0000000000000000  x1  0000007fe1c9a530", frame));
+        assertFalse(FrameParser.parse("#1 is not a frame", frame));
+        assertFalse(FrameParser.parse("#00 pc zzzz /system/lib/libc.so", frame));
+        assertFalse(FrameParser.parse("3  notalibrary  0x1234", frame));
+        assertFalse(FrameParser.parse("Thread 0 (crashed)", frame));
+    }
+}
@@ -0,0 +1,64 @@
+package com.scave.ndktrace;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SoLibraryIndexTest {
+    @TempDir
+    Path dir;
+
+    private void createTree(Path root, int subDirs) throws IOException {
+        for (int i = 0; i < subDirs; i++) {
+            Path abiDir = root.resolve("module" + i).resolve("arm64-v8a");
+            Files.createDirectories(abiDir);
+            Files.write(abiDir.resolve("lib" + i + ".so"), new byte[]{0x7f, 'E', 'L', 'F'});
+        }
+    }
+
+    @Test
+    void watchRegistrationFailureDuringParallelBuild() throws Exception {
+        Path root = dir.resolve("symbols");
+        createTree(root, 64);
+        SoLibraryIndex.Registrar original = SoLibraryIndex.registrar;
+        // 除根目录外全部注册失败，和超过inotify监听数量限制时一样，由并行遍历的线程关闭监听
+        SoLibraryIndex.registrar = (path, service) -> {
+            if (!path.equals(root)) {
+                throw new IOException("watch limit reached");
+            }
+            return original.register(path, service);
+        };
+        try {
+            // 在守护线程中建立索引，死锁时测试失败而不是让测试进程一直挂着
+            CompletableFuture<SoLibraryIndex> building = new CompletableFuture<>();
+            Thread thread = new Thread(() -> building.complete(SoLibraryIndex.forDirectory(root.toFile())));
+            thread.setDaemon(true);
+            thread.start();
+            SoLibraryIndex index = building.get(30, TimeUnit.SECONDS);
+            for (int i = 0; i < 64; i++) {
+                assertNotNull(index.find("lib" + i + ".so", "arm64"), "lib" + i + ".so");
+            }
+            assertSame(index, SoLibraryIndex.forDirectory(root.toFile()));
+
+            // 没有监听时按目录修改时间发现新文件
+            Path added = root.resolve("module0").resolve("arm64-v8a").resolve("libadded.so");
+            Files.write(added, new byte[]{0x7f, 'E', 'L', 'F'});
+            File abiDir = added.getParent().toFile();
+            abiDir.setLastModified(abiDir.lastModified() + 2000);
+            Thread.sleep(1100);
+            assertEquals(added.toFile(), SoLibraryIndex.forDirectory(root.toFile()).find("libadded.so", null));
+        } finally {
+            SoLibraryIndex.registrar = original;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.scave.ndktrace;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SymbolStoreTest {
+    private static final String ID_A = "0123456789abcdef0123456789abcdef01234567";
+    private static final String ID_B = "89abcdef0123456789abcdef0123456789abcdef";
+
+    @TempDir
+    Path dir;
+
+    private static File writeLib(Path file, String buildId, long lastModified) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, TestElf.withBuildId(buildId, 256));
+        File result = file.toFile();
+        result.setLastModified(lastModified);
+        return result;
+    }
+
+    @Test
+    void rewrittenWinnerIsResolvedAgain() throws Exception {
+        File soDir = dir.resolve("symbols").toFile();
+        long time = System.currentTimeMillis() - 60_000;
+        File first = writeLib(soDir.toPath().resolve("a/libfoo.so"), ID_A, time);
+        File second = writeLib(soDir.toPath().resolve("b/libfoo.so"), ID_B, time);
+
+        assertEquals(first, SymbolStore.resolve(soDir, "libfoo.so", ID_A, null));
+        assertEquals(first, SymbolStore.resolve(soDir, "libfoo.so", ID_A, null));
+        assertEquals(second, SymbolStore.resolve(soDir, "libfoo.so", ID_B, null));
+
+        // 原地覆盖不产生目录事件，索引版本不变，只能靠记住的文件标识发现变化
+        writeLib(first.toPath(), ID_B, time + 5_000);
+        writeLib(second.toPath(), ID_A, time + 5_000);
+        assertEquals(second, SymbolStore.resolve(soDir, "libfoo.so", ID_A, null));
+        assertEquals(first, SymbolStore.resolve(soDir, "libfoo.so", ID_B, null));
+    }
+
+    @Test
+    void missingBuildIdIsResolvedAfterFileIsAdded() throws Exception {
+        File soDir = dir.resolve("symbols").toFile();
+        writeLib(soDir.toPath().resolve("a/libfoo.so"), ID_A, System.currentTimeMillis() - 60_000);
+        assertNull(SymbolStore.resolve(soDir, "libbar.so", ID_B, null));
+
+        File added = writeLib(soDir.toPath().resolve("b/libbar.so"), ID_B, System.currentTimeMillis());
+        // 新文件由监听事件或目录修改时间检查加入索引，两者都不是同步的
+        soDir.setLastModified(System.currentTimeMillis() + 2_000);
+        long deadline = System.currentTimeMillis() + 5_000;
+        File found = SymbolStore.resolve(soDir, "libbar.so", ID_B, null);
+        while (!added.equals(found) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            found = SymbolStore.resolve(soDir, "libbar.so", ID_B, null);
+        }
+        assertEquals(added, found);
+    }
+}
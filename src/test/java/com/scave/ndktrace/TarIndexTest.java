@@ -0,0 +1,149 @@
+package com.scave.ndktrace;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TarIndexTest {
+    private static final String ARM64_ID = "00112233445566778899aabbccddeeff00112233";
+    private static final String X86_ID = "8899aabbccddeeff";
+    private static final byte[] ARM64_SO = TestElf.withBuildId(ARM64_ID, 3000);
+    private static final byte[] X86_SO = TestElf.withBuildId(X86_ID, 700);
+    private static final String LONG_DIR = "symbols/" + "very-long-directory-name/".repeat(5);
+
+    @TempDir
+    static Path dir;
+    private static File archive;
+
+    @BeforeAll
+    static void createArchive() throws IOException {
+        archive = dir.resolve("symbols.tar.gz").toFile();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(archive))) {
+            writeEntry(out, "./symbols/", '5', new byte[0]);
+            writeEntry(out, "./symbols/README.txt", '0', "readme".getBytes(StandardCharsets.UTF_8));
+            writeEntry(out, "./symbols/arm64-v8a/libfoo.so", '0', ARM64_SO);
+            // GNU长文件名
+            byte[] longName = (LONG_DIR + "x86_64/libfoo.so").getBytes(StandardCharsets.UTF_8);
+            writeEntry(out, "././@LongLink", 'L', longName);
+            writeEntry(out, "truncated", '0', X86_SO);
+            // pax扩展头中的路径
+            writeEntry(out, "PaxHeader", 'x', paxRecord("path", "symbols/x86/libbar.so"));
+            writeEntry(out, "ignored", '0', X86_SO);
+            out.write(new byte[1024]);
+        }
+    }
+
+    private static void writeEntry(OutputStream out, String name, char type, byte[] data) throws IOException {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 124, 12, data.length);
+        putOctal(header, 136, 12, 0);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        out.write(header);
+        out.write(data);
+        out.write(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    private static void putOctal(byte[] header, int offset, int width, long value) {
+        String text = String.format("%0" + (width - 1) + "o", value);
+        System.arraycopy(text.getBytes(StandardCharsets.US_ASCII), 0, header, offset, width - 1);
+    }
+
+    private static byte[] paxRecord(String key, String value) {
+        String body = " " + key + "=" + value + "\n";
+        int length = body.length();
+        while (Integer.toString(length).length() + body.length() != length) {
+            length = Integer.toString(length).length() + body.length();
+        }
+        return (length + body).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void indexesEntriesAndBuildIds() throws IOException {
+        TarIndex index = TarIndex.forArchive(archive);
+        assertNull(index.entry("symbols/"));
+        assertEquals(6, index.entry("symbols/README.txt").size);
+        assertNull(index.entry("symbols/README.txt").buildId);
+        TarIndex.Entry arm64 = index.entry("symbols/arm64-v8a/libfoo.so");
+        assertEquals(ARM64_SO.length, arm64.size);
+        assertEquals(ARM64_ID, arm64.buildId);
+        TarIndex.Entry longNamed = index.entry(LONG_DIR + "x86_64/libfoo.so");
+        assertNotNull(longNamed);
+        assertEquals(X86_ID, longNamed.buildId);
+        assertNull(index.entry("truncated"));
+        assertNotNull(index.entry("symbols/x86/libbar.so"));
+        assertNull(index.entry("ignored"));
+    }
+
+    @Test
+    void findsLibraryByAbi() throws IOException {
+        TarIndex index = TarIndex.forArchive(archive);
+        assertEquals(2, index.libraries("libfoo.so").size());
+        assertEquals("symbols/arm64-v8a/libfoo.so", index.findLibrary("libfoo.so", "arm64").name);
+        assertEquals(LONG_DIR + "x86_64/libfoo.so", index.findLibrary("libfoo.so", "x86_64").name);
+        assertNull(index.findLibrary("libbaz.so", null));
+    }
+
+    @Test
+    void readsEntryContent() throws IOException {
+        TarIndex index = TarIndex.forArchive(archive);
+        TarIndex.Entry arm64 = index.entry("symbols/arm64-v8a/libfoo.so");
+        try (InputStream in = index.open(arm64)) {
+            assertArrayEquals(ARM64_SO, in.readAllBytes());
+        }
+        TarIndex.Entry bar = index.entry("symbols/x86/libbar.so");
+        assertArrayEquals(X86_SO, Files.readAllBytes(index.extract(bar).toPath()));
+    }
+
+    @Test
+    void resolvesEntriesThroughArchiveLibrary() {
+        File found = ArchiveLibrary.find(archive, "/data/app/lib/arm64/libfoo.so", -1, "libfoo.so", "arm64", X86_ID);
+        assertEquals(ArchiveLibrary.entryFile(archive, LONG_DIR + "x86_64/libfoo.so"), found);
+        assertEquals(ARM64_ID, ArchiveLibrary.buildIdOf(ArchiveLibrary.entryFile(archive, "symbols/arm64-v8a/libfoo.so")));
+    }
+
+    @Test
+    void rejectsTruncatedArchive() throws IOException {
+        File truncated = dir.resolve("truncated.tgz").toFile();
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(tar)) {
+            writeEntry(out, "libfoo.so", '0', ARM64_SO);
+        }
+        byte[] bytes = tar.toByteArray();
+        Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        assertThrows(IOException.class, () -> TarIndex.forArchive(truncated));
+        // 失败不留在缓存中，之后的调用重新尝试
+        assertThrows(IOException.class, () -> TarIndex.forArchive(truncated));
+        assertTrue(truncated.delete());
+    }
+}
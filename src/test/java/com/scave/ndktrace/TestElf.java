@@ -0,0 +1,36 @@
+package com.scave.ndktrace;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 测试用的最小ELF64文件：文件头、一个PT_NOTE程序头和GNU build-id注释，后面按需补零
+ */
+final class TestElf {
+    private TestElf() {
+    }
+
+    static byte[] withBuildId(String hex, int totalSize) {
+        byte[] id = new byte[hex.length() / 2];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        int noteOffset = 0x40 + 0x38;
+        int noteSize = 12 + 4 + ((id.length + 3) & ~3);
+        ByteBuffer elf = ByteBuffer.allocate(Math.max(totalSize, noteOffset + noteSize)).order(ByteOrder.LITTLE_ENDIAN);
+        elf.put(new byte[]{0x7f, 'E', 'L', 'F', 2, 1, 1});
+        elf.putShort(0x10, (short) 3);
+        elf.putShort(0x12, (short) 183);
+        elf.putInt(0x14, 1);
+        elf.putLong(0x20, 0x40);
+        elf.putShort(0x34, (short) 0x40);
+        elf.putShort(0x36, (short) 0x38);
+        elf.putShort(0x38, (short) 1);
+        elf.putInt(0x40, 4);
+        elf.putLong(0x40 + 8, noteOffset);
+        elf.putLong(0x40 + 32, noteSize);
+        elf.position(noteOffset);
+        elf.putInt(4).putInt(id.length).putInt(3).put(new byte[]{'G', 'N', 'U', 0}).put(id);
+        return elf.array();
+    }
+}
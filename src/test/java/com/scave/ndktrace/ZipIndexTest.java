@@ -0,0 +1,127 @@
+package com.scave.ndktrace;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ZipIndexTest {
+    private static final String ARM64_ID = "0123456789abcdef0123456789abcdef01234567";
+    private static final String ARM_ID = "fedcba9876543210";
+    private static final byte[] ARM64_SO = TestElf.withBuildId(ARM64_ID, 4096);
+    private static final byte[] ARM_SO = TestElf.withBuildId(ARM_ID, 8192);
+
+    @TempDir
+    static Path dir;
+    private static File apk;
+
+    @BeforeAll
+    static void createApk() throws IOException {
+        apk = dir.resolve("app.apk").toFile();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(apk))) {
+            zip.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+            zip.write(new byte[100]);
+            zip.putNextEntry(new ZipEntry("lib/"));
+            // 系统直接映射的SO不压缩
+            ZipEntry stored = new ZipEntry("lib/arm64-v8a/libfoo.so");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(ARM64_SO.length);
+            CRC32 crc = new CRC32();
+            crc.update(ARM64_SO);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(ARM64_SO);
+            zip.putNextEntry(new ZipEntry("lib/armeabi-v7a/libfoo.so"));
+            zip.write(ARM_SO);
+            zip.closeEntry();
+        }
+    }
+
+    @Test
+    void readsCentralDirectory() throws IOException {
+        ZipIndex index = ZipIndex.forArchive(apk);
+        assertNotNull(index.entry("AndroidManifest.xml"));
+        assertNull(index.entry("lib/"));
+        ZipIndex.Entry stored = index.entry("lib/arm64-v8a/libfoo.so");
+        assertEquals(ZipIndex.METHOD_STORED, stored.method);
+        assertEquals(ARM64_SO.length, stored.size);
+        assertEquals(ZipIndex.METHOD_DEFLATED, index.entry("lib/armeabi-v7a/libfoo.so").method);
+        assertEquals(2, index.libraries("libfoo.so").size());
+    }
+
+    @Test
+    void findsLibraryByAbi() throws IOException {
+        ZipIndex index = ZipIndex.forArchive(apk);
+        assertEquals("lib/arm64-v8a/libfoo.so", index.findLibrary("libfoo.so", "arm64").name);
+        assertEquals("lib/armeabi-v7a/libfoo.so", index.findLibrary("libfoo.so", "arm").name);
+        assertNull(index.findLibrary("libbar.so", "arm64"));
+    }
+
+    @Test
+    void findsStoredEntryByApkOffset() throws IOException {
+        ZipIndex index = ZipIndex.forArchive(apk);
+        ZipIndex.Entry stored = index.entry("lib/arm64-v8a/libfoo.so");
+        long dataOffset = index.dataOffset(stored);
+        assertEquals(stored, index.entryAt(dataOffset));
+        assertEquals(stored, index.entryAt(dataOffset + ARM64_SO.length - 1));
+        assertNull(index.entryAt(dataOffset + ARM64_SO.length));
+        assertNull(index.entryAt(index.entry("lib/armeabi-v7a/libfoo.so").localHeaderOffset + 40));
+    }
+
+    @Test
+    void readsEntryContentAndBuildId() throws IOException {
+        ZipIndex index = ZipIndex.forArchive(apk);
+        ZipIndex.Entry stored = index.entry("lib/arm64-v8a/libfoo.so");
+        ZipIndex.Entry deflated = index.entry("lib/armeabi-v7a/libfoo.so");
+        ByteBuffer mapped = index.mapStored(stored);
+        byte[] bytes = new byte[mapped.remaining()];
+        mapped.get(bytes);
+        assertArrayEquals(ARM64_SO, bytes);
+        try (InputStream in = index.open(deflated)) {
+            assertArrayEquals(ARM_SO, in.readAllBytes());
+        }
+        assertEquals(ARM64_ID, index.buildId(stored));
+        assertEquals(ARM_ID, index.buildId(deflated));
+        assertArrayEquals(ARM_SO, Files.readAllBytes(index.extract(deflated).toPath()));
+    }
+
+    @Test
+    void reloadsAfterArchiveChanges() throws IOException {
+        File copy = dir.resolve("copy.zip").toFile();
+        Files.copy(apk.toPath(), copy.toPath());
+        ZipIndex first = ZipIndex.forArchive(copy);
+        assertEquals(first, ZipIndex.forArchive(copy));
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(copy))) {
+            zip.putNextEntry(new ZipEntry("lib/x86_64/libbar.so"));
+            zip.write(ARM_SO);
+        }
+        copy.setLastModified(first.archive().lastModified() + 2000);
+        ZipIndex second = ZipIndex.forArchive(copy);
+        assertNotNull(second.entry("lib/x86_64/libbar.so"));
+        assertNull(second.entry("lib/arm64-v8a/libfoo.so"));
+    }
+
+    @Test
+    void rejectsNonZip() throws IOException {
+        File bogus = dir.resolve("bogus.apk").toFile();
+        Files.write(bogus.toPath(), new byte[1000]);
+        assertThrows(IOException.class, () -> ZipIndex.forArchive(bogus));
+        assertThrows(IOException.class, () -> ZipIndex.forArchive(bogus));
+    }
+}